@@ -0,0 +1,239 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+/**
+ * Upgrades a database created by v16 of the schema, the last one before
+ * the heatmap, and compares it to a database created with the current one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperTest {
+
+	private static final String DB_NAME = "upgrade-test";
+	private static final String NEW_DB_NAME = "upgrade-test-new";
+
+	/**
+	 * Schema v16, as created by {@link DatabaseHelper#onCreate(SQLiteDatabase)} at the time
+	 */
+	private static final String[] SCHEMA_V16 = {
+		"create table trackpoint (_id integer primary key autoincrement,track_id integer not null,"
+			+ "latitude double not null,longitude double not null,speed double null,elevation double null,"
+			+ "accuracy double null,point_timestamp long not null,compass_heading double null,compass_accuracy integer null)",
+		"create index if not exists trackpoint_idx ON trackpoint(track_id)",
+		"create table waypoint (_id integer primary key autoincrement,track_id integer not null,uuid text,"
+			+ "latitude double not null,longitude double not null,elevation double null,accuracy double null,"
+			+ "point_timestamp long not null,name text,link text,nb_satellites integer not null,"
+			+ "compass_heading double null,compass_accuracy integer null)",
+		"create index if not exists waypoint_idx ON waypoint(track_id)",
+		"create table track (_id integer primary key autoincrement,name text,description text,tags text,"
+			+ "osm_visibility text default 'Private',start_date long not null,directory text,"
+			+ "active integer not null default 0,export_date long,osm_upload_date long)"
+	};
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = InstrumentationRegistry.getTargetContext();
+		context.deleteDatabase(DB_NAME);
+		context.deleteDatabase(NEW_DB_NAME);
+
+		SQLiteDatabase db = context.openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+		for (String sql : SCHEMA_V16) {
+			db.execSQL(sql);
+		}
+		insertTrack(db, 1);
+		insertTrackPoint(db, 1, 1, 48.8583701, 2.2944813, 123.4, 2);
+		insertTrackPoint(db, 2, 1, -33.8567844, 151.2152967, null, null);
+		// Point and waypoint of a track deleted before the foreign keys
+		insertTrackPoint(db, 3, 99, 0, 0, null, null);
+		insertWayPoint(db, 1, 1, "a");
+		insertWayPoint(db, 2, 1, "a");
+		insertWayPoint(db, 3, 1, "b");
+		insertWayPoint(db, 4, 99, "c");
+		db.setVersion(16);
+		db.close();
+	}
+
+	@After
+	public void tearDown() {
+		context.deleteDatabase(DB_NAME);
+		context.deleteDatabase(NEW_DB_NAME);
+	}
+
+	@Test
+	public void upgradedSchemaIsTheCurrentOne() {
+		SQLiteDatabase upgraded = new DatabaseHelper(context, DB_NAME).getWritableDatabase();
+		SQLiteDatabase created = new DatabaseHelper(context, NEW_DB_NAME).getWritableDatabase();
+		try {
+			assertEquals(created.getVersion(), upgraded.getVersion());
+			List<String> schema = describe(created);
+			assertEquals(schema, describe(upgraded));
+			assertTrue(schema.contains("table " + Schema.TBL_TRACKPOINT_CHUNK));
+		} finally {
+			upgraded.close();
+			created.close();
+		}
+	}
+
+	@Test
+	public void upgradeConvertsTrackPoints() {
+		SQLiteDatabase db = new DatabaseHelper(context, DB_NAME).getWritableDatabase();
+		try {
+			// Stored in fixed point...
+			Cursor c = db.rawQuery("select typeof(" + Schema.COL_LATITUDE + "), " + Schema.COL_LATITUDE
+					+ " from " + Schema.TBL_TRACKPOINT + " where " + Schema.COL_ID + " = 1", null);
+			assertTrue(c.moveToFirst());
+			assertEquals("integer", c.getString(0));
+			assertEquals(488583701, c.getLong(1));
+			c.close();
+
+			// ...read as before, with the compass values in their own table
+			c = db.query(Schema.VIEW_TRACKPOINT, new String[] {Schema.COL_ID, Schema.COL_LATITUDE,
+					Schema.COL_LONGITUDE, Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY},
+					null, null, null, null, Schema.COL_ID + " asc");
+			assertEquals(2, c.getCount());
+			c.moveToFirst();
+			assertEquals(48.8583701, c.getDouble(1), 1e-7);
+			assertEquals(2.2944813, c.getDouble(2), 1e-7);
+			assertEquals(123.4, c.getDouble(3), 1e-9);
+			assertEquals(2, c.getInt(4));
+			c.moveToNext();
+			assertEquals(-33.8567844, c.getDouble(1), 1e-7);
+			assertEquals(151.2152967, c.getDouble(2), 1e-7);
+			assertTrue(c.isNull(3));
+			assertTrue(c.isNull(4));
+			c.close();
+			assertEquals(2, count(db, Schema.TBL_TRACKPOINT_ATTRIBUTE));
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void upgradeKeepsOneWayPointPerUuid() {
+		SQLiteDatabase db = new DatabaseHelper(context, DB_NAME).getWritableDatabase();
+		try {
+			Cursor c = db.query(Schema.TBL_WAYPOINT, new String[] {Schema.COL_ID}, null, null, null, null,
+					Schema.COL_ID + " asc");
+			assertEquals(2, c.getCount());
+			c.moveToFirst();
+			assertEquals(1, c.getLong(0));
+			c.moveToNext();
+			assertEquals(3, c.getLong(0));
+			c.close();
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void upgradedPointsAreDeletedWithTheirTrack() {
+		SQLiteDatabase db = new DatabaseHelper(context, DB_NAME).getWritableDatabase();
+		try {
+			db.delete(Schema.TBL_TRACK, Schema.COL_ID + " = 1", null);
+			assertEquals(0, count(db, Schema.TBL_TRACKPOINT));
+			assertEquals(0, count(db, Schema.TBL_TRACKPOINT_ATTRIBUTE));
+			assertEquals(0, count(db, Schema.TBL_WAYPOINT));
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * @return Tables, views and indexes of a database, with their columns, sorted
+	 */
+	private static List<String> describe(SQLiteDatabase db) {
+		List<String> out = new ArrayList<String>();
+		Cursor c = db.rawQuery("select type, name from sqlite_master where name not like 'sqlite_%'"
+				+ " order by type, name", null);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			String type = c.getString(0);
+			String name = c.getString(1);
+			out.add(type + " " + name);
+			if ("index".equals(type)) {
+				out.addAll(pragma(db, "index_info", name, "name"));
+			} else {
+				out.addAll(pragma(db, "table_info", name, "name", "type", "notnull", "dflt_value", "pk"));
+			}
+		}
+		c.close();
+		return out;
+	}
+
+	/**
+	 * @return Rows of a pragma on a table or index, as the given columns separated by spaces
+	 */
+	private static List<String> pragma(SQLiteDatabase db, String pragma, String name, String... columns) {
+		List<String> out = new ArrayList<String>();
+		Cursor c = db.rawQuery("pragma " + pragma + "(" + name + ")", null);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			StringBuilder sb = new StringBuilder(" ");
+			for (String column : columns) {
+				sb.append(' ').append(c.getString(c.getColumnIndexOrThrow(column)));
+			}
+			out.add(sb.toString());
+		}
+		c.close();
+		return out;
+	}
+
+	private static int count(SQLiteDatabase db, String table) {
+		Cursor c = db.rawQuery("select count(*) from " + table, null);
+		c.moveToFirst();
+		int count = c.getInt(0);
+		c.close();
+		return count;
+	}
+
+	private static void insertTrack(SQLiteDatabase db, long id) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_ID, id);
+		values.put(Schema.COL_START_DATE, 1000 * id);
+		db.insertOrThrow(Schema.TBL_TRACK, null, values);
+	}
+
+	private static void insertTrackPoint(SQLiteDatabase db, long id, long trackId, double lat, double lon,
+			Double compass, Integer compassAccuracy) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_ID, id);
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, lat);
+		values.put(Schema.COL_LONGITUDE, lon);
+		values.put(Schema.COL_TIMESTAMP, 1000 * id);
+		values.put(Schema.COL_COMPASS, compass);
+		values.put(Schema.COL_COMPASS_ACCURACY, compassAccuracy);
+		db.insertOrThrow(Schema.TBL_TRACKPOINT, null, values);
+	}
+
+	private static void insertWayPoint(SQLiteDatabase db, long id, long trackId, String uuid) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_ID, id);
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_UUID, uuid);
+		values.put(Schema.COL_LATITUDE, 0);
+		values.put(Schema.COL_LONGITUDE, 0);
+		values.put(Schema.COL_TIMESTAMP, 1000 * id);
+		values.put(Schema.COL_NBSATELLITES, 0);
+		db.insertOrThrow(Schema.TBL_WAYPOINT, null, values);
+	}
+
+}
@@ -0,0 +1,239 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the queries of each provider URI,
+ * with the selections the app passes, search the point, waypoint and
+ * grid tables by index instead of scanning them, and don't sort in
+ * a temporary B-tree. Only the track table, a few hundred rows at most,
+ * may be scanned.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TrackContentProviderQueryPlanTest {
+
+	private static final String DB_NAME = "query-plan-test";
+
+	/**
+	 * Full scan of a table: "SCAN TABLE x" on older SQLite versions, "SCAN x" on recent ones
+	 */
+	private static final Pattern SCAN = Pattern.compile("SCAN (?:TABLE )?(\\w+)");
+
+	private static final String TEMP_B_TREE = "TEMP B-TREE";
+
+	private Context context;
+	private SQLiteDatabase db;
+
+	@Before
+	public void setUp() {
+		context = InstrumentationRegistry.getTargetContext();
+		context.deleteDatabase(DB_NAME);
+		db = new DatabaseHelper(context, DB_NAME).getWritableDatabase();
+	}
+
+	@After
+	public void tearDown() {
+		db.close();
+		context.deleteDatabase(DB_NAME);
+	}
+
+	@Test
+	public void trackPoints() {
+		List<String> plan = plan(TrackContentProvider.trackPointsUri(1), null, null, null, null);
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertSearches(plan, Schema.TBL_TRACKPOINT_ATTRIBUTE);
+		assertNoScan(plan);
+
+		// Export
+		plan = plan(TrackContentProvider.trackPointsUri(1), null, null, null, Schema.COL_TIMESTAMP + " asc");
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertNoScan(plan);
+		assertNoSort(plan);
+
+		// Paging, e.g. by the path loader
+		plan = plan(TrackContentProvider.trackPointsUri(1),
+				new String[] {Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE},
+				Schema.COL_ID + " > ?", new String[] {"0"}, Schema.COL_ID + " asc");
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertFalse("Attributes read while not queried: " + plan, mentions(plan, Schema.TBL_TRACKPOINT_ATTRIBUTE));
+		assertNoScan(plan);
+		assertNoSort(plan);
+	}
+
+	@Test
+	public void trackStartAndEnd() {
+		for (Uri uri : new Uri[] {TrackContentProvider.trackStartUri(1), TrackContentProvider.trackEndUri(1)}) {
+			List<String> plan = plan(uri, null, null, null, null);
+			assertSearches(plan, Schema.TBL_TRACKPOINT);
+			assertNoScan(plan);
+			assertNoSort(plan);
+		}
+	}
+
+	@Test
+	public void wayPoints() {
+		List<String> plan = plan(TrackContentProvider.waypointsUri(1), null, null, null, null);
+		assertSearches(plan, Schema.TBL_WAYPOINT);
+		assertNoScan(plan);
+
+		plan = plan(TrackContentProvider.waypointsUri(1), null, null, null, Schema.COL_TIMESTAMP + " asc");
+		assertSearches(plan, Schema.TBL_WAYPOINT);
+		assertNoScan(plan);
+		assertNoSort(plan);
+	}
+
+	@Test
+	public void wayPointUuid() {
+		List<String> plan = plan("update " + Schema.TBL_WAYPOINT + " set " + Schema.COL_NAME + " = ?"
+				+ " where " + Schema.COL_UUID + " = ?", new String[] {"name", "uuid"});
+		assertSearches(plan, Schema.TBL_WAYPOINT);
+		assertNoScan(plan);
+	}
+
+	@Test
+	public void tracks() {
+		List<String> plan = plan(TrackContentProvider.CONTENT_URI_TRACK, null, null, null, null);
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertSearches(plan, Schema.TBL_TRACKPOINT_CHUNK);
+		assertSearches(plan, Schema.TBL_WAYPOINT);
+		assertNoScan(plan);
+
+		plan = plan(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, 1), null, null, null, null);
+		assertSearches(plan, Schema.TBL_TRACK);
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertNoScan(plan);
+
+		plan = plan(TrackContentProvider.CONTENT_URI_TRACK_ACTIVE, null, null, null, null);
+		assertNoScan(plan);
+	}
+
+	@Test
+	public void trackList() {
+		// Next page, as read by TrackListLoader
+		List<String> plan = plan(TrackContentProvider.trackListUri(20), null,
+				Schema.COL_START_DATE + " <= ? and (" + Schema.COL_START_DATE + " < ? or " + Schema.COL_ID + " < ?)",
+				new String[] {"0", "0", "0"}, Schema.COL_START_DATE + " desc, " + Schema.COL_ID + " desc");
+		assertSearches(plan, Schema.TBL_TRACK);
+		assertSearches(plan, Schema.TBL_TRACKPOINT);
+		assertSearches(plan, Schema.TBL_TRACKPOINT_CHUNK);
+		assertSearches(plan, Schema.TBL_WAYPOINT);
+		assertNoScan(plan);
+		assertNoSort(plan);
+	}
+
+	@Test
+	public void heatmap() {
+		// Cells of a tile, and max. count of a level, as read by TracksOverviewOverlay
+		List<String> plan = plan(TrackContentProvider.CONTENT_URI_HEATMAP,
+				new String[] {Schema.COL_CELL_X, Schema.COL_CELL_Y, Schema.COL_NB_POINTS},
+				Schema.COL_ZOOM + " = ? and " + Schema.COL_CELL_X + " between ? and ? and "
+						+ Schema.COL_CELL_Y + " between ? and ?",
+				new String[] {"10", "0", "3", "0", "3"}, null);
+		assertSearches(plan, Schema.TBL_HEATMAP_CELL);
+		assertNoScan(plan);
+
+		plan = plan(TrackContentProvider.CONTENT_URI_HEATMAP, new String[] {"max(" + Schema.COL_NB_POINTS + ")"},
+				Schema.COL_ZOOM + " = ?", new String[] {"10"}, null);
+		assertSearches(plan, Schema.TBL_HEATMAP_CELL);
+		assertNoScan(plan);
+
+		plan = plan(TrackContentProvider.CONTENT_URI_HEATMAP_TRACKS, new String[] {Schema.COL_ID},
+				Schema.COL_MIN_LATITUDE + " <= ? and " + Schema.COL_MAX_LATITUDE + " >= ? and "
+						+ Schema.COL_MIN_LONGITUDE + " <= ? and " + Schema.COL_MAX_LONGITUDE + " >= ?",
+				new String[] {"1", "0", "1", "0"}, null);
+		assertNoScan(plan);
+	}
+
+	@Test
+	public void sealedChunks() {
+		List<String> plan = plan("select * from " + Schema.TBL_TRACKPOINT_CHUNK
+				+ " where " + Schema.COL_TRACK_ID + " = ? order by " + Schema.COL_FIRST_ID + " asc",
+				new String[] {"1"});
+		assertSearches(plan, Schema.TBL_TRACKPOINT_CHUNK);
+		assertNoScan(plan);
+		assertNoSort(plan);
+	}
+
+	/**
+	 * @return Plan of the query of the provider for a URI
+	 */
+	private List<String> plan(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		TrackContentProvider.Query query = TrackContentProvider.buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+		return plan(query.toSql(), query.selectionArgs);
+	}
+
+	/**
+	 * @return Details of the plan of a statement, one per step
+	 */
+	private List<String> plan(String sql, String[] args) {
+		List<String> plan = new ArrayList<String>();
+		Cursor c = db.rawQuery("explain query plan " + sql, args);
+		int detail = c.getColumnIndexOrThrow("detail");
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			plan.add(c.getString(detail));
+		}
+		c.close();
+		return plan;
+	}
+
+	private static boolean mentions(List<String> plan, String table) {
+		Pattern p = Pattern.compile("\\b" + table + "\\b");
+		for (String step : plan) {
+			if (p.matcher(step).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void assertSearches(List<String> plan, String table) {
+		Pattern p = Pattern.compile("SEARCH (TABLE )?" + table + "\\b");
+		for (String step : plan) {
+			if (p.matcher(step).find()) {
+				return;
+			}
+		}
+		fail("No search of " + table + ": " + plan);
+	}
+
+	/**
+	 * Asserts that no table is scanned, but the track table
+	 */
+	private static void assertNoScan(List<String> plan) {
+		for (String step : plan) {
+			Matcher m = SCAN.matcher(step);
+			if (m.find()) {
+				assertEquals("Full scan: " + plan, Schema.TBL_TRACK, m.group(1));
+			}
+		}
+	}
+
+	private static void assertNoSort(List<String> plan) {
+		for (String step : plan) {
+			assertFalse("Sort: " + plan, step.contains(TEMP_B_TREE));
+		}
+	}
+
+}
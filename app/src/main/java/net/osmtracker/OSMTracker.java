@@ -23,6 +23,15 @@ public class OSMTracker {
 		public final static String KEY_GPS_IGNORE_CLOCK = "gps.ignoreclock";
 		public final static String KEY_GPS_LOGGING_INTERVAL = "gps.logging.interval";
 		public final static String KEY_GPS_LOGGING_MIN_DISTANCE = "gps.logging.min_distance";
+		public final static String KEY_GPS_ADAPTIVE_SAMPLING = "gps.adaptive_sampling";
+		public final static String KEY_GPS_ADAPTIVE_MIN_INTERVAL = "gps.adaptive_sampling.min_interval";
+		public final static String KEY_GPS_ADAPTIVE_MAX_INTERVAL = "gps.adaptive_sampling.max_interval";
+		public final static String KEY_GPS_COMPRESSION = "gps.compression";
+		public final static String KEY_GPS_COMPRESSION_TOLERANCE = "gps.compression.tolerance";
+		public final static String KEY_GPS_FILTER = "gps.filter";
+		public final static String KEY_GPS_FILTER_MAX_ACCURACY = "gps.filter.max_accuracy";
+		public final static String KEY_GPS_FILTER_MAX_SPEED = "gps.filter.max_speed";
+		public final static String KEY_GPS_FILTER_SMOOTHING = "gps.filter.smoothing";
 		public final static String KEY_OUTPUT_FILENAME = "gpx.filename";
 		public final static String KEY_OUTPUT_ACCURACY = "gpx.accuracy";
 		public final static String KEY_OUTPUT_GPX_HDOP_APPROXIMATION = "gpx.hdop.approximation";
@@ -55,6 +64,15 @@ public class OSMTracker {
 		public final static boolean VAL_GPS_IGNORE_CLOCK = false;
 		public final static String VAL_GPS_LOGGING_INTERVAL = "0";
 		public final static String VAL_GPS_LOGGING_MIN_DISTANCE = "0";
+		public final static boolean VAL_GPS_ADAPTIVE_SAMPLING = false;
+		public final static String VAL_GPS_ADAPTIVE_MIN_INTERVAL = "1";
+		public final static String VAL_GPS_ADAPTIVE_MAX_INTERVAL = "30";
+		public final static boolean VAL_GPS_COMPRESSION = false;
+		public final static String VAL_GPS_COMPRESSION_TOLERANCE = "5";
+		public final static boolean VAL_GPS_FILTER = false;
+		public final static String VAL_GPS_FILTER_MAX_ACCURACY = "50";
+		public final static String VAL_GPS_FILTER_MAX_SPEED = "70";
+		public final static boolean VAL_GPS_FILTER_SMOOTHING = false;
 		
 		public final static String VAL_OUTPUT_FILENAME_NAME = "name";
 		public final static String VAL_OUTPUT_FILENAME_NAME_DATE = "name_date";
@@ -142,6 +160,18 @@ public class OSMTracker {
 	 * Key for extra data "uuid" in Intent
 	 */
 	public final static String INTENT_KEY_UUID = "uuid";
+
+	/**
+	 * Key for extra data "timestamp" in Intent: system time (ms) at which
+	 * the waypoint was requested
+	 */
+	public final static String INTENT_KEY_TIMESTAMP = "timestamp";
+
+	/**
+	 * Key for extra data "result receiver" in Intent: notified once
+	 * the waypoint command has been processed
+	 */
+	public final static String INTENT_KEY_RESULT_RECEIVER = "result_receiver";
 	
 	/**
 	 * Approximation factor for calculating Horizontal Dilution of Precision
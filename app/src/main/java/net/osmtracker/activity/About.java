@@ -4,6 +4,7 @@ import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.db.DatabaseHelper;
 import net.osmtracker.db.ExportDatabaseTask;
+import net.osmtracker.util.MemoryBudgetManager;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -132,6 +133,8 @@ public class About extends Activity {
 				+ Environment.getExternalStorageState() + "'\n"
 			+ "Can write to external storage: "
 				+ Boolean.toString(Environment.getExternalStorageDirectory().canWrite()) + "\n"
+			+ "Memory caches:\n"
+				+ MemoryBudgetManager.getInstance(this).getUsage()
 		;
 	}
 
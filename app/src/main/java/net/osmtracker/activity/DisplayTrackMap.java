@@ -1,32 +1,39 @@
 package net.osmtracker.activity;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
+import java.text.MessageFormat;
 
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
+import net.osmtracker.db.ChangeNotificationDispatcher;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackPathLoader;
+import net.osmtracker.overlay.AnimatedLocationOverlay;
 import net.osmtracker.overlay.WayPointsOverlay;
+import net.osmtracker.tiles.SeedTrackTilesTask;
+import net.osmtracker.util.MemoryBudgetManager;
 
 import org.osmdroid.api.IMapController;
 import org.osmdroid.config.Configuration;
 import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.PathOverlay;
-import org.osmdroid.views.overlay.mylocation.SimpleLocationOverlay;
 
 import android.app.Activity;
-import android.content.ContentUris;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.ContentObserver;
-import android.database.Cursor;
 import android.graphics.Color;
+import android.graphics.Point;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -35,7 +42,10 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.View.OnClickListener;
+import android.widget.RelativeLayout;
+import android.widget.Toast;
 
 /**
  * Display current track over an OSM map.
@@ -47,7 +57,7 @@ import android.view.View.OnClickListener;
  * @author Viesturs Zarins
  *
  */
-public class DisplayTrackMap extends Activity {
+public class DisplayTrackMap extends Activity implements TrackPathLoader.Listener {
 
 	private static final String TAG = DisplayTrackMap.class.getSimpleName();
 	
@@ -90,6 +100,18 @@ public class DisplayTrackMap extends Activity {
 	 */
 	private static final int DEFAULT_ZOOM  = 16;
 
+	/**
+	 * Min. time between two map centering animations, in ms
+	 */
+	private static final long CENTER_INTERVAL = 1000;
+
+	/**
+	 * Zoom levels offered when downloading the map of the track:
+	 * lowest level, and choices of highest level
+	 */
+	private static final int SEED_MIN_ZOOM = 8;
+	private static final int[] SEED_MAX_ZOOMS = {14, 15, 16, 17};
+
 	/**
 	 * Main OSM view
 	 */
@@ -103,7 +125,7 @@ public class DisplayTrackMap extends Activity {
 	/**
 	 * OSM view overlay that displays current location
 	 */
-	private SimpleLocationOverlay myLocationOverlay;
+	private AnimatedLocationOverlay myLocationOverlay;
 	
 	/**
 	 * OSM view overlay that displays current path
@@ -137,11 +159,21 @@ public class DisplayTrackMap extends Activity {
 	private GeoPoint currentPosition;
 
 	/**
-	 * The row id of the last location read from the database that has been added to the
-	 * list of layout points. Using this we to reduce DB load by only reading new points.
-	 * Initially null, to indicate that no data has yet been read.  
+	 * Last time the map was centered on {@link #currentPosition}
 	 */
-	private Integer lastTrackPointIdProcessed = null;
+	private long lastCenterTime = 0;
+
+	/**
+	 * The row id of the last location that has been added to the path overlay,
+	 * or -1 if no data has yet been read.
+	 */
+	private long lastTrackPointIdProcessed = -1;
+
+	/**
+	 * Loads the path on a background thread. Kept across
+	 * configuration changes, with the points already read.
+	 */
+	private TrackPathLoader pathLoader;
 	
 	/**
 	 * Observes changes on trackpoints
@@ -153,6 +185,23 @@ public class DisplayTrackMap extends Activity {
 	 */
 	private SharedPreferences prefs = null;
 
+	private MemoryBudgetManager memoryBudget;
+
+	/**
+	 * Memory cache of the map tiles, as seen by the {@link MemoryBudgetManager}
+	 */
+	private final MemoryBudgetManager.Cache tileCache = new MemoryBudgetManager.Cache() {
+		@Override
+		public long getSize() {
+			return osmView.getTileProvider().getTileCache().getSize() * memoryBudget.getTileBytes();
+		}
+
+		@Override
+		public void trim() {
+			osmView.getTileProvider().clearTileCache();
+		}
+	};
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -160,13 +209,17 @@ public class DisplayTrackMap extends Activity {
 		// loading the preferences
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
+		// Size the tile caches before the map view is created
+		Configuration.getInstance().load(this, prefs);
+		memoryBudget = MemoryBudgetManager.getInstance(this);
+		memoryBudget.configureTileCaches(Configuration.getInstance().getOsmdroidTileCache());
+
 		setContentView(R.layout.displaytrackmap);
 
 		currentTrackId = getIntent().getExtras().getLong(TrackContentProvider.Schema.COL_TRACK_ID);
 		setTitle(getTitle() + ": #" + currentTrackId);
 
 		// Initialize OSM view
-		Configuration.getInstance().load(this, prefs);
 		osmView = (MapView) findViewById(R.id.displaytrackmap_osmView);
 		osmView.setMultiTouchControls(true);  // pinch to zoom
 		// we'll use osmView to define if the screen is always on or not
@@ -192,12 +245,30 @@ public class DisplayTrackMap extends Activity {
 
 		createOverlays();
 
+		pathLoader = (TrackPathLoader) getLastNonConfigurationInstance();
+		if (pathLoader == null) {
+			pathLoader = new TrackPathLoader(getContentResolver(), currentTrackId);
+			memoryBudget.register("Map track path", MemoryBudgetManager.PRIORITY_GEOMETRY, pathLoader);
+		}
+		pathLoader.attach(this);
+		memoryBudget.register("Map tiles", MemoryBudgetManager.PRIORITY_TILES, tileCache);
+		memoryBudget.register("Map waypoints", MemoryBudgetManager.PRIORITY_GEOMETRY, wayPointsOverlay);
+
 		// Create content observer for trackpoints
 		trackpointContentObserver = new ContentObserver(new Handler()) {
 			@Override
 			public void onChange(boolean selfChange) {
 				pathChanged();
 			}
+
+			@Override
+			public void onChange(boolean selfChange, Uri uri) {
+				// Skip notifications for points we already have
+				long lastId = ChangeNotificationDispatcher.getLastId(uri);
+				if (lastId < 0 || lastId > lastTrackPointIdProcessed) {
+					pathChanged();
+				}
+			}
 		};
 
 		// Register listeners for zoom buttons
@@ -263,6 +334,25 @@ public class DisplayTrackMap extends Activity {
 	}
 
 
+	@Override
+	public Object onRetainNonConfigurationInstance() {
+		return pathLoader;
+	}
+
+	@Override
+	protected void onDestroy() {
+		pathLoader.attach(null);
+		memoryBudget.unregister(tileCache);
+		memoryBudget.unregister(wayPointsOverlay);
+		wayPointsOverlay.onDetach(osmView);
+		myLocationOverlay.detach();
+		if (!isChangingConfigurations()) {
+			memoryBudget.unregister(pathLoader);
+			pathLoader.quit();
+		}
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onResume() {
 
@@ -280,20 +370,17 @@ public class DisplayTrackMap extends Activity {
 				TrackContentProvider.trackPointsUri(currentTrackId),
 				true, trackpointContentObserver);
 
-		// Forget the last waypoint read from the DB
-		// This ensures that all waypoints for the track will be reloaded
-		// from the database to populate the path layout
-		lastTrackPointIdProcessed = null;
-
-		// Reload path
+		// Load the points recorded while paused
 		pathChanged();
 
+		// Zoom on an old track, once
+		if (!zoomedToTrackAlready) {
+			pathLoader.loadBounds();
+		}
+
 		selectTileSource();
 
 		setTileDpiScaling();
-		
-		// Refresh way points
-		wayPointsOverlay.refresh();
 
 	}
 
@@ -301,9 +388,6 @@ public class DisplayTrackMap extends Activity {
 	protected void onPause() {
 		// Unregister content observer
 		getContentResolver().unregisterContentObserver(trackpointContentObserver);
-		
-		// Clear the points list.
-		pathOverlay.clearPath();
 
 		super.onPause();
 	}
@@ -344,6 +428,9 @@ public class DisplayTrackMap extends Activity {
 				osmViewController.animateTo(currentPosition);
 			}
 			break;
+		case R.id.displaytrackmap_menu_download_map:
+			downloadMap();
+			break;
 		case R.id.displaytrackmap_menu_settings:
 			// Start settings activity
 			startActivity(new Intent(this, Preferences.class));
@@ -365,6 +452,39 @@ public class DisplayTrackMap extends Activity {
 	}
 
 
+	/**
+	 * Asks for the zoom levels, and downloads the map tiles around the track
+	 */
+	private void downloadMap() {
+		ITileSource source = osmView.getTileProvider().getTileSource();
+		if (!(source instanceof OnlineTileSourceBase)) {
+			Toast.makeText(this, R.string.displaytrackmap_seeding_unsupported, Toast.LENGTH_SHORT).show();
+			return;
+		}
+		final OnlineTileSourceBase tileSource = (OnlineTileSourceBase) source;
+		if (!SeedTrackTilesTask.isSeedingAllowed(tileSource)) {
+			Toast.makeText(this, R.string.displaytrackmap_seeding_forbidden, Toast.LENGTH_LONG).show();
+			return;
+		}
+
+		String[] choices = new String[SEED_MAX_ZOOMS.length];
+		for (int i = 0; i < SEED_MAX_ZOOMS.length; i++) {
+			choices[i] = MessageFormat.format(getResources().getString(R.string.displaytrackmap_seeding_zoom_range),
+					SEED_MIN_ZOOM, SEED_MAX_ZOOMS[i]);
+		}
+		new AlertDialog.Builder(this)
+			.setTitle(R.string.displaytrackmap_seeding_zoom)
+			.setItems(choices, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					new SeedTrackTilesTask(DisplayTrackMap.this, currentTrackId, tileSource,
+							SEED_MIN_ZOOM, SEED_MAX_ZOOMS[which]).execute();
+				}
+			})
+			.setNegativeButton(android.R.string.cancel, null)
+			.show();
+	}
+
 	/**
 	 * Creates overlays over the OSM view
 	 */
@@ -377,116 +497,91 @@ public class DisplayTrackMap extends Activity {
 
 		osmView.getOverlays().add(pathOverlay);
 		
-		myLocationOverlay = new SimpleLocationOverlay(this);
-		osmView.getOverlays().add(myLocationOverlay);
+		// Current location is drawn on its own view over the map, see AnimatedLocationOverlay
+		myLocationOverlay = new AnimatedLocationOverlay(this, osmView);
+		RelativeLayout layout = (RelativeLayout) osmView.getParent();
+		layout.addView(myLocationOverlay, layout.indexOfChild(osmView) + 1,
+				new RelativeLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
 		
 		wayPointsOverlay = new WayPointsOverlay(this, currentTrackId);
 		osmView.getOverlays().add(wayPointsOverlay);
 	}
 	
 	/**
-	 * On track path changed, update the two overlays and repaint view.
-	 * If {@link #lastTrackPointIdProcessed} is null, this is the initial call
-	 * from {@link #onResume()}, and not the periodic call from
-	 * {@link ContentObserver#onChange(boolean) trackpointContentObserver.onChange(boolean)}
-	 * while recording.
+	 * On track path changed, load the new points. The overlays
+	 * are updated by {@link #onPointsLoaded(int[], int[], int, long)}.
 	 */
 	private void pathChanged() {
 		if (isFinishing()) {
 			return;
 		}
-		
-		// See if the track is active.
-		// If not, we'll calculate initial track bounds
-		// while retrieving from the database.
-		// (the first point will overwrite these lat/lon bounds.)
-		boolean doInitialBoundsCalc = false;
-		double minLat = 91.0, minLon = 181.0;
-		double maxLat = -91.0, maxLon = -181.0;
-		if ((! zoomedToTrackAlready) && (lastTrackPointIdProcessed == null)) {
-			final String[] proj_active = {TrackContentProvider.Schema.COL_ACTIVE};
-			Cursor cursor = getContentResolver().query(
-				ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, currentTrackId),
-				proj_active, null, null, null);
-			if (cursor.moveToFirst()) {
-				doInitialBoundsCalc =
-					(cursor.getInt(cursor.getColumnIndex(TrackContentProvider.Schema.COL_ACTIVE)) == TrackContentProvider.Schema.VAL_TRACK_INACTIVE);
-			}
-			cursor.close();
+		pathLoader.load();
+	}
+
+	@Override
+	public void onPointsLoaded(int[] latitudesE6, int[] longitudesE6, int count, long lastId) {
+		for (int i = 0; i < count; i++) {
+			pathOverlay.addPoint(latitudesE6[i], longitudesE6[i]);
 		}
-		
-		// Projection: The columns to retrieve. Here, we want the latitude, 
-		// longitude and primary key only
-		String[] projection = {TrackContentProvider.Schema.COL_LATITUDE, TrackContentProvider.Schema.COL_LONGITUDE, TrackContentProvider.Schema.COL_ID};
-		// Selection: The where clause to use
-		String selection = null;
-		// SelectionArgs: The parameter replacements to use for the '?' in the selection		
-		String[] selectionArgs = null;
-		
-		  // Only request the track points that we have not seen yet
-		// If we have processed any track points in this session then
-		// lastTrackPointIdProcessed will not be null. We only want 
-		// to see data from rows with a primary key greater than lastTrackPointIdProcessed  
-		if (lastTrackPointIdProcessed != null) {
-			selection = TrackContentProvider.Schema.COL_ID + " > ?";
-			List<String> selectionArgsList  = new ArrayList<String>();
-			selectionArgsList.add(lastTrackPointIdProcessed.toString());
-			
-			selectionArgs = selectionArgsList.toArray(new String[1]); 
+		if (lastId >= 0) {
+			lastTrackPointIdProcessed = lastId;
 		}
 
-		// Retrieve any points we have not yet seen
-		Cursor c = getContentResolver().query(
-			TrackContentProvider.trackPointsUri(currentTrackId),
-			projection, selection, selectionArgs, TrackContentProvider.Schema.COL_ID + " asc");
-		
-		int numberOfPointsRetrieved = c.getCount();
-		if (numberOfPointsRetrieved > 0 ) {
-			c.moveToFirst();
-			double lastLat = 0;
-			double lastLon = 0;
-			int primaryKeyColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_ID);
-			int latitudeColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE);
-			int longitudeColumnIndex = c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE);
-		
-			// Add each new point to the track
-			while(!c.isAfterLast()) {			
-				lastLat = c.getDouble(latitudeColumnIndex);
-				lastLon = c.getDouble(longitudeColumnIndex);
-				lastTrackPointIdProcessed = c.getInt(primaryKeyColumnIndex);
-				pathOverlay.addPoint((int)(lastLat * 1e6), (int)(lastLon * 1e6));
-				if (doInitialBoundsCalc) {
-					if (lastLat < minLat)  minLat = lastLat;
-					if (lastLon < minLon)  minLon = lastLon;
-					if (lastLat > maxLat)  maxLat = lastLat;
-					if (lastLon > maxLon)  maxLon = lastLon;
-				}
-				c.moveToNext();
-			}		
-		
-			// Last point is current position.
-			currentPosition = new GeoPoint(lastLat, lastLon); 
-			myLocationOverlay.setLocation(currentPosition);		
+		// Last point is current position.
+		GeoPoint previousPosition = currentPosition;
+		currentPosition = new GeoPoint(latitudesE6[count - 1] / 1e6, longitudesE6[count - 1] / 1e6);
+
+		if (previousPosition != null && count == 1) {
+			// New fix while recording: animate the marker, and
+			// repaint the map once for the new segment of the path
+			myLocationOverlay.animateTo(currentPosition);
+			if (centerToGpsPos) {
+				centerOnPosition();
+			}
+			osmView.invalidate();
+		} else {
+			myLocationOverlay.setLocation(currentPosition);
 			if(centerToGpsPos) {
 				osmViewController.setCenter(currentPosition);
 			}
-		
 			// Repaint
 			osmView.invalidate();
-			if (doInitialBoundsCalc && (numberOfPointsRetrieved > 1)) {
-				// osmdroid-3.0.8 hangs if we directly call zoomToSpan during initial onResume,
-				// so post a Runnable instead for after it's done initializing.
-				final double north = maxLat, east = maxLon, south = minLat, west = minLon;
-				osmView.post(new Runnable() {
-					@Override
-					public void run() {
-						osmViewController.zoomToSpan((int) (north-south), (int) (east-west));
-						osmViewController.setCenter(new GeoPoint((north + south) / 2, (east + west) / 2));
-						zoomedToTrackAlready = true;
-					}
-				});
-			}
 		}
-		c.close();
+	}
+
+	/**
+	 * Animates the map to {@link #currentPosition} if it's outside of the central
+	 * area of the screen, at most once per {@link #CENTER_INTERVAL}.
+	 */
+	private void centerOnPosition() {
+		long now = SystemClock.uptimeMillis();
+		if (now - lastCenterTime < CENTER_INTERVAL) {
+			return;
+		}
+		Point p = osmView.getProjection().toPixels(currentPosition, null);
+		int width = osmView.getWidth();
+		int height = osmView.getHeight();
+		if (Math.abs(p.x - width / 2) > width / 4 || Math.abs(p.y - height / 2) > height / 4) {
+			lastCenterTime = now;
+			osmViewController.animateTo(currentPosition);
+		}
+	}
+
+	@Override
+	public void onBoundsLoaded(double minLat, double minLon, double maxLat, double maxLon) {
+		if (zoomedToTrackAlready) {
+			return;
+		}
+		// osmdroid-3.0.8 hangs if we directly call zoomToSpan during initial onResume,
+		// so post a Runnable instead for after it's done initializing.
+		final double north = maxLat, east = maxLon, south = minLat, west = minLon;
+		osmView.post(new Runnable() {
+			@Override
+			public void run() {
+				osmViewController.zoomToSpan((int) (north-south), (int) (east-west));
+				osmViewController.setCenter(new GeoPoint((north + south) / 2, (east + west) / 2));
+				zoomedToTrackAlready = true;
+			}
+		});
 	}
 }
@@ -14,7 +14,9 @@ import net.osmtracker.layout.UserDefinedLayout;
 import net.osmtracker.listener.SensorListener;
 import net.osmtracker.receiver.MediaButtonReceiver;
 import net.osmtracker.service.gps.GPSLogger;
+import net.osmtracker.service.gps.GPSLoggerHolder;
 import net.osmtracker.service.gps.GPSLoggerServiceConnection;
+import net.osmtracker.service.gps.WayPointCommand;
 import net.osmtracker.util.CustomLayoutsUtils;
 import net.osmtracker.util.FileSystemUtils;
 import net.osmtracker.util.ThemeValidator;
@@ -35,7 +37,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -71,7 +72,7 @@ import android.widget.Toast;
  * @author Nicolas Guillaumin
  * 
  */
-public class TrackLogger extends Activity {
+public class TrackLogger extends Activity implements GPSLoggerHolder {
 
 	private static final String TAG = TrackLogger.class.getSimpleName();
 
@@ -139,7 +140,7 @@ public class TrackLogger extends Activity {
 	/**
 	 * Handles the bind to the GPS Logger service
 	 */
-	private ServiceConnection gpsLoggerConnection = new GPSLoggerServiceConnection(this);
+	private GPSLoggerServiceConnection gpsLoggerConnection = new GPSLoggerServiceConnection(this);
 	
 	/**
 	 * Keeps the SharedPreferences
@@ -327,13 +328,11 @@ public class TrackLogger extends Activity {
 			checkGPSProvider();
 		}
 
-		// Register GPS status update for upper controls
-		((GpsStatusRecord) findViewById(R.id.gpsStatus)).requestLocationUpdates(true);
-
 		// Start GPS Logger service
 		startService(gpsLoggerServiceIntent);
 
-		// Bind to GPS service.
+		// Bind to GPS service. Once connected, GPS status updates for upper
+		// controls will come from the service (see GPSLoggerServiceConnection).
 		// We can't use BIND_AUTO_CREATE here, because when we'll ubound
 		// later, we want to keep the service alive in background
 		bindService(gpsLoggerServiceIntent, gpsLoggerConnection, 0);
@@ -382,7 +381,7 @@ public class TrackLogger extends Activity {
 	protected void onPause() {
 		
 		// Un-register GPS status update for upper controls
-		((GpsStatusRecord) findViewById(R.id.gpsStatus)).requestLocationUpdates(false);
+		gpsLoggerConnection.removeGpsListeners();
 
 		if (gpsLogger != null) {
 			if (!gpsLogger.isTracking()) {
@@ -617,14 +616,11 @@ public class TrackLogger extends Activity {
 		case REQCODE_IMAGE_CAPTURE:
 			if (resultCode == RESULT_OK) {
 				// A still image has been captured, track the corresponding waypoint
-				// Send an intent to inform service to track the waypoint.
+				// Inform service to track the waypoint.
 				File imageFile = popImageFile();
 				if (imageFile != null) {
-					Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-					intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, currentTrackId);
-					intent.putExtra(OSMTracker.INTENT_KEY_NAME, getResources().getString(R.string.wpt_stillimage));
-					intent.putExtra(OSMTracker.INTENT_KEY_LINK, imageFile.getName());
-					sendBroadcast(intent);
+					WayPointCommand.track(currentTrackId, null, getResources().getString(R.string.wpt_stillimage),
+							imageFile.getName()).send(this, null);
 				}
 			}
 			break;
@@ -641,12 +637,9 @@ public class TrackLogger extends Activity {
 					Log.d(TAG, "Copying gallery file '"+f+"' into '"+imageFile+"'");
 					FileSystemUtils.copyFile(imageFile.getParentFile(), new File(f), imageFile.getName());
 					
-					// Send an intent to inform service to track the waypoint.
-					Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-					intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, currentTrackId);
-					intent.putExtra(OSMTracker.INTENT_KEY_NAME, getResources().getString(R.string.wpt_stillimage));
-					intent.putExtra(OSMTracker.INTENT_KEY_LINK, imageFile.getName());
-					sendBroadcast(intent);
+					// Inform service to track the waypoint.
+					WayPointCommand.track(currentTrackId, null, getResources().getString(R.string.wpt_stillimage),
+							imageFile.getName()).send(this, null);
 				}
 			}
 		}
@@ -661,6 +654,7 @@ public class TrackLogger extends Activity {
 	 * 
 	 * @return Activity {@link GPSLogger}
 	 */
+	@Override
 	public GPSLogger getGpsLogger() {
 		return gpsLogger;
 	}
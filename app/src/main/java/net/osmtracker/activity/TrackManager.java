@@ -1,16 +1,20 @@
 package net.osmtracker.activity;
 
-import java.io.File;
 import java.util.Date;
+import java.util.List;
 
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.db.DataHelper;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackListLoader;
+import net.osmtracker.db.TrackPurger;
+import net.osmtracker.db.TrackSealer;
 import net.osmtracker.db.TracklistAdapter;
+import net.osmtracker.db.model.TrackRow;
 import net.osmtracker.exception.CreateTrackException;
 import net.osmtracker.gpx.ExportToStorageTask;
-import net.osmtracker.util.FileSystemUtils;
+import net.osmtracker.util.TrackThumbnailCache;
 
 import android.Manifest;
 import android.app.AlertDialog;
@@ -21,9 +25,12 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -33,8 +40,8 @@ import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
-import android.widget.CursorAdapter;
 import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -42,12 +49,13 @@ import android.widget.Toast;
 
 /**
  * Lists existing tracks.
- * Each track is displayed using {@link TracklistAdapter}.
+ * Each track is displayed using {@link TracklistAdapter}. Tracks are loaded in
+ * the background by pages, as the list is scrolled (see {@link TrackListLoader}).
  * 
  * @author Nicolas Guillaumin
  * 
  */
-public class TrackManager extends ListActivity {
+public class TrackManager extends ListActivity implements TrackListLoader.Listener {
 	
 	@SuppressWarnings("unused")
 	private static final String TAG = TrackManager.class.getSimpleName();
@@ -64,6 +72,11 @@ public class TrackManager extends ListActivity {
 	/** Bundle key for {@link #prevItemVisible} */
 	private static final String PREV_VISIBLE = "prev_visible";
 
+	/** Bundle keys for the undo window: {@link #undoBatch}, its message and {@link #undoEnd} */
+	private static final String UNDO_BATCH = "undo_batch";
+	private static final String UNDO_MESSAGE = "undo_message";
+	private static final String UNDO_END = "undo_end";
+
 	/** Constant used if no track is active (-1)*/
 	private static final long TRACK_ID_NO_TRACK = -1;
 	
@@ -81,14 +94,107 @@ public class TrackManager extends ListActivity {
 	private Intent TrackLoggerStartIntent = null;
 	private ImageButton btnNewTrack;
 
+	/** Thumbnails of the tracks, kept while the activity exists */
+	private TrackThumbnailCache thumbnails;
+
+	/** Min. delay between two reloads of the list when tracks change, in ms */
+	private static final long RELOAD_DELAY = 2000;
+
+	private TracklistAdapter tracklistAdapter;
+
+	private TrackListLoader trackListLoader;
+
+	/** Whether the list must be scrolled to the active track or {@link #prevItemVisible} once loaded */
+	private boolean scrollPending = false;
+
+	/** Whether the list was loaded at least once, and whether all the tracks are loaded */
+	private boolean loaded = false;
+	private boolean allLoaded = false;
+
+	private final Handler handler = new Handler();
+
+	/** Reloads the list when tracks change, at most once per {@link #RELOAD_DELAY} */
+	private boolean reloadScheduled = false;
+	private final Runnable reloadRunnable = new Runnable() {
+		@Override
+		public void run() {
+			reloadScheduled = false;
+			trackListLoader.reload();
+		}
+	};
+	/** Delay during which deleted tracks can be restored, in ms */
+	private static final long UNDO_DELAY = 5000;
+
+	/** Deletion batch that can be undone, or 0 */
+	private long undoBatch = 0;
+
+	/** End of the undo window, in {@link SystemClock#uptimeMillis()} time */
+	private long undoEnd = 0;
+
+	/** Ends the undo window: the deleted tracks are purged */
+	private final Runnable purgeRunnable = new Runnable() {
+		@Override
+		public void run() {
+			purgePendingBatch();
+		}
+	};
+
+	private final ContentObserver tracksObserver = new ContentObserver(handler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			if (!reloadScheduled) {
+				reloadScheduled = true;
+				handler.postDelayed(reloadRunnable, RELOAD_DELAY);
+			}
+		}
+	};
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.trackmanager);
-		getListView().setEmptyView(findViewById(R.id.trackmgr_empty));
+		thumbnails = new TrackThumbnailCache(this);
+		// No 'no tracks' message until loaded
+		getListView().setEmptyView(findViewById(android.R.id.empty));
+		findViewById(R.id.trackmgr_empty).setVisibility(View.GONE);
 		registerForContextMenu(getListView());
+
+		// Purge tracks left deleted, e.g. if the app was killed during an undo window,
+		// but not the ones of an undo window restored after a configuration change
+		long savedUndoBatch = (savedInstanceState != null) ? savedInstanceState.getLong(UNDO_BATCH, 0) : 0;
+		TrackPurger.purgeAsync(this, (savedUndoBatch != 0) ? savedUndoBatch - 1 : TrackPurger.ALL_BATCHES);
+		// Seal the tracks finished before sealing existed
+		TrackSealer.sealAsync(getContentResolver());
+		findViewById(R.id.trackmgr_undo_button).setOnClickListener(new View.OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				undoDelete();
+			}
+		});
+
+		tracklistAdapter = new TracklistAdapter(this, thumbnails);
+		setListAdapter(tracklistAdapter);
+		trackListLoader = new TrackListLoader(getContentResolver(), this);
+		getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+				// Load the next page before reaching the end of the list
+				if (loaded && !allLoaded && firstVisibleItem + visibleItemCount >= totalItemCount - TrackListLoader.PAGE_SIZE / 2) {
+					trackListLoader.loadNextPage();
+				}
+			}
+		});
 		if (savedInstanceState != null) {
 			prevItemVisible = savedInstanceState.getInt(PREV_VISIBLE, -1);
+			if (savedUndoBatch != 0) {
+				undoBatch = savedUndoBatch;
+				showUndoWindow(savedInstanceState.getString(UNDO_MESSAGE),
+						savedInstanceState.getLong(UNDO_END) - SystemClock.uptimeMillis());
+			}
 		}
 		//initialize the bottom start track
 		btnNewTrack = (ImageButton) findViewById(R.id.trackmgr_hint_icon);
@@ -105,46 +211,28 @@ public class TrackManager extends ListActivity {
 
 	@Override
 	protected void onResume() {
-		Cursor cursor = getContentResolver().query(
-				TrackContentProvider.CONTENT_URI_TRACK, null, null, null,
-				TrackContentProvider.Schema.COL_START_DATE + " desc");
-		startManagingCursor(cursor);
-		setListAdapter(new TracklistAdapter(TrackManager.this, cursor));
-		getListView().setEmptyView(findViewById(R.id.trackmgr_empty));  // undo change from onPause
-
 		// Is any track active?
 		currentTrackId = DataHelper.getActiveTrackId(getContentResolver());
 		if (currentTrackId != TRACK_ID_NO_TRACK) {
 			((TextView) findViewById(R.id.trackmgr_hint)).setText(
 					getResources().getString(R.string.trackmgr_continuetrack_hint)
 						.replace("{0}", Long.toString(currentTrackId)));
-
-			// Scroll to the active track of the list
-			cursor.moveToFirst();
-			// we will use the flag selectionSet to handle the while loop
-			boolean selectionSet = false;
-			while(!selectionSet && cursor.moveToNext()){
-				if(cursor.getInt(cursor.getColumnIndex(TrackContentProvider.Schema.COL_ACTIVE)) == 1){
-					// This is the active track
-					// set selection to the current cursor position
-					getListView().setSelection(cursor.getPosition());
-					selectionSet = true;
-				}
-			}
 		} else {
 			//set the button to start a new track visible when there isn't an active track
 			btnNewTrack.setVisibility(View.VISIBLE);
 			((TextView) findViewById(R.id.trackmgr_hint)).setText(R.string.trackmgr_newtrack_hint);
+		}
 
-			// Scroll to the previous listview position,
-			// now that we're bound to data again
-			if (prevItemVisible != -1) {
-				final int cmax = getListView().getCount() - 1;
-				if (prevItemVisible > cmax) {
-					prevItemVisible = cmax;
-				}
-				getListView().setSelection(prevItemVisible);
-			}
+		// Scroll to the active track, or to the previous listview position,
+		// once the tracks are loaded
+		scrollPending = currentTrackId != TRACK_ID_NO_TRACK || prevItemVisible != -1;
+
+		// Tracks may have changed while paused
+		getContentResolver().registerContentObserver(TrackContentProvider.CONTENT_URI_TRACK, true, tracksObserver);
+		if (loaded) {
+			trackListLoader.reload();
+		} else {
+			trackListLoader.loadNextPage();
 		}
 
 		super.onResume();
@@ -152,27 +240,63 @@ public class TrackManager extends ListActivity {
 
 	@Override
 	protected void onPause() {
-		// Remember position in listview (before any adapter change)
+		// Remember position in listview
 		prevItemVisible = getListView().getFirstVisiblePosition();
 
-		CursorAdapter adapter = (CursorAdapter) getListAdapter();
-		if (adapter != null) {
-			// Prevents on-screen 'no tracks' message
-			getListView().setEmptyView(findViewById(android.R.id.empty));
-			// Properly close the adapter cursor
-			Cursor cursor = adapter.getCursor();
-			stopManagingCursor(cursor);
-			cursor.close();
-			setListAdapter(null);
-		}
+		getContentResolver().unregisterContentObserver(tracksObserver);
+		handler.removeCallbacks(reloadRunnable);
+		reloadScheduled = false;
 
 		super.onPause();
 	}
 
+	@Override
+	public void onTracksLoaded(List<TrackRow> rows, boolean complete) {
+		allLoaded = complete;
+		tracklistAdapter.setRows(rows);
+		if (!loaded) {
+			loaded = true;
+			getListView().setEmptyView(findViewById(R.id.trackmgr_empty));
+		}
+
+		if (scrollPending) {
+			int position = (currentTrackId != TRACK_ID_NO_TRACK)
+					? tracklistAdapter.getPosition(currentTrackId) : prevItemVisible;
+			if ((position < 0 || position >= rows.size()) && !complete) {
+				// Not loaded yet
+				trackListLoader.loadNextPage();
+				return;
+			}
+			scrollPending = false;
+			if (position >= 0) {
+				getListView().setSelection(Math.min(position, rows.size() - 1));
+			}
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		trackListLoader.quit();
+		thumbnails.close();
+		handler.removeCallbacks(purgeRunnable);
+		if (isFinishing()) {
+			// Otherwise, e.g. on rotation, the undo window is restored from the saved state
+			undoBatch = 0;
+			TrackPurger.purgeAsync(this, TrackPurger.ALL_BATCHES);
+		}
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
 		outState.putInt(PREV_VISIBLE, prevItemVisible);
+		if (undoBatch != 0) {
+			outState.putLong(UNDO_BATCH, undoBatch);
+			outState.putString(UNDO_MESSAGE,
+					((TextView) findViewById(R.id.trackmgr_undo_message)).getText().toString());
+			outState.putLong(UNDO_END, undoEnd);
+		}
 	}
 
 	@Override
@@ -254,6 +378,10 @@ public class TrackManager extends ListActivity {
 			}
 			else exportAllTracks();
 			break;
+		case R.id.trackmgr_menu_overview:
+			// Start tracks overview activity
+			startActivity(new Intent(this, TracksOverview.class));
+			break;
 		case R.id.trackmgr_menu_settings:
 			// Start settings activity
 			startActivity(new Intent(this, Preferences.class));
@@ -533,40 +661,80 @@ public class TrackManager extends ListActivity {
 	}
 	
 	/**
-	 * Deletes the track with the specified id from DB and SD card
+	 * Deletes the track with the specified id. The track is only hidden
+	 * until the undo window ends, then purged from DB and SD card.
 	 * @param The ID of the track to be deleted
 	 */
 	private void deleteTrack(long id) {
-		getContentResolver().delete(
-				ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, id),
-				null, null);
-		((CursorAdapter) TrackManager.this.getListAdapter()).getCursor().requery();
-
-		// Delete any data stored for the track we're deleting
-		File trackStorageDirectory = DataHelper.getTrackDirectory(id);
-		if (trackStorageDirectory.exists()) {
-			FileSystemUtils.delete(trackStorageDirectory, true);
-		}
+		long batch = startUndoWindow(getResources().getString(R.string.trackmgr_undo_deleted)
+				.replace("{0}", Long.toString(id)));
+		TrackPurger.delete(this, id, batch);
+		trackListLoader.reload();
 	}
 
 	/**
-	 * Deletes all tracks and their data
+	 * Deletes all tracks and their data, see {@link #deleteTrack(long)}
 	 */
 	private void deleteAllTracks() {
-		Cursor cursor = getContentResolver().query(TrackContentProvider.CONTENT_URI_TRACK, null, null, null, TrackContentProvider.Schema.COL_START_DATE + " asc");
-
 		// Stop any currently active tracks
 		if (currentTrackId != -1) {
 			stopActiveTrack();
 		}
 
-		if (cursor.moveToFirst()) {
-			int id_col = cursor.getColumnIndex(TrackContentProvider.Schema.COL_ID);
-			do {
-				deleteTrack(cursor.getLong(id_col));
-			} while (cursor.moveToNext());
+		long batch = startUndoWindow(getResources().getString(R.string.trackmgr_undo_deleted_all));
+		TrackPurger.deleteAll(this, batch);
+		trackListLoader.reload();
+	}
+
+	/**
+	 * Shows the undo bar for a new deletion. Tracks deleted before
+	 * can't be restored anymore and are purged.
+	 * @param message Message of the undo bar
+	 * @return The deletion batch to flag tracks with
+	 */
+	private long startUndoWindow(String message) {
+		handler.removeCallbacks(purgeRunnable);
+		purgePendingBatch();
+
+		undoBatch = TrackPurger.newBatch();
+		showUndoWindow(message, UNDO_DELAY);
+		return undoBatch;
+	}
+
+	/**
+	 * Shows the undo bar, and schedules the purge of {@link #undoBatch}
+	 * @param message Message of the undo bar
+	 * @param delay Time left to undo, in ms
+	 */
+	private void showUndoWindow(String message, long delay) {
+		((TextView) findViewById(R.id.trackmgr_undo_message)).setText(message);
+		findViewById(R.id.trackmgr_undo).setVisibility(View.VISIBLE);
+		undoEnd = SystemClock.uptimeMillis() + delay;
+		handler.postAtTime(purgeRunnable, undoEnd);
+	}
+
+	/**
+	 * Restores the tracks deleted during the undo window
+	 */
+	private void undoDelete() {
+		handler.removeCallbacks(purgeRunnable);
+		findViewById(R.id.trackmgr_undo).setVisibility(View.GONE);
+		if (undoBatch != 0) {
+			TrackPurger.undelete(this, undoBatch);
+			undoBatch = 0;
+			trackListLoader.reload();
+		}
+	}
+
+	/**
+	 * Ends the undo window, if any, and purges its tracks
+	 */
+	private void purgePendingBatch() {
+		findViewById(R.id.trackmgr_undo).setVisibility(View.GONE);
+		if (undoBatch != 0) {
+			TrackPurger.purgeAsync(this, undoBatch);
+			undoBatch = 0;
 		}
-		cursor.close();
 	}
 
 	/**
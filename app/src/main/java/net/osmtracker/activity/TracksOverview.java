@@ -0,0 +1,105 @@
+package net.osmtracker.activity;
+
+import net.osmtracker.R;
+import net.osmtracker.db.HeatmapBuilder;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.overlay.TracksOverviewOverlay;
+import net.osmtracker.util.MemoryBudgetManager;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.views.MapView;
+
+import android.app.Activity;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.view.View;
+import android.view.View.OnClickListener;
+
+/**
+ * Displays all the tracks on a map, as a heatmap
+ * and then as lines when zooming in.
+ */
+public class TracksOverview extends Activity {
+
+	/**
+	 * Zoom level when there is no track to show
+	 */
+	private static final int DEFAULT_ZOOM = 3;
+
+	private MapView osmView;
+
+	private TracksOverviewOverlay overviewOverlay;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		// Size the tile caches before the map view is created
+		Configuration.getInstance().load(this, PreferenceManager.getDefaultSharedPreferences(this));
+		MemoryBudgetManager.getInstance(this).configureTileCaches(Configuration.getInstance().getOsmdroidTileCache());
+
+		setContentView(R.layout.tracksoverview);
+
+		osmView = (MapView) findViewById(R.id.tracksoverview_osmView);
+		osmView.setMultiTouchControls(true);  // pinch to zoom
+		osmView.setTileSource(TileSourceFactory.DEFAULT_TILE_SOURCE);
+		osmView.setTilesScaledToDpi(true);
+		osmView.getController().setZoom(DEFAULT_ZOOM);
+
+		overviewOverlay = new TracksOverviewOverlay(this, osmView);
+		osmView.getOverlays().add(overviewOverlay);
+
+		// Add the points recorded or imported since the last time.
+		// The overlay refreshes itself once done.
+		HeatmapBuilder.updateAsync(getContentResolver());
+
+		if (savedInstanceState == null) {
+			zoomToTracks();
+		}
+
+		findViewById(R.id.tracksoverview_imgZoomIn).setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				osmView.getController().zoomIn();
+			}
+		});
+		findViewById(R.id.tracksoverview_imgZoomOut).setOnClickListener(new OnClickListener() {
+			@Override
+			public void onClick(View v) {
+				osmView.getController().zoomOut();
+			}
+		});
+	}
+
+	@Override
+	protected void onDestroy() {
+		overviewOverlay.onDetach(osmView);
+		super.onDestroy();
+	}
+
+	/**
+	 * Shows the area covering all the tracks, from their bounding boxes
+	 */
+	private void zoomToTracks() {
+		Cursor c = getContentResolver().query(TrackContentProvider.CONTENT_URI_HEATMAP_TRACKS,
+				new String[] {"min(" + Schema.COL_MIN_LATITUDE + ")", "min(" + Schema.COL_MIN_LONGITUDE + ")",
+						"max(" + Schema.COL_MAX_LATITUDE + ")", "max(" + Schema.COL_MAX_LONGITUDE + ")"},
+				null, null, null);
+		if (c.moveToFirst() && !c.isNull(0)) {
+			final BoundingBox box = new BoundingBox(c.getDouble(2), c.getDouble(3), c.getDouble(0), c.getDouble(1));
+			// Wait for the view to be laid out
+			osmView.post(new Runnable() {
+				@Override
+				public void run() {
+					osmView.zoomToBoundingBox(box, false);
+				}
+			});
+		}
+		c.close();
+	}
+
+}
@@ -0,0 +1,146 @@
+package net.osmtracker.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Coalesces change notifications for rows inserted under the same Uri
+ * (e.g. the trackpoints of a track).
+ *<P>
+ * The first insert starts a window. Inserts happening during the window
+ * are merged, and a single notification is sent when the window ends. The
+ * notified Uri is the Uri of the last inserted row, with the id of the first
+ * inserted row as the {@link #PARAM_FIRST_ID} query parameter, so observers
+ * using {@link android.database.ContentObserver#onChange(boolean, Uri)} can
+ * fetch only the new rows. Use {@link #getFirstId(Uri)} and
+ * {@link #getLastId(Uri)} to read them back.
+ */
+public class ChangeNotificationDispatcher {
+
+	/**
+	 * Query parameter holding the id of the first inserted row
+	 */
+	public static final String PARAM_FIRST_ID = "first";
+
+	/**
+	 * Range of ids inserted under an Uri, during the current window
+	 */
+	private static class PendingChange {
+		long firstId;
+		long lastId;
+	}
+
+	private final ContentResolver contentResolver;
+
+	/**
+	 * Length of the coalescing window, in ms
+	 */
+	private final long window;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Pending changes, by parent Uri. Guarded by itself, inserts
+	 * may come from several threads.
+	 */
+	private final Map<Uri, PendingChange> pendingChanges = new HashMap<Uri, PendingChange>();
+
+	/**
+	 * @param contentResolver Resolver to notify
+	 * @param window Length of the coalescing window, in ms. 0 notifies right away.
+	 */
+	public ChangeNotificationDispatcher(ContentResolver contentResolver, long window) {
+		this.contentResolver = contentResolver;
+		this.window = window;
+	}
+
+	/**
+	 * Records that a row was inserted.
+	 * @param parentUri Uri the row was inserted into
+	 * @param rowId Id of the inserted row
+	 */
+	public void notifyInsert(final Uri parentUri, long rowId) {
+		if (window <= 0) {
+			contentResolver.notifyChange(buildUri(parentUri, rowId, rowId), null);
+			return;
+		}
+
+		synchronized (pendingChanges) {
+			PendingChange change = pendingChanges.get(parentUri);
+			if (change != null) {
+				// Window already open, merge
+				change.firstId = Math.min(change.firstId, rowId);
+				change.lastId = Math.max(change.lastId, rowId);
+				return;
+			}
+			change = new PendingChange();
+			change.firstId = rowId;
+			change.lastId = rowId;
+			pendingChanges.put(parentUri, change);
+		}
+
+		handler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				flush(parentUri);
+			}
+		}, window);
+	}
+
+	/**
+	 * Sends the pending notification for an Uri, if any.
+	 */
+	private void flush(Uri parentUri) {
+		PendingChange change;
+		synchronized (pendingChanges) {
+			change = pendingChanges.remove(parentUri);
+		}
+		if (change != null) {
+			contentResolver.notifyChange(buildUri(parentUri, change.firstId, change.lastId), null);
+		}
+	}
+
+	private static Uri buildUri(Uri parentUri, long firstId, long lastId) {
+		return ContentUris.withAppendedId(parentUri, lastId).buildUpon()
+				.appendQueryParameter(PARAM_FIRST_ID, Long.toString(firstId))
+				.build();
+	}
+
+	/**
+	 * @param uri Uri received by an observer
+	 * @return Id of the first inserted row, or -1 if the Uri doesn't carry a range
+	 */
+	public static long getFirstId(Uri uri) {
+		String first = (uri != null) ? uri.getQueryParameter(PARAM_FIRST_ID) : null;
+		if (first == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(first);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param uri Uri received by an observer
+	 * @return Id of the last inserted row, or -1 if the Uri doesn't carry a range
+	 */
+	public static long getLastId(Uri uri) {
+		if (getFirstId(uri) < 0) {
+			return -1;
+		}
+		try {
+			return ContentUris.parseId(uri);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+}
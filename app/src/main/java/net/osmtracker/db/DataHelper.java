@@ -249,6 +249,10 @@ public class DataHelper {
 		ContentValues values = new ContentValues();
 		values.put(TrackContentProvider.Schema.COL_ACTIVE, TrackContentProvider.Schema.VAL_TRACK_INACTIVE);
 		contentResolver.update(trackUri, values, null, null);
+
+		// Add the track to the tracks overview and seal its points, then store
+		// its own overview for the track list, from the sealed points
+		TrackSealer.sealAsync(contentResolver, trackId);
 	}
 
 	/**
@@ -10,6 +10,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 import android.util.Log;
 
 import net.osmtracker.db.model.Track;
@@ -25,29 +26,119 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	private static final String TAG = DatabaseHelper.class.getSimpleName();	
 	
 	/**
-	 * SQL for creating table TRACKPOINT
+	 * Foreign key to TRACK, so that points are deleted with their track
+	 * @since 21
+	 */
+	private static final String SQL_REFERENCES_TRACK = " references "
+		+ TrackContentProvider.Schema.TBL_TRACK + "(" + TrackContentProvider.Schema.COL_ID + ") on delete cascade";
+
+	/**
+	 * SQL for creating table TRACKPOINT. Values are stored in fixed point, see {@link TrackPointCodec}
 	 */
 	private static final String SQL_CREATE_TABLE_TRACKPOINT = ""
 		+ "create table " + TrackContentProvider.Schema.TBL_TRACKPOINT + " ("
 		+ TrackContentProvider.Schema.COL_ID	+ " integer primary key autoincrement,"
-		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null,"
-		+ TrackContentProvider.Schema.COL_LATITUDE + " double not null,"
-		+ TrackContentProvider.Schema.COL_LONGITUDE + " double not null,"
-		+ TrackContentProvider.Schema.COL_SPEED + " double null,"
-		+ TrackContentProvider.Schema.COL_ELEVATION + " double null,"
-		+ TrackContentProvider.Schema.COL_ACCURACY + " double null,"
-		+ TrackContentProvider.Schema.COL_TIMESTAMP + " long not null,"
-		+ TrackContentProvider.Schema.COL_COMPASS + " double null,"
-		+ TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null"+ ")";
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null" + SQL_REFERENCES_TRACK + ","
+		+ TrackContentProvider.Schema.COL_LATITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_LONGITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_SPEED + " integer null,"
+		+ TrackContentProvider.Schema.COL_ELEVATION + " integer null,"
+		+ TrackContentProvider.Schema.COL_ACCURACY + " integer null,"
+		+ TrackContentProvider.Schema.COL_TIMESTAMP + " long not null" + ")";
+
+	/**
+	 * Columns of table TRACKPOINT
+	 * @since 21
+	 */
+	private static final String[] COLUMNS_TRACKPOINT = {
+		TrackContentProvider.Schema.COL_ID,
+		TrackContentProvider.Schema.COL_TRACK_ID,
+		TrackContentProvider.Schema.COL_LATITUDE,
+		TrackContentProvider.Schema.COL_LONGITUDE,
+		TrackContentProvider.Schema.COL_SPEED,
+		TrackContentProvider.Schema.COL_ELEVATION,
+		TrackContentProvider.Schema.COL_ACCURACY,
+		TrackContentProvider.Schema.COL_TIMESTAMP};
+
+	/**
+	 * SQL for creating view TRACKPOINT_DECODED, the track points as they were before v22
+	 * @since 22, with the attributes since 24
+	 */
+	private static final String SQL_CREATE_VIEW_TRACKPOINT = ""
+		+ "create view " + TrackContentProvider.Schema.VIEW_TRACKPOINT + " as select "
+		+ TrackPointCodec.decodingColumns(COLUMNS_TRACKPOINT) + ", "
+		+ TrackPointCodec.decodingColumns(TrackPointCodec.ATTRIBUTE_COLUMNS) + " from " + TrackContentProvider.Schema.TBL_TRACKPOINT;
+
+	/**
+	 * SQL for creating table TRACKPOINT_ATTRIBUTE. Values are stored in fixed point, see {@link TrackPointCodec}
+	 * @since 24
+	 */
+	private static final String SQL_CREATE_TABLE_TRACKPOINT_ATTRIBUTE = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_TRACKPOINT_ATTRIBUTE + " ("
+		+ TrackContentProvider.Schema.COL_TRACKPOINT_ID + " integer not null references "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_ID + ") on delete cascade,"
+		+ TrackContentProvider.Schema.COL_ATTRIBUTE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_VALUE + " integer not null" + ")";
 
 	/**
-	 * SQL for creating index TRACKPOINT_idx (track id)
-	 * @since 12
+	 * SQL for creating index TRACKPOINT_ATTRIBUTE_idx (track point id, attribute),
+	 * also used to delete the attributes of deleted points
+	 * @since 24
+	 */
+	private static final String SQL_CREATE_IDX_TRACKPOINT_ATTRIBUTE
+		= "create unique index if not exists "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT_ATTRIBUTE
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACKPOINT_ATTRIBUTE + "(" + TrackContentProvider.Schema.COL_TRACKPOINT_ID + ", "
+		+ TrackContentProvider.Schema.COL_ATTRIBUTE + ")";
+
+	/**
+	 * SQL for creating index TRACKPOINT_idx (track id, id), for reading a track in order
+	 * @since 12, (track id, id) since 21
 	 */
 	private static final String SQL_CREATE_IDX_TRACKPOINT_TRACK
 		= "create index if not exists "
 		+ TrackContentProvider.Schema.TBL_TRACKPOINT
-		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ")";
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_ID + ")";
+
+	/**
+	 * SQL for creating index TRACKPOINT_TIMESTAMP_idx (track id, timestamp), for exports
+	 * @since 21
+	 */
+	private static final String SQL_CREATE_IDX_TRACKPOINT_TIMESTAMP
+		= "create index if not exists "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT + "_" + TrackContentProvider.Schema.COL_TIMESTAMP
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACKPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_TIMESTAMP + ")";
+
+	/**
+	 * SQL for creating table TRACKPOINT_CHUNK. Bounds are in fixed point, see {@link TrackPointCodec}
+	 * @since 23
+	 */
+	private static final String SQL_CREATE_TABLE_TRACKPOINT_CHUNK = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_TRACKPOINT_CHUNK + " ("
+		+ TrackContentProvider.Schema.COL_ID + " integer primary key autoincrement,"
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null" + SQL_REFERENCES_TRACK + ","
+		+ TrackContentProvider.Schema.COL_FIRST_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_LAST_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_NB_POINTS + " integer not null,"
+		+ TrackContentProvider.Schema.COL_FIRST_TIMESTAMP + " long not null,"
+		+ TrackContentProvider.Schema.COL_LAST_TIMESTAMP + " long not null,"
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + " integer not null,"
+		+ TrackContentProvider.Schema.COL_DATA + " blob not null" + ")";
+
+	/**
+	 * SQL for creating index TRACKPOINT_CHUNK_idx (track id, first point id)
+	 * @since 23
+	 */
+	private static final String SQL_CREATE_IDX_TRACKPOINT_CHUNK
+		= "create index if not exists "
+		+ TrackContentProvider.Schema.TBL_TRACKPOINT_CHUNK
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACKPOINT_CHUNK + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_FIRST_ID + ")";
 
 	/**
 	 * SQL for creating table WAYPOINT
@@ -55,7 +146,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	private static final String SQL_CREATE_TABLE_WAYPOINT = ""
 		+ "create table " + TrackContentProvider.Schema.TBL_WAYPOINT + " ("
 		+ TrackContentProvider.Schema.COL_ID + " integer primary key autoincrement,"
-		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null,"
+		+ TrackContentProvider.Schema.COL_TRACK_ID + " integer not null" + SQL_REFERENCES_TRACK + ","
 		+ TrackContentProvider.Schema.COL_UUID + " text,"
 		+ TrackContentProvider.Schema.COL_LATITUDE + " double not null,"
 		+ TrackContentProvider.Schema.COL_LONGITUDE + " double not null,"
@@ -69,13 +160,51 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null"+ ")";
 
 	/**
-	 * SQL for creating index WAYPOINT_idx (track id)
-	 * @since 12
+	 * Columns of table WAYPOINT, for copying it
+	 * @since 21
+	 */
+	private static final String COLUMNS_WAYPOINT = TrackContentProvider.Schema.COL_ID + ", "
+		+ TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_UUID + ", "
+		+ TrackContentProvider.Schema.COL_LATITUDE + ", "
+		+ TrackContentProvider.Schema.COL_LONGITUDE + ", "
+		+ TrackContentProvider.Schema.COL_ELEVATION + ", "
+		+ TrackContentProvider.Schema.COL_ACCURACY + ", "
+		+ TrackContentProvider.Schema.COL_TIMESTAMP + ", "
+		+ TrackContentProvider.Schema.COL_NAME + ", "
+		+ TrackContentProvider.Schema.COL_LINK + ", "
+		+ TrackContentProvider.Schema.COL_NBSATELLITES + ", "
+		+ TrackContentProvider.Schema.COL_COMPASS + ", "
+		+ TrackContentProvider.Schema.COL_COMPASS_ACCURACY;
+
+	/**
+	 * SQL for creating index WAYPOINT_idx (track id, id)
+	 * @since 12, (track id, id) since 21
 	 */
 	private static final String SQL_CREATE_IDX_WAYPOINT_TRACK
 		= "create index if not exists "
 		+ TrackContentProvider.Schema.TBL_WAYPOINT
-		+ "_idx ON " + TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ")";
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_ID + ")";
+
+	/**
+	 * SQL for creating index WAYPOINT_TIMESTAMP_idx (track id, timestamp), for exports
+	 * @since 21
+	 */
+	private static final String SQL_CREATE_IDX_WAYPOINT_TIMESTAMP
+		= "create index if not exists "
+		+ TrackContentProvider.Schema.TBL_WAYPOINT + "_" + TrackContentProvider.Schema.COL_TIMESTAMP
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_TRACK_ID + ", "
+		+ TrackContentProvider.Schema.COL_TIMESTAMP + ")";
+
+	/**
+	 * SQL for creating unique index WAYPOINT_UUID_idx, for updating and deleting waypoints
+	 * @since 21
+	 */
+	private static final String SQL_CREATE_IDX_WAYPOINT_UUID
+		= "create unique index if not exists "
+		+ TrackContentProvider.Schema.TBL_WAYPOINT + "_" + TrackContentProvider.Schema.COL_UUID
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_WAYPOINT + "(" + TrackContentProvider.Schema.COL_UUID + ")";
 
 	/**
 	 * SQL for creating table TRACK
@@ -93,9 +222,46 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ TrackContentProvider.Schema.COL_DIR + " text," // unused since DB_VERSION 13, since SQLite doesn't support to remove a column it will stay for now
 		+ TrackContentProvider.Schema.COL_ACTIVE + " integer not null default 0,"
 		+ TrackContentProvider.Schema.COL_EXPORT_DATE + " long,"  // null indicates not yet exported
-		+ TrackContentProvider.Schema.COL_OSM_UPLOAD_DATE + " long" // null indicates not yet uploaded
+		+ TrackContentProvider.Schema.COL_OSM_UPLOAD_DATE + " long," // null indicates not yet uploaded
+		+ TrackContentProvider.Schema.COL_HEATMAP_LAST_ID + " integer not null default 0,"
+		+ TrackContentProvider.Schema.COL_MIN_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MIN_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MAX_LATITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_MAX_LONGITUDE + " double null,"
+		+ TrackContentProvider.Schema.COL_OVERVIEW + " text null,"
+		+ TrackContentProvider.Schema.COL_DELETED + " integer not null default 0" // deletion batch, see TrackPurger
 		+ ")";
 
+	/**
+	 * SQL for creating table HEATMAP_CELL
+	 * @since 17
+	 */
+	private static final String SQL_CREATE_TABLE_HEATMAP_CELL = ""
+		+ "create table " + TrackContentProvider.Schema.TBL_HEATMAP_CELL + " ("
+		+ TrackContentProvider.Schema.COL_ZOOM + " integer not null,"
+		+ TrackContentProvider.Schema.COL_CELL_X + " integer not null,"
+		+ TrackContentProvider.Schema.COL_CELL_Y + " integer not null,"
+		+ TrackContentProvider.Schema.COL_NB_POINTS + " integer not null" + ")";
+
+	/**
+	 * SQL for creating index HEATMAP_CELL_idx (zoom, x, y)
+	 * @since 17
+	 */
+	private static final String SQL_CREATE_IDX_HEATMAP_CELL
+		= "create unique index if not exists "
+		+ TrackContentProvider.Schema.TBL_HEATMAP_CELL
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_HEATMAP_CELL + "(" + TrackContentProvider.Schema.COL_ZOOM + ", "
+		+ TrackContentProvider.Schema.COL_CELL_X + ", " + TrackContentProvider.Schema.COL_CELL_Y + ")";
+
+	/**
+	 * SQL for creating index TRACK_START_DATE_idx, for the track list
+	 * @since 19
+	 */
+	private static final String SQL_CREATE_IDX_TRACK_START_DATE
+		= "create index if not exists "
+		+ TrackContentProvider.Schema.TBL_TRACK + "_" + TrackContentProvider.Schema.COL_START_DATE
+		+ "_idx ON " + TrackContentProvider.Schema.TBL_TRACK + "(" + TrackContentProvider.Schema.COL_START_DATE + ")";
+
 	/**
 	 * Database name.
 	 */
@@ -120,12 +286,37 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 * v15: add TBL_TRACKPOINT.COL_SPEED
 	 * v16: add TBL_TRACKPOINT.COL_COMPASS, TBL_TRACKPOINT.COL_COMPASS_ACCURACY,
 	 *          TBL_WAYPOINT.COL_COMPASS and TBL_WAYPOINT.COL_COMPASS_ACCURACY
+	 * v17: add TBL_HEATMAP_CELL, IDX_HEATMAP_CELL, TBL_TRACK.COL_HEATMAP_LAST_ID
+	 *          and TBL_TRACK bounding box (COL_MIN_LATITUDE...)
+	 * v18: add TBL_TRACK.COL_OVERVIEW
+	 * v19: add IDX_TRACK_START_DATE
+	 * v20: add TBL_TRACK.COL_DELETED
+	 * v21: TRACKPOINT and WAYPOINT reference TBL_TRACK (on delete cascade);
+	 *          IDX_TRACKPOINT_TRACK, IDX_WAYPOINT_TRACK now on (track id, id);
+	 *          add IDX_TRACKPOINT_TIMESTAMP, IDX_WAYPOINT_TIMESTAMP, IDX_WAYPOINT_UUID
+	 * v22: TRACKPOINT values in fixed point; add VIEW_TRACKPOINT
+	 * v23: add TBL_TRACKPOINT_CHUNK, IDX_TRACKPOINT_CHUNK
+	 * v24: TBL_TRACKPOINT.COL_COMPASS and TBL_TRACKPOINT.COL_COMPASS_ACCURACY moved to
+	 *          TBL_TRACKPOINT_ATTRIBUTE; add IDX_TRACKPOINT_ATTRIBUTE
 	 *</pre>
 	 */
-	private static final int DB_VERSION = 16;
+	private static final int DB_VERSION = 24;
 
 	public DatabaseHelper(Context context) {
-		super(context, DB_NAME, null, DB_VERSION);
+		this(context, DB_NAME);
+	}
+
+	/**
+	 * @param name Name of the database file, e.g. a test database
+	 */
+	DatabaseHelper(Context context, String name) {
+		super(context, name, null, DB_VERSION);
+	}
+
+	@Override
+	public void onConfigure(SQLiteDatabase db) {
+		// Disabled by default, required for deleting points with their track
+		db.setForeignKeyConstraintsEnabled(true);
 	}
 
 	@Override
@@ -133,11 +324,26 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACKPOINT);
 		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT);
 		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_TRACK);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_TIMESTAMP);
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_ATTRIBUTE);
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_ATTRIBUTE);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_ATTRIBUTE);
+		db.execSQL("drop view if exists " + TrackContentProvider.Schema.VIEW_TRACKPOINT);
+		db.execSQL(SQL_CREATE_VIEW_TRACKPOINT);
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACKPOINT_CHUNK);
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_CHUNK);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_CHUNK);
 		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_WAYPOINT);
 		db.execSQL(SQL_CREATE_TABLE_WAYPOINT);
 		db.execSQL(SQL_CREATE_IDX_WAYPOINT_TRACK);
+		db.execSQL(SQL_CREATE_IDX_WAYPOINT_TIMESTAMP);
+		db.execSQL(SQL_CREATE_IDX_WAYPOINT_UUID);
 		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_TRACK);
 		db.execSQL(SQL_CREATE_TABLE_TRACK);
+		db.execSQL(SQL_CREATE_IDX_TRACK_START_DATE);
+		db.execSQL("drop table if exists " + TrackContentProvider.Schema.TBL_HEATMAP_CELL);
+		db.execSQL(SQL_CREATE_TABLE_HEATMAP_CELL);
+		db.execSQL(SQL_CREATE_IDX_HEATMAP_CELL);
 	}
 
 	@Override
@@ -172,10 +378,106 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACKPOINT + " add column " + TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null");
 			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_WAYPOINT + " add column " + TrackContentProvider.Schema.COL_COMPASS + " double null");
 			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_WAYPOINT + " add column " + TrackContentProvider.Schema.COL_COMPASS_ACCURACY + " integer null");
+		case 16:
+			// Density grid, filled from existing points by HeatmapBuilder
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_HEATMAP_LAST_ID + " integer not null default 0");
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_MIN_LATITUDE + " double null");
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_MIN_LONGITUDE + " double null");
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_MAX_LATITUDE + " double null");
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_MAX_LONGITUDE + " double null");
+			db.execSQL(SQL_CREATE_TABLE_HEATMAP_CELL);
+			db.execSQL(SQL_CREATE_IDX_HEATMAP_CELL);
+		case 17:
+			// Computed when displayed for existing tracks, see TrackThumbnailCache
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_OVERVIEW + " text null");
+		case 18:
+			db.execSQL(SQL_CREATE_IDX_TRACK_START_DATE);
+		case 19:
+			db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACK + " add column " + TrackContentProvider.Schema.COL_DELETED + " integer not null default 0");
+		case 20:
+			// Foreign keys can't be added to existing tables. TRACKPOINT
+			// is recreated with its foreign key when converted, below.
+			recreateTable(db, TrackContentProvider.Schema.TBL_WAYPOINT, SQL_CREATE_TABLE_WAYPOINT, COLUMNS_WAYPOINT, COLUMNS_WAYPOINT);
+			db.execSQL(SQL_CREATE_IDX_WAYPOINT_TRACK);
+			db.execSQL(SQL_CREATE_IDX_WAYPOINT_TIMESTAMP);
+			// Keep the first waypoint of any duplicated UUID
+			db.execSQL("delete from " + TrackContentProvider.Schema.TBL_WAYPOINT
+					+ " where " + TrackContentProvider.Schema.COL_UUID + " is not null and "
+					+ TrackContentProvider.Schema.COL_ID + " not in (select min(" + TrackContentProvider.Schema.COL_ID + ") from "
+					+ TrackContentProvider.Schema.TBL_WAYPOINT + " where " + TrackContentProvider.Schema.COL_UUID + " is not null"
+					+ " group by " + TrackContentProvider.Schema.COL_UUID + ")");
+			db.execSQL(SQL_CREATE_IDX_WAYPOINT_UUID);
+		case 21:
+			// Convert the points to fixed point
+			convertTrackPoints(db, true);
+		case 22:
+			// Filled by TrackSealer
+			db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_CHUNK);
+			db.execSQL(SQL_CREATE_IDX_TRACKPOINT_CHUNK);
+		case 23:
+			// Points of earlier versions were converted with their attributes, above
+			if (oldVersion >= 22) {
+				convertTrackPoints(db, false);
+			}
 		}
 		
 	}
 
+	/**
+	 * Recreates a table with its current definition and copies its rows.
+	 * Rows of tracks that don't exist anymore are not copied.
+	 * Indexes of the table must be created again.
+	 * @param createSql SQL for creating the table
+	 * @param columns Columns to copy, comma separated
+	 * @param values Values of the columns, read from the previous table, comma separated
+	 */
+	private void recreateTable(SQLiteDatabase db, String table, String createSql, String columns, String values) {
+		String oldTable = table + "_old";
+		db.execSQL("alter table " + table + " rename to " + oldTable);
+		db.execSQL(createSql);
+		db.execSQL("insert into " + table + " (" + columns + ") select " + values + " from " + oldTable
+				+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " in (select " + TrackContentProvider.Schema.COL_ID
+				+ " from " + TrackContentProvider.Schema.TBL_TRACK + ")");
+		db.execSQL("drop table " + oldTable);
+	}
+
+	/**
+	 * Recreates table TRACKPOINT with its current definition, its compass values
+	 * being moved to TRACKPOINT_ATTRIBUTE. Points of tracks that don't exist
+	 * anymore are not copied.
+	 * @param encode Whether the points are stored decoded, as before v22
+	 */
+	private void convertTrackPoints(SQLiteDatabase db, boolean encode) {
+		String oldTable = TrackContentProvider.Schema.TBL_TRACKPOINT + "_old";
+		// Would be kept on the renamed table
+		db.execSQL("drop view if exists " + TrackContentProvider.Schema.VIEW_TRACKPOINT);
+		db.execSQL("alter table " + TrackContentProvider.Schema.TBL_TRACKPOINT + " rename to " + oldTable);
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT);
+		String columns = TextUtils.join(", ", COLUMNS_TRACKPOINT);
+		db.execSQL("insert into " + TrackContentProvider.Schema.TBL_TRACKPOINT + " (" + columns + ") select "
+				+ (encode ? TrackPointCodec.encodingColumns(COLUMNS_TRACKPOINT) : columns) + " from " + oldTable
+				+ " where " + TrackContentProvider.Schema.COL_TRACK_ID + " in (select " + TrackContentProvider.Schema.COL_ID
+				+ " from " + TrackContentProvider.Schema.TBL_TRACK + ")");
+
+		// Created after the new table, so that it references it
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_ATTRIBUTE);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_ATTRIBUTE);
+		for (String column : TrackPointCodec.ATTRIBUTE_COLUMNS) {
+			String value = encode ? TrackPointCodec.encodingColumns(new String[] {column}) : column;
+			db.execSQL("insert into " + TrackContentProvider.Schema.TBL_TRACKPOINT_ATTRIBUTE + " ("
+					+ TrackContentProvider.Schema.COL_TRACKPOINT_ID + ", " + TrackContentProvider.Schema.COL_ATTRIBUTE + ", "
+					+ TrackContentProvider.Schema.COL_VALUE + ") select " + TrackContentProvider.Schema.COL_ID + ", "
+					+ TrackPointCodec.attributeOf(column) + ", " + value + " from " + oldTable
+					+ " where " + column + " is not null and " + TrackContentProvider.Schema.COL_ID + " in (select "
+					+ TrackContentProvider.Schema.COL_ID + " from " + TrackContentProvider.Schema.TBL_TRACKPOINT + ")");
+		}
+
+		db.execSQL("drop table " + oldTable);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_TRACK);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_TIMESTAMP);
+		db.execSQL(SQL_CREATE_VIEW_TRACKPOINT);
+	}
+
 	/**
 	 * copies files from the tracks to our new storage directory and removes the path reference in COL_DIR
 	 * @param db the database to work on 
@@ -0,0 +1,228 @@
+package net.osmtracker.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.util.MercatorProjection;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Maintains the density grid of all tracks ({@link Schema#TBL_HEATMAP_CELL}),
+ * used to display an overview of all tracks without reading their points.
+ *<P>
+ * A cell is a map tile at one of the {@link #CELL_ZOOMS} levels, holding the
+ * number of trackpoints inside it. The grid is built incrementally: each track
+ * keeps the id of the last point added ({@link Schema#COL_HEATMAP_LAST_ID}),
+ * along with its bounding box.
+ */
+public class HeatmapBuilder {
+
+	private static final String TAG = HeatmapBuilder.class.getSimpleName();
+
+	/**
+	 * Zoom levels of the stored cells
+	 */
+	public static final int[] CELL_ZOOMS = {6, 8, 10, 12, 14, 16};
+
+	/**
+	 * Number of points read at once
+	 */
+	private static final int CHUNK_SIZE = 10000;
+
+	/**
+	 * Adds the points recorded since the last update to the grid.
+	 * Updates are synchronized, not to count points twice.
+	 * @return Number of points added
+	 */
+	static synchronized int update(SQLiteDatabase db) {
+		int total = 0;
+		Cursor tracks = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_ID, Schema.COL_HEATMAP_LAST_ID,
+				Schema.COL_MIN_LATITUDE, Schema.COL_MIN_LONGITUDE, Schema.COL_MAX_LATITUDE, Schema.COL_MAX_LONGITUDE},
+				Schema.COL_DELETED + " = 0", null, null, null, null);
+		try {
+			for (tracks.moveToFirst(); !tracks.isAfterLast(); tracks.moveToNext()) {
+				long trackId = tracks.getLong(0);
+				long lastId = tracks.getLong(1);
+				double[] bounds = tracks.isNull(2) ? null
+						: new double[] {tracks.getDouble(2), tracks.getDouble(3), tracks.getDouble(4), tracks.getDouble(5)};
+
+				int read;
+				do {
+					Map<Long, int[]> counts = new HashMap<Long, int[]>();
+					Cursor c = db.query(Schema.VIEW_TRACKPOINT,
+							new String[] {Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE},
+							Schema.COL_TRACK_ID + " = ? and " + Schema.COL_ID + " > ?",
+							new String[] {Long.toString(trackId), Long.toString(lastId)},
+							null, null, Schema.COL_ID + " asc", Integer.toString(CHUNK_SIZE));
+					read = c.getCount();
+					for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+						lastId = c.getLong(0);
+						double lat = c.getDouble(1);
+						double lon = c.getDouble(2);
+						addToCells(counts, lat, lon, 1);
+						if (bounds == null) {
+							bounds = new double[] {lat, lon, lat, lon};
+						} else {
+							bounds[0] = Math.min(bounds[0], lat);
+							bounds[1] = Math.min(bounds[1], lon);
+							bounds[2] = Math.max(bounds[2], lat);
+							bounds[3] = Math.max(bounds[3], lon);
+						}
+					}
+					c.close();
+
+					if (read > 0) {
+						db.beginTransaction();
+						try {
+							applyCounts(db, counts);
+							ContentValues values = new ContentValues();
+							values.put(Schema.COL_HEATMAP_LAST_ID, lastId);
+							values.put(Schema.COL_MIN_LATITUDE, bounds[0]);
+							values.put(Schema.COL_MIN_LONGITUDE, bounds[1]);
+							values.put(Schema.COL_MAX_LATITUDE, bounds[2]);
+							values.put(Schema.COL_MAX_LONGITUDE, bounds[3]);
+							db.update(Schema.TBL_TRACK, values, Schema.COL_ID + " = ?", new String[] {Long.toString(trackId)});
+							db.setTransactionSuccessful();
+						} finally {
+							db.endTransaction();
+						}
+						total += read;
+					}
+				} while (read == CHUNK_SIZE);
+			}
+		} finally {
+			tracks.close();
+		}
+		Log.v(TAG, "Added " + total + " points to the heatmap");
+		return total;
+	}
+
+	/**
+	 * Removes the points of a track from the grid. Must be called
+	 * before deleting the track points. The track is marked as
+	 * removed in the same transaction, so that its points can't be
+	 * removed twice, e.g. if the deletion of the track is interrupted.
+	 */
+	static synchronized void removeTrack(SQLiteDatabase db, long trackId) {
+		Cursor t = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_HEATMAP_LAST_ID},
+				Schema.COL_ID + " = ?", new String[] {Long.toString(trackId)}, null, null, null);
+		long lastId = t.moveToFirst() ? t.getLong(0) : 0;
+		t.close();
+		if (lastId <= 0) {
+			return;
+		}
+
+		Map<Long, int[]> counts = new HashMap<Long, int[]>();
+		Cursor c = db.query(Schema.VIEW_TRACKPOINT, new String[] {Schema.COL_LATITUDE, Schema.COL_LONGITUDE},
+				Schema.COL_TRACK_ID + " = ? and " + Schema.COL_ID + " <= ?",
+				new String[] {Long.toString(trackId), Long.toString(lastId)}, null, null, null);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			addToCells(counts, c.getDouble(0), c.getDouble(1), -1);
+		}
+		c.close();
+		// Sealed points were all added to the grid, see TrackSealer
+		c = TrackPointChunkCursor.query(db, trackId, new String[] {Schema.COL_LATITUDE, Schema.COL_LONGITUDE});
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			addToCells(counts, c.getDouble(0), c.getDouble(1), -1);
+		}
+		c.close();
+
+		db.beginTransaction();
+		try {
+			applyCounts(db, counts);
+			db.delete(Schema.TBL_HEATMAP_CELL, Schema.COL_NB_POINTS + " <= 0", null);
+			ContentValues values = new ContentValues();
+			values.put(Schema.COL_HEATMAP_LAST_ID, 0);
+			db.update(Schema.TBL_TRACK, values, Schema.COL_ID + " = ?", new String[] {Long.toString(trackId)});
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Updates the grid in the background, e.g. when a track is stopped.
+	 */
+	public static void updateAsync(final ContentResolver contentResolver) {
+		new Thread(TAG) {
+			@Override
+			public void run() {
+				contentResolver.call(TrackContentProvider.CONTENT_URI_HEATMAP,
+						TrackContentProvider.METHOD_UPDATE_HEATMAP, null, null);
+			}
+		}.start();
+	}
+
+	/**
+	 * @return Column of the tile containing a longitude, at a zoom level
+	 */
+	public static int tileX(double longitude, int zoom) {
+		int n = 1 << zoom;
+		return Math.max(0, Math.min(n - 1, (int) Math.floor((longitude + 180) / 360 * n)));
+	}
+
+	/**
+	 * @return Row of the tile containing a latitude, at a zoom level
+	 */
+	public static int tileY(double latitude, int zoom) {
+		int n = 1 << zoom;
+		double y = (180 - MercatorProjection.latitudeToMercatorY(latitude)) / 360;
+		return Math.max(0, Math.min(n - 1, (int) Math.floor(y * n)));
+	}
+
+	/**
+	 * Adds a point to the cells containing it, at each level
+	 * @param delta Count to add
+	 */
+	private static void addToCells(Map<Long, int[]> counts, double lat, double lon, int delta) {
+		for (int zoom : CELL_ZOOMS) {
+			long key = ((long) zoom << 48) | ((long) tileX(lon, zoom) << 24) | tileY(lat, zoom);
+			int[] count = counts.get(key);
+			if (count == null) {
+				counts.put(key, new int[] {delta});
+			} else {
+				count[0] += delta;
+			}
+		}
+	}
+
+	/**
+	 * Adds counts to the cells, creating them if needed.
+	 * Must be called within a transaction.
+	 */
+	private static void applyCounts(SQLiteDatabase db, Map<Long, int[]> counts) {
+		SQLiteStatement update = db.compileStatement("update " + Schema.TBL_HEATMAP_CELL
+				+ " set " + Schema.COL_NB_POINTS + " = " + Schema.COL_NB_POINTS + " + ?"
+				+ " where " + Schema.COL_ZOOM + " = ? and " + Schema.COL_CELL_X + " = ? and " + Schema.COL_CELL_Y + " = ?");
+		SQLiteStatement insert = db.compileStatement("insert into " + Schema.TBL_HEATMAP_CELL
+				+ " (" + Schema.COL_NB_POINTS + ", " + Schema.COL_ZOOM + ", " + Schema.COL_CELL_X + ", " + Schema.COL_CELL_Y
+				+ ") values (?, ?, ?, ?)");
+		try {
+			for (Map.Entry<Long, int[]> e : counts.entrySet()) {
+				long key = e.getKey();
+				update.bindLong(1, e.getValue()[0]);
+				update.bindLong(2, key >>> 48);
+				update.bindLong(3, (key >>> 24) & 0xffffff);
+				update.bindLong(4, key & 0xffffff);
+				if (update.executeUpdateDelete() == 0 && e.getValue()[0] > 0) {
+					insert.bindLong(1, e.getValue()[0]);
+					insert.bindLong(2, key >>> 48);
+					insert.bindLong(3, (key >>> 24) & 0xffffff);
+					insert.bindLong(4, key & 0xffffff);
+					insert.executeInsert();
+				}
+			}
+		} finally {
+			update.close();
+			insert.close();
+		}
+	}
+
+}
@@ -11,8 +11,10 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.util.Log;
 
 /**
@@ -45,12 +47,59 @@ public class TrackContentProvider extends ContentProvider {
 	 * Uri for a specific waypoint
 	 */
 	public static final Uri CONTENT_URI_WAYPOINT_UUID = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_WAYPOINT + "/uuid");
+
+	/**
+	 * Uri for the density grid of all tracks, see {@link HeatmapBuilder}
+	 */
+	public static final Uri CONTENT_URI_HEATMAP = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_HEATMAP_CELL);
+
+	/**
+	 * Uri for the bounding boxes of the tracks, as computed by {@link HeatmapBuilder}.
+	 * Reads the track table only, without counting points.
+	 */
+	public static final Uri CONTENT_URI_HEATMAP_TRACKS = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_HEATMAP_CELL + "/" + Schema.TBL_TRACK + "s");
+
+	/**
+	 * Uri for the track list, see {@link #trackListUri(int)}
+	 */
+	public static final Uri CONTENT_URI_TRACK_LIST = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_TRACK + "/list");
+
+	/**
+	 * Method for {@link #call(String, String, android.os.Bundle)}: adds the new
+	 * points to the density grid. Runs on the calling thread.
+	 */
+	public static final String METHOD_UPDATE_HEATMAP = "updateHeatmap";
+
+	/**
+	 * Method for {@link #call(String, String, android.os.Bundle)}: deletes the tracks
+	 * flagged as deleted, up to the deletion batch given as argument. Returns the
+	 * ids of the deleted tracks as {@link #EXTRA_TRACK_IDS}. Runs on the calling thread.
+	 */
+	public static final String METHOD_PURGE_TRACKS = "purgeTracks";
+
+	/**
+	 * Method for {@link #call(String, String, android.os.Bundle)}: updates the
+	 * density grid, then seals the finished tracks. Runs on the calling thread.
+	 */
+	public static final String METHOD_SEAL_TRACKS = "sealTracks";
+
+	/**
+	 * Result of {@link #METHOD_PURGE_TRACKS}
+	 */
+	public static final String EXTRA_TRACK_IDS = "trackIds";
 	
 	/**
 	 * tables and joins to be used within a query to get the important informations of a track
 	 */
 	private static final String TRACK_TABLES = Schema.TBL_TRACK + " left join " + Schema.TBL_TRACKPOINT + " on " + Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID;
 	
+	/**
+	 * Number of sealed points of a track, see {@link TrackSealer}
+	 */
+	private static final String SQL_SEALED_COUNT = "(SELECT coalesce(sum(" + Schema.COL_NB_POINTS + "), 0) FROM "
+		+ Schema.TBL_TRACKPOINT_CHUNK + " WHERE " + Schema.TBL_TRACKPOINT_CHUNK + "." + Schema.COL_TRACK_ID
+		+ " = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ")";
+
 	/**
 	 * the projection to be used to get the important informations of a track
 	 */
@@ -65,10 +114,27 @@ public class TrackContentProvider extends ContentProvider {
 		Schema.COL_TAGS,
 		Schema.COL_OSM_VISIBILITY,
 		Schema.COL_START_DATE,
-		"count(" + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID + ") as " + Schema.COL_TRACKPOINT_COUNT,
+		Schema.COL_OVERVIEW,
+		"count(" + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID + ") + " + SQL_SEALED_COUNT + " as " + Schema.COL_TRACKPOINT_COUNT,
 		"(SELECT count("+Schema.TBL_WAYPOINT+"."+Schema.COL_TRACK_ID+") FROM "+Schema.TBL_WAYPOINT+" WHERE "+Schema.TBL_WAYPOINT+"."+Schema.COL_TRACK_ID+" = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ") as " + Schema.COL_WAYPOINT_COUNT
 	};
 	
+	/**
+	 * the projection of the track list. Counts are computed for the returned
+	 * tracks only, so that a page of tracks doesn't read all the trackpoints.
+	 */
+	private static final String[] TRACK_LIST_PROJECTION = {
+		Schema.COL_ID,
+		Schema.COL_ACTIVE,
+		Schema.COL_EXPORT_DATE,
+		Schema.COL_OSM_UPLOAD_DATE,
+		Schema.COL_NAME,
+		Schema.COL_START_DATE,
+		Schema.COL_OVERVIEW,
+		"(SELECT count(*) FROM "+Schema.TBL_TRACKPOINT+" WHERE "+Schema.TBL_TRACKPOINT+"."+Schema.COL_TRACK_ID+" = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ") + " + SQL_SEALED_COUNT + " as " + Schema.COL_TRACKPOINT_COUNT,
+		"(SELECT count(*) FROM "+Schema.TBL_WAYPOINT+" WHERE "+Schema.TBL_WAYPOINT+"."+Schema.COL_TRACK_ID+" = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ") as " + Schema.COL_WAYPOINT_COUNT
+	};
+
 	/**
 	 * the group by statement that is used for the track statements
 	 */
@@ -83,12 +149,15 @@ public class TrackContentProvider extends ContentProvider {
 	static {
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK, Schema.URI_CODE_TRACK);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/active", Schema.URI_CODE_TRACK_ACTIVE);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/list", Schema.URI_CODE_TRACK_LIST);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#", Schema.URI_CODE_TRACK_ID);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/start", Schema.URI_CODE_TRACK_START);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/end", Schema.URI_CODE_TRACK_END);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_WAYPOINT + "s", Schema.URI_CODE_TRACK_WAYPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_TRACKPOINT + "s", Schema.URI_CODE_TRACK_TRACKPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_WAYPOINT + "/uuid/*", Schema.URI_CODE_WAYPOINT_UUID);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_HEATMAP_CELL, Schema.URI_CODE_HEATMAP);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_HEATMAP_CELL + "/" + Schema.TBL_TRACK + "s", Schema.URI_CODE_HEATMAP_TRACKS);
 		
 	}
 	
@@ -132,14 +201,36 @@ public class TrackContentProvider extends ContentProvider {
 				"end" );		
 	}
 
+	/**
+	 * @param limit Max. number of tracks
+	 * @return Uri for a page of the track list, with the columns of {@link #TRACK_LIST_PROJECTION}
+	 */
+	public static final Uri trackListUri(int limit) {
+		return CONTENT_URI_TRACK_LIST.buildUpon()
+				.appendQueryParameter(Schema.PARAM_LIMIT, Integer.toString(limit)).build();
+	}
+
+	/**
+	 * Window (ms) during which trackpoint and waypoint insert notifications
+	 * are coalesced, so that fast logging or imports don't make observers
+	 * re-query for each row.
+	 */
+	public static final long NOTIFICATION_WINDOW = 250;
+
 	/**
 	 * Database Helper
 	 */
 	private DatabaseHelper dbHelper;
 
+	/**
+	 * Coalesces insert notifications
+	 */
+	private ChangeNotificationDispatcher changeDispatcher;
+
 	@Override
 	public boolean onCreate() {
 		dbHelper = new DatabaseHelper(getContext());
+		changeDispatcher = new ChangeNotificationDispatcher(getContext().getContentResolver(), NOTIFICATION_WINDOW);
 		return true;
 	}
 
@@ -154,10 +245,9 @@ public class TrackContentProvider extends ContentProvider {
 			count = dbHelper.getWritableDatabase().delete(Schema.TBL_TRACK, selection, selectionArgs);
 			break;
 		case Schema.URI_CODE_TRACK_ID:
-			// the URI matches a specific track, delete all related entities
+			// the URI matches a specific track, related entities are deleted by cascade
 			String trackId = Long.toString(ContentUris.parseId(uri));
-			dbHelper.getWritableDatabase().delete(Schema.TBL_WAYPOINT, Schema.COL_TRACK_ID + " = ?", new String[] {trackId});
-			dbHelper.getWritableDatabase().delete(Schema.TBL_TRACKPOINT, Schema.COL_TRACK_ID + " = ?", new String[] {trackId});
+			HeatmapBuilder.removeTrack(dbHelper.getWritableDatabase(), ContentUris.parseId(uri));
 			count = dbHelper.getWritableDatabase().delete(Schema.TBL_TRACK, Schema.COL_ID + " = ?", new String[] {trackId});
 			break;
 		case Schema.URI_CODE_WAYPOINT_UUID:
@@ -213,11 +303,10 @@ public class TrackContentProvider extends ContentProvider {
 			if (values.containsKey(Schema.COL_TRACK_ID) && values.containsKey(Schema.COL_LONGITUDE)
 					&& values.containsKey(Schema.COL_LATITUDE) && values.containsKey(Schema.COL_TIMESTAMP)) {
 
-				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_TRACKPOINT, null, values);
+				long rowId = TrackPointCodec.insert(dbHelper.getWritableDatabase(), values);
 				if (rowId > 0) {
-					Uri trackpointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(trackpointUri, null);
-					return trackpointUri;
+					changeDispatcher.notifyInsert(uri, rowId);
+					return ContentUris.withAppendedId(uri, rowId);
 				}
 			} else {
 				throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
@@ -231,9 +320,8 @@ public class TrackContentProvider extends ContentProvider {
 
 				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_WAYPOINT, null, values);
 				if (rowId > 0) {
-					Uri waypointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(waypointUri, null);
-					return waypointUri;
+					changeDispatcher.notifyInsert(uri, rowId);
+					return ContentUris.withAppendedId(uri, rowId);
 				}
 			} else {
 				throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
@@ -260,22 +348,70 @@ public class TrackContentProvider extends ContentProvider {
 	}
 
 	
+	/**
+	 * Query on the database, built for a URI by {@link TrackContentProvider#buildQuery(Uri, String[], String, String[], String)}
+	 */
+	static class Query {
+		final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		String[] projection;
+		String selection;
+		String[] selectionArgs;
+		String groupBy;
+		String sortOrder;
+		String limit;
+
+		/**
+		 * Track whose points are read, that may be sealed, or -1
+		 */
+		long pointsTrackId = -1;
+
+		/**
+		 * @return SQL of the query, taking {@link #selectionArgs} as parameters
+		 */
+		String toSql() {
+			return qb.buildQuery(projection, selection, groupBy, null, sortOrder, limit);
+		}
+
+		Cursor run(SQLiteDatabase db) {
+			return qb.query(db, projection, selection, selectionArgs, groupBy, null, sortOrder, limit);
+		}
+	}
+
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selectionIn, String[] selectionArgsIn, String sortOrder) {
 		Log.v(TAG, "query(), uri=" + uri);
 
-		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+		Query q = buildQuery(uri, projection, selectionIn, selectionArgsIn, sortOrder);
+		Cursor c = q.run(dbHelper.getReadableDatabase());
+		if (q.pointsTrackId != -1) {
+			c = TrackPointChunkCursor.withSealedPoints(dbHelper.getReadableDatabase(), q.pointsTrackId,
+					q.projection, selectionIn, selectionArgsIn, q.sortOrder, q.limit, c);
+		}
+		c.setNotificationUri(getContext().getContentResolver(), uri);
+		return c;
+	}
+
+	/**
+	 * Builds the query for a URI, with the parameters of
+	 * {@link #query(Uri, String[], String, String[], String)}
+	 */
+	static Query buildQuery(Uri uri, String[] projection, String selectionIn, String[] selectionArgsIn, String sortOrder) {
+		Query q = new Query();
+		SQLiteQueryBuilder qb = q.qb;
 		String selection = selectionIn;
 		String[] selectionArgs = selectionArgsIn;
 		
 		String groupBy = null;
 		String limit = null;
+		// Track whose points are read, that may be sealed
+		long pointsTrackId = -1;
 		
 		// Select which datatype was requested
 		switch (uriMatcher.match(uri)) {
 		case Schema.URI_CODE_TRACK_TRACKPOINTS:
 			String trackId = uri.getPathSegments().get(1);
-			qb.setTables(Schema.TBL_TRACKPOINT);
+			pointsTrackId = Long.parseLong(trackId);
+			qb.setTables(Schema.VIEW_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			// Deal with any additional selection info provided by the caller 
 			if (null != selectionIn) {
@@ -311,7 +447,8 @@ public class TrackContentProvider extends ContentProvider {
 				throw new UnsupportedOperationException();
 			}
 			trackId = uri.getPathSegments().get(1);
-			qb.setTables(Schema.TBL_TRACKPOINT);
+			pointsTrackId = Long.parseLong(trackId);
+			qb.setTables(Schema.VIEW_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
 			sortOrder = Schema.COL_ID + " asc";
@@ -323,7 +460,8 @@ public class TrackContentProvider extends ContentProvider {
 				throw new UnsupportedOperationException();
 			}
 			trackId = uri.getPathSegments().get(1);
-			qb.setTables(Schema.TBL_TRACKPOINT);
+			pointsTrackId = Long.parseLong(trackId);
+			qb.setTables(Schema.VIEW_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
 			sortOrder = Schema.COL_ID + " desc";
@@ -334,6 +472,7 @@ public class TrackContentProvider extends ContentProvider {
 			if (projection == null)
 				projection = TRACK_TABLES_PROJECTION;
 			groupBy = TRACK_TABLES_GROUP_BY;
+			selection = notDeleted(selectionIn);
 			break;
 		case Schema.URI_CODE_TRACK_ID:
 			if (selectionIn != null || selectionArgsIn != null) {
@@ -345,25 +484,74 @@ public class TrackContentProvider extends ContentProvider {
 			if (projection == null)
 				projection = TRACK_TABLES_PROJECTION;
 			groupBy = TRACK_TABLES_GROUP_BY;
-			selection = Schema.TBL_TRACK + "." + Schema.COL_ID + " = ?";
+			selection = Schema.TBL_TRACK + "." + Schema.COL_ID + " = ? and " + Schema.COL_DELETED + " = 0";
 			selectionArgs = new String[] {trackId};			
 			break;
+		case Schema.URI_CODE_TRACK_LIST:
+			qb.setTables(Schema.TBL_TRACK);
+			if (projection == null)
+				projection = TRACK_LIST_PROJECTION;
+			limit = uri.getQueryParameter(Schema.PARAM_LIMIT);
+			selection = notDeleted(selectionIn);
+			break;
 		case Schema.URI_CODE_TRACK_ACTIVE:
 			if (selectionIn != null || selectionArgsIn != null) {
 				// Any selection/selectionArgs will be ignored
 				throw new UnsupportedOperationException();
 			}
 			qb.setTables(Schema.TBL_TRACK);
-			selection = Schema.COL_ACTIVE + " = ?";
+			selection = notDeleted(Schema.COL_ACTIVE + " = ?");
 			selectionArgs = new String[] {Integer.toString(Schema.VAL_TRACK_ACTIVE)};			
 			break;
+		case Schema.URI_CODE_HEATMAP:
+			qb.setTables(Schema.TBL_HEATMAP_CELL);
+			break;
+		case Schema.URI_CODE_HEATMAP_TRACKS:
+			qb.setTables(Schema.TBL_TRACK);
+			selection = notDeleted(selectionIn);
+			break;
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		Cursor c = qb.query(dbHelper.getReadableDatabase(), projection, selection, selectionArgs, groupBy, null, sortOrder, limit);
-		c.setNotificationUri(getContext().getContentResolver(), uri);
-		return c;
+		q.projection = projection;
+		q.selection = selection;
+		q.selectionArgs = selectionArgs;
+		q.groupBy = groupBy;
+		q.sortOrder = sortOrder;
+		q.limit = limit;
+		q.pointsTrackId = pointsTrackId;
+		return q;
+	}
+
+	@Override
+	public Bundle call(String method, String arg, Bundle extras) {
+		if (METHOD_UPDATE_HEATMAP.equals(method)) {
+			if (HeatmapBuilder.update(dbHelper.getWritableDatabase()) > 0) {
+				getContext().getContentResolver().notifyChange(CONTENT_URI_HEATMAP, null);
+			}
+			return null;
+		} else if (METHOD_SEAL_TRACKS.equals(method)) {
+			if (HeatmapBuilder.update(dbHelper.getWritableDatabase()) > 0) {
+				getContext().getContentResolver().notifyChange(CONTENT_URI_HEATMAP, null);
+			}
+			TrackSealer.seal(dbHelper.getWritableDatabase());
+			return null;
+		} else if (METHOD_PURGE_TRACKS.equals(method)) {
+			Bundle result = new Bundle();
+			result.putLongArray(EXTRA_TRACK_IDS, TrackPurger.purge(dbHelper.getWritableDatabase(), Long.parseLong(arg)));
+			return result;
+		}
+		return super.call(method, arg, extras);
+	}
+
+	/**
+	 * Adds the exclusion of deleted tracks to a selection
+	 * @param selection Selection on the track table, or null
+	 */
+	private static String notDeleted(String selection) {
+		String notDeleted = Schema.COL_DELETED + " = 0";
+		return (selection == null) ? notDeleted : notDeleted + " AND (" + selection + ")";
 	}
 
 	@Override
@@ -423,6 +611,22 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String TBL_TRACKPOINT = "trackpoint";
 		public static final String TBL_WAYPOINT = "waypoint";
 		public static final String TBL_TRACK = "track";
+		public static final String TBL_HEATMAP_CELL = "heatmap_cell";
+
+		/**
+		 * Track points with decoded values, see {@link TrackPointCodec}
+		 */
+		public static final String VIEW_TRACKPOINT = "trackpoint_decoded";
+
+		/**
+		 * Points of finished tracks, packed by {@link TrackSealer}
+		 */
+		public static final String TBL_TRACKPOINT_CHUNK = "trackpoint_chunk";
+
+		/**
+		 * Optional values of the track points, see {@link TrackPointCodec}
+		 */
+		public static final String TBL_TRACKPOINT_ATTRIBUTE = "trackpoint_attribute";
 		
 		public static final String COL_ID = "_id";
 		public static final String COL_TRACK_ID = "track_id";
@@ -447,6 +651,25 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String COL_OSM_UPLOAD_DATE = "osm_upload_date";
 		public static final String COL_COMPASS = "compass_heading";
 		public static final String COL_COMPASS_ACCURACY = "compass_accuracy";
+		public static final String COL_HEATMAP_LAST_ID = "heatmap_last_id";
+		public static final String COL_MIN_LATITUDE = "min_latitude";
+		public static final String COL_MIN_LONGITUDE = "min_longitude";
+		public static final String COL_MAX_LATITUDE = "max_latitude";
+		public static final String COL_MAX_LONGITUDE = "max_longitude";
+		public static final String COL_OVERVIEW = "overview";
+		public static final String COL_DELETED = "deleted";
+		public static final String COL_TRACKPOINT_ID = "trackpoint_id";
+		public static final String COL_ATTRIBUTE = "attribute";
+		public static final String COL_VALUE = "value";
+		public static final String COL_ZOOM = "zoom";
+		public static final String COL_CELL_X = "cell_x";
+		public static final String COL_CELL_Y = "cell_y";
+		public static final String COL_NB_POINTS = "nb_points";
+		public static final String COL_FIRST_ID = "first_id";
+		public static final String COL_LAST_ID = "last_id";
+		public static final String COL_FIRST_TIMESTAMP = "first_timestamp";
+		public static final String COL_LAST_TIMESTAMP = "last_timestamp";
+		public static final String COL_DATA = "data";
 		
 		// virtual colums that are used in some sqls but dont exist in database
 		public static final String COL_TRACKPOINT_COUNT = "tp_count";
@@ -461,10 +684,33 @@ public class TrackContentProvider extends ContentProvider {
 		public static final int URI_CODE_WAYPOINT_UUID = 8;
 		public static final int URI_CODE_TRACK_START = 9;
 		public static final int URI_CODE_TRACK_END = 10;
+		public static final int URI_CODE_HEATMAP = 11;
+		public static final int URI_CODE_HEATMAP_TRACKS = 12;
+		public static final int URI_CODE_TRACK_LIST = 13;
+
+		/**
+		 * Query parameter limiting the number of returned rows
+		 */
+		public static final String PARAM_LIMIT = "limit";
+
+		/**
+		 * Selections supported on the track points of sealed tracks, see
+		 * {@link TrackPointChunkCursor}: points after an id, and points in a
+		 * box (south, north, west, east)
+		 */
+		public static final String SELECTION_AFTER_ID = COL_ID + " > ?";
+		public static final String SELECTION_BBOX = COL_LATITUDE + " between ? and ? and "
+				+ COL_LONGITUDE + " between ? and ?";
 		
 
 		public static final int VAL_TRACK_ACTIVE = 1;
 		public static final int VAL_TRACK_INACTIVE = 0;
+
+		/**
+		 * Values for {@link #COL_ATTRIBUTE}
+		 */
+		public static final int VAL_ATTRIBUTE_COMPASS = 1;
+		public static final int VAL_ATTRIBUTE_COMPASS_ACCURACY = 2;
 	}
 
 }
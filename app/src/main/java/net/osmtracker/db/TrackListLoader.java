@@ -0,0 +1,181 @@
+package net.osmtracker.db;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.db.model.TrackRow;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Loads the track list on a background thread, by pages of {@link #PAGE_SIZE}
+ * tracks, newest first.
+ *<P>
+ * Pages are read with keyset pagination: each page starts after the start date
+ * and id of the last track read, so reading a page doesn't depend on the
+ * number of tracks before it. A reload reads again all the tracks loaded so
+ * far, e.g. when a track changed.
+ */
+public class TrackListLoader {
+
+	private static final String TAG = TrackListLoader.class.getSimpleName();
+
+	/**
+	 * Number of tracks read at once
+	 */
+	public static final int PAGE_SIZE = 100;
+
+	/**
+	 * Receives loaded tracks, on the main thread.
+	 */
+	public interface Listener {
+		/**
+		 * @param rows All the tracks loaded so far, newest first. Not modified afterwards.
+		 * @param complete true if there are no more tracks to load
+		 */
+		void onTracksLoaded(List<TrackRow> rows, boolean complete);
+	}
+
+	private final ContentResolver contentResolver;
+	private final Listener listener;
+
+	/**
+	 * Tracks loaded so far, and whether all tracks are loaded.
+	 * Only accessed from the loader thread.
+	 */
+	private List<TrackRow> rows = new ArrayList<TrackRow>();
+	private boolean complete = false;
+
+	/**
+	 * Only used from the loader thread
+	 */
+	private final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+
+	/**
+	 * Whether a page is being read. Only accessed from the main thread.
+	 */
+	private boolean pageRequested = false;
+
+	/**
+	 * Whether a reload is waiting to start, so that successive
+	 * changes (e.g. deleting many tracks) cause a single reload.
+	 */
+	private final AtomicBoolean reloadQueued = new AtomicBoolean(false);
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	public TrackListLoader(ContentResolver contentResolver, Listener listener) {
+		this.contentResolver = contentResolver;
+		this.listener = listener;
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Reads the next page of tracks, unless all tracks are loaded or a page is being read.
+	 */
+	public void loadNextPage() {
+		if (pageRequested) {
+			return;
+		}
+		pageRequested = true;
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (!complete) {
+					TrackRow last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+					List<TrackRow> page = query(last, PAGE_SIZE);
+					rows.addAll(page);
+					complete = page.size() < PAGE_SIZE;
+				}
+				deliver(true);
+			}
+		});
+	}
+
+	/**
+	 * Reads again the tracks loaded so far, or the first page.
+	 */
+	public void reload() {
+		if (reloadQueued.getAndSet(true)) {
+			return;
+		}
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				reloadQueued.set(false);
+				int count = Math.max(rows.size(), PAGE_SIZE);
+				// The new list is delivered, the previous one must not be modified
+				rows = query(null, count);
+				complete = rows.size() < count;
+				deliver(false);
+			}
+		});
+	}
+
+	/**
+	 * Stops the loader thread
+	 */
+	public void quit() {
+		thread.quit();
+	}
+
+	/**
+	 * Posts a copy of the loaded tracks to the listener
+	 * @param page Whether a page was requested
+	 */
+	private void deliver(final boolean page) {
+		final List<TrackRow> copy = new ArrayList<TrackRow>(rows);
+		final boolean isComplete = complete;
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (page) {
+					pageRequested = false;
+				}
+				listener.onTracksLoaded(copy, isComplete);
+			}
+		});
+	}
+
+	/**
+	 * Reads tracks, newest first
+	 * @param after Track to start after, or null to start with the newest one
+	 * @param limit Max. number of tracks
+	 */
+	private List<TrackRow> query(TrackRow after, int limit) {
+		String selection = null;
+		String[] selectionArgs = null;
+		if (after != null) {
+			// Tracks with the same start date are ordered by id
+			selection = Schema.COL_START_DATE + " <= ? and (" + Schema.COL_START_DATE + " < ? or "
+					+ Schema.COL_ID + " < ?)";
+			String startDate = Long.toString(after.startDate);
+			selectionArgs = new String[] {startDate, startDate, Long.toString(after.id)};
+		}
+
+		Cursor c = contentResolver.query(TrackContentProvider.trackListUri(limit), null, selection, selectionArgs,
+				Schema.COL_START_DATE + " desc, " + Schema.COL_ID + " desc");
+		List<TrackRow> out = new ArrayList<TrackRow>(c.getCount());
+		TrackRow.Columns columns = new TrackRow.Columns(c);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			out.add(new TrackRow(c, columns, dateFormat));
+		}
+		c.close();
+		Log.v(TAG, "Read " + out.size() + " tracks");
+		return out;
+	}
+
+}
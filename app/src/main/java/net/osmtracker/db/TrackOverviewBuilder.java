@@ -0,0 +1,55 @@
+package net.osmtracker.db;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.util.CoordinateBuffer;
+import net.osmtracker.util.EncodedPolyline;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Computes the overview of a track ({@link Schema#COL_OVERVIEW}): the track
+ * simplified to {@link #MAX_POINTS} points, as an {@link EncodedPolyline}.
+ * The overview is used to draw the track thumbnails of the track list.
+ */
+public class TrackOverviewBuilder {
+
+	private static final String TAG = TrackOverviewBuilder.class.getSimpleName();
+
+	/**
+	 * Max. number of points of an overview
+	 */
+	public static final int MAX_POINTS = 64;
+
+	/**
+	 * Reads the points of a track and stores its overview.
+	 * Reads the whole track, must not be called from the main thread:
+	 * see {@link TrackSealer#sealAsync(ContentResolver, long)}.
+	 * @return The overview, or null if the track has no point
+	 */
+	public static String update(ContentResolver contentResolver, long trackId) {
+		CoordinateBuffer coords = new CoordinateBuffer();
+		Cursor c = contentResolver.query(TrackContentProvider.trackPointsUri(trackId),
+				new String[] {Schema.COL_LATITUDE, Schema.COL_LONGITUDE},
+				null, null, Schema.COL_ID + " asc");
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			coords.add(c.getDouble(1), c.getDouble(0));
+		}
+		c.close();
+
+		if (coords.size() == 0) {
+			return null;
+		}
+		String overview = EncodedPolyline.encode(coords, EncodedPolyline.simplify(coords, MAX_POINTS));
+		Log.v(TAG, "Track " + trackId + ": " + coords.size() + " points, overview of " + overview.length() + " chars");
+
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_OVERVIEW, overview);
+		contentResolver.update(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId), values, null, null);
+		return overview;
+	}
+
+}
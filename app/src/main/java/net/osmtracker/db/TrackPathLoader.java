@@ -0,0 +1,263 @@
+package net.osmtracker.db;
+
+import java.util.Arrays;
+
+import net.osmtracker.util.CoordinateBuffer;
+import net.osmtracker.util.MemoryBudgetManager;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Loads the path of a track on a background thread, incrementally.
+ *<P>
+ * The decoded points are kept by the loader, so that a new display (e.g. after
+ * a pause or a screen rotation) only needs the points recorded meanwhile. Points
+ * are delivered to the {@link Listener} on the main thread, in batches.
+ *<P>
+ * When trimmed, the kept points are dropped and will be read again
+ * on the next load. Points already delivered are not delivered twice.
+ */
+public class TrackPathLoader implements MemoryBudgetManager.Cache {
+
+	private static final String TAG = TrackPathLoader.class.getSimpleName();
+
+	/**
+	 * Max. number of points delivered in a single batch
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Receives loaded data, on the main thread.
+	 */
+	public interface Listener {
+		/**
+		 * New points of the path, in order.
+		 * @param latitudesE6 Latitudes, in microdegrees
+		 * @param longitudesE6 Longitudes, in microdegrees
+		 * @param count Number of points in the arrays
+		 * @param lastId Id of the last point
+		 */
+		void onPointsLoaded(int[] latitudesE6, int[] longitudesE6, int count, long lastId);
+
+		/**
+		 * Bounds of a finished track.
+		 */
+		void onBoundsLoaded(double minLat, double minLon, double maxLat, double maxLon);
+	}
+
+	private final ContentResolver contentResolver;
+	private final long trackId;
+
+	/**
+	 * Points loaded so far, and the id of the last one.
+	 * Only modified on the loader thread.
+	 */
+	private CoordinateBuffer points = new CoordinateBuffer();
+	private long lastId = -1;
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Current listener, and number of points delivered to it.
+	 * Only accessed from the main thread.
+	 */
+	private Listener listener;
+	private int delivered = 0;
+
+	/**
+	 * @param contentResolver Resolver to query
+	 * @param trackId Track to load
+	 */
+	public TrackPathLoader(ContentResolver contentResolver, long trackId) {
+		this.contentResolver = contentResolver;
+		this.trackId = trackId;
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Sets the listener, and delivers all the points already loaded
+	 * to it. Must be called from the main thread.
+	 * @param l New listener, or null
+	 */
+	public void attach(Listener l) {
+		listener = l;
+		delivered = 0;
+		if (l != null) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					for (int from = 0; from < points.size(); from += BATCH_SIZE) {
+						int to = Math.min(points.size(), from + BATCH_SIZE);
+						int[] lats = new int[to - from];
+						int[] lons = new int[to - from];
+						for (int i = from; i < to; i++) {
+							lats[i - from] = (int) Math.round(points.getLatitude(i) * 1e6);
+							lons[i - from] = (int) Math.round(points.getLongitude(i) * 1e6);
+						}
+						deliver(from, lats, lons, lats.length, (to == points.size()) ? lastId : -1);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Loads the points recorded since the last call.
+	 */
+	public void load() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				loadNewPoints();
+			}
+		});
+	}
+
+	/**
+	 * Loads the bounds of the track, if it's not the active one.
+	 * Bounds are the ones stored with the track (see {@link HeatmapBuilder}),
+	 * or computed by the database, without reading the points.
+	 */
+	public void loadBounds() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				Cursor c = contentResolver.query(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+						new String[] {TrackContentProvider.Schema.COL_ACTIVE,
+						TrackContentProvider.Schema.COL_MIN_LATITUDE, TrackContentProvider.Schema.COL_MIN_LONGITUDE,
+						TrackContentProvider.Schema.COL_MAX_LATITUDE, TrackContentProvider.Schema.COL_MAX_LONGITUDE},
+						null, null, null);
+				boolean active = !c.moveToFirst() || c.getInt(0) != TrackContentProvider.Schema.VAL_TRACK_INACTIVE;
+				if (active) {
+					c.close();
+					return;
+				}
+				if (c.isNull(1)) {
+					// Not stored yet, so not sealed either. Same column indices as above.
+					c.close();
+					c = contentResolver.query(TrackContentProvider.trackPointsUri(trackId), new String[] {
+							"count(*)",
+							"min(" + TrackContentProvider.Schema.COL_LATITUDE + ")",
+							"min(" + TrackContentProvider.Schema.COL_LONGITUDE + ")",
+							"max(" + TrackContentProvider.Schema.COL_LATITUDE + ")",
+							"max(" + TrackContentProvider.Schema.COL_LONGITUDE + ")"}, null, null, null);
+					c.moveToFirst();
+				}
+				// Need at least 2 distinct points to have a span
+				if (!c.isNull(1) && (c.getDouble(1) != c.getDouble(3) || c.getDouble(2) != c.getDouble(4))) {
+					final double minLat = c.getDouble(1), minLon = c.getDouble(2);
+					final double maxLat = c.getDouble(3), maxLon = c.getDouble(4);
+					mainHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							if (listener != null) {
+								listener.onBoundsLoaded(minLat, minLon, maxLat, maxLon);
+							}
+						}
+					});
+				}
+				c.close();
+			}
+		});
+	}
+
+	@Override
+	public long getSize() {
+		// Longitude, latitude, and Mercator Y of each point
+		return points.capacity() * 16L;
+	}
+
+	@Override
+	public void trim() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				points = new CoordinateBuffer();
+				lastId = -1;
+			}
+		});
+	}
+
+	/**
+	 * Stops the loader thread. The loader can't be used afterwards.
+	 */
+	public void quit() {
+		listener = null;
+		thread.quit();
+	}
+
+	/**
+	 * Reads the points with an id greater than the last one read,
+	 * and delivers them in batches. Runs on the loader thread.
+	 */
+	private void loadNewPoints() {
+		Cursor c = contentResolver.query(TrackContentProvider.trackPointsUri(trackId),
+				new String[] {TrackContentProvider.Schema.COL_ID, TrackContentProvider.Schema.COL_LATITUDE,
+						TrackContentProvider.Schema.COL_LONGITUDE},
+				TrackContentProvider.Schema.SELECTION_AFTER_ID, new String[] {Long.toString(lastId)},
+				TrackContentProvider.Schema.COL_ID + " asc");
+
+		int[] lats = new int[BATCH_SIZE];
+		int[] lons = new int[BATCH_SIZE];
+		int from = points.size();
+		int count = 0;
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			double lat = c.getDouble(1);
+			double lon = c.getDouble(2);
+			points.add(lon, lat);
+			lastId = c.getLong(0);
+			lats[count] = (int) Math.round(lat * 1e6);
+			lons[count] = (int) Math.round(lon * 1e6);
+			count++;
+			if (count == BATCH_SIZE) {
+				deliver(from, lats, lons, count, lastId);
+				lats = new int[BATCH_SIZE];
+				lons = new int[BATCH_SIZE];
+				from += count;
+				count = 0;
+			}
+		}
+		c.close();
+		if (count > 0) {
+			deliver(from, lats, lons, count, lastId);
+		}
+		Log.v(TAG, "Track #" + trackId + " has " + points.size() + " points loaded");
+	}
+
+	/**
+	 * Posts a batch of points to the main thread. Batches overlapping points
+	 * already delivered to the current listener (e.g. when a new listener
+	 * attaches while loading) are trimmed.
+	 * @param from Index of the first point of the batch
+	 */
+	private void deliver(final int from, final int[] lats, final int[] lons, final int count, final long batchLastId) {
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				int skip = delivered - from;
+				if (listener == null || skip < 0 || skip >= count) {
+					return;
+				}
+				if (skip > 0) {
+					listener.onPointsLoaded(Arrays.copyOfRange(lats, skip, count), Arrays.copyOfRange(lons, skip, count),
+							count - skip, batchLastId);
+				} else {
+					listener.onPointsLoaded(lats, lons, count, batchLastId);
+				}
+				delivered = from + count;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,211 @@
+package net.osmtracker.db;
+
+import java.io.ByteArrayOutputStream;
+
+import android.database.Cursor;
+
+/**
+ * Track points of a sealed chunk (see {@link TrackSealer}), with their
+ * stored fixed-point values (see {@link TrackPointCodec}).
+ *<P>
+ * Points are encoded in a blob, each value as the zigzag varint of its
+ * difference with the previous point's, so that most values take 1 or 2 bytes.
+ * Each point starts with a byte of flags telling which optional values it has.
+ */
+class TrackPointChunk {
+
+	/**
+	 * Optional values of a point
+	 */
+	static final int SPEED = 0;
+	static final int ELEVATION = 1;
+	static final int ACCURACY = 2;
+	static final int COMPASS = 3;
+	static final int COMPASS_ACCURACY = 4;
+	private static final int NB_OPTIONAL = 5;
+
+	/**
+	 * Stored columns of the track points read by {@link #add(Cursor)}, in that
+	 * order. See {@link TrackPointCodec#storedColumns(String[])}.
+	 */
+	static final String[] COLUMNS = {
+		TrackContentProvider.Schema.COL_ID,
+		TrackContentProvider.Schema.COL_TIMESTAMP,
+		TrackContentProvider.Schema.COL_LATITUDE,
+		TrackContentProvider.Schema.COL_LONGITUDE,
+		TrackContentProvider.Schema.COL_SPEED,
+		TrackContentProvider.Schema.COL_ELEVATION,
+		TrackContentProvider.Schema.COL_ACCURACY,
+		TrackContentProvider.Schema.COL_COMPASS,
+		TrackContentProvider.Schema.COL_COMPASS_ACCURACY};
+
+	int size = 0;
+	final long[] ids;
+	final long[] timestamps;
+	final int[] latitudes;
+	final int[] longitudes;
+
+	/**
+	 * Optional values, by point then by value index. Only
+	 * meaningful if the matching bit of {@link #flags} is set.
+	 */
+	final int[] optional;
+	final byte[] flags;
+
+	/**
+	 * Bounds of the points, in stored units
+	 */
+	int minLatitude = Integer.MAX_VALUE, minLongitude = Integer.MAX_VALUE;
+	int maxLatitude = Integer.MIN_VALUE, maxLongitude = Integer.MIN_VALUE;
+
+	TrackPointChunk(int capacity) {
+		ids = new long[capacity];
+		timestamps = new long[capacity];
+		latitudes = new int[capacity];
+		longitudes = new int[capacity];
+		optional = new int[capacity * NB_OPTIONAL];
+		flags = new byte[capacity];
+	}
+
+	/**
+	 * Adds the current row of a cursor on the trackpoint table
+	 * @param c Cursor with the {@link #COLUMNS}
+	 */
+	void add(Cursor c) {
+		int flag = 0;
+		for (int i = 0; i < NB_OPTIONAL; i++) {
+			if (!c.isNull(4 + i)) {
+				optional[size * NB_OPTIONAL + i] = c.getInt(4 + i);
+				flag |= 1 << i;
+			}
+		}
+		append(c.getLong(0), c.getLong(1), c.getInt(2), c.getInt(3), flag);
+	}
+
+	/**
+	 * Adds a point
+	 * @param values Optional values ({@link #SPEED}...), only read if the point has them
+	 * @param flag Bits of the optional values the point has, 1 &lt;&lt; {@link #SPEED}...
+	 */
+	void add(long id, long timestamp, int latitude, int longitude, int[] values, int flag) {
+		for (int i = 0; i < NB_OPTIONAL; i++) {
+			if ((flag & (1 << i)) != 0) {
+				optional[size * NB_OPTIONAL + i] = values[i];
+			}
+		}
+		append(id, timestamp, latitude, longitude, flag);
+	}
+
+	/**
+	 * Adds a point, its optional values being already set
+	 */
+	private void append(long id, long timestamp, int latitude, int longitude, int flag) {
+		ids[size] = id;
+		timestamps[size] = timestamp;
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		flags[size] = (byte) flag;
+		minLatitude = Math.min(minLatitude, latitude);
+		minLongitude = Math.min(minLongitude, longitude);
+		maxLatitude = Math.max(maxLatitude, latitude);
+		maxLongitude = Math.max(maxLongitude, longitude);
+		size++;
+	}
+
+	/**
+	 * @return Whether a point has an optional value
+	 */
+	boolean has(int point, int value) {
+		return (flags[point] & (1 << value)) != 0;
+	}
+
+	int get(int point, int value) {
+		return optional[point * NB_OPTIONAL + value];
+	}
+
+	/**
+	 * @return The points, encoded
+	 */
+	byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size * 8);
+		long id = 0, timestamp = 0;
+		int latitude = 0, longitude = 0;
+		int[] previous = new int[NB_OPTIONAL];
+		for (int p = 0; p < size; p++) {
+			writeSigned(out, ids[p] - id);
+			writeSigned(out, timestamps[p] - timestamp);
+			writeSigned(out, latitudes[p] - latitude);
+			writeSigned(out, longitudes[p] - longitude);
+			id = ids[p];
+			timestamp = timestamps[p];
+			latitude = latitudes[p];
+			longitude = longitudes[p];
+
+			out.write(flags[p]);
+			for (int i = 0; i < NB_OPTIONAL; i++) {
+				if (has(p, i)) {
+					writeSigned(out, get(p, i) - previous[i]);
+					previous[i] = get(p, i);
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param data Encoded points, see {@link #encode()}
+	 * @param nbPoints Number of encoded points
+	 */
+	static TrackPointChunk decode(byte[] data, int nbPoints) {
+		TrackPointChunk chunk = new TrackPointChunk(nbPoints);
+		int[] pos = {0};
+		long id = 0, timestamp = 0;
+		int latitude = 0, longitude = 0;
+		int[] previous = new int[NB_OPTIONAL];
+		for (int p = 0; p < nbPoints; p++) {
+			id += readSigned(data, pos);
+			timestamp += readSigned(data, pos);
+			latitude += (int) readSigned(data, pos);
+			longitude += (int) readSigned(data, pos);
+
+			int flag = data[pos[0]++];
+			for (int i = 0; i < NB_OPTIONAL; i++) {
+				if ((flag & (1 << i)) != 0) {
+					previous[i] += (int) readSigned(data, pos);
+					chunk.optional[p * NB_OPTIONAL + i] = previous[i];
+				}
+			}
+			chunk.append(id, timestamp, latitude, longitude, flag);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Writes a value as a zigzag varint: small values, positive or negative, take few bytes
+	 */
+	private static void writeSigned(ByteArrayOutputStream out, long value) {
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	/**
+	 * Reads a zigzag varint
+	 * @param pos Position to read at, updated
+	 */
+	private static long readSigned(byte[] data, int[] pos) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[pos[0]++];
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+}
@@ -0,0 +1,457 @@
+package net.osmtracker.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Cursor on the sealed points of a track (see {@link TrackSealer}), with the
+ * columns of {@link Schema#VIEW_TRACKPOINT}. A chunk is read and decoded only
+ * when the cursor moves to it, and only one chunk is kept decoded.
+ *<P>
+ * Only the queries made on track points are supported: plain columns, in
+ * recording order or in reverse, optionally after a point id
+ * ({@link Schema#SELECTION_AFTER_ID}) or in a bounding box ({@link Schema#SELECTION_BBOX}).
+ * Points are sealed in recording order, so ordering by timestamp reads them in that order.
+ * Other queries are run on a temporary copy of all the points of the track, see
+ * {@link #queryUnsealed}.
+ *<P>
+ * The track isn't sealed while the points are read (see {@link TrackSealer#startReading(long)}),
+ * so the chunks and the rows always hold each point once.
+ */
+public class TrackPointChunkCursor extends AbstractCursor {
+
+	/**
+	 * Columns, as in {@link Schema#VIEW_TRACKPOINT}
+	 */
+	private static final String[] COLUMNS = {
+		Schema.COL_ID,
+		Schema.COL_TRACK_ID,
+		Schema.COL_LATITUDE,
+		Schema.COL_LONGITUDE,
+		Schema.COL_SPEED,
+		Schema.COL_ELEVATION,
+		Schema.COL_ACCURACY,
+		Schema.COL_TIMESTAMP,
+		Schema.COL_COMPASS,
+		Schema.COL_COMPASS_ACCURACY};
+
+	/**
+	 * Optional value of each column (see {@link TrackPointChunk#SPEED}...), or -1
+	 */
+	private static final int[] OPTIONAL_VALUES = {-1, -1, -1, -1, TrackPointChunk.SPEED, TrackPointChunk.ELEVATION,
+		TrackPointChunk.ACCURACY, -1, TrackPointChunk.COMPASS, TrackPointChunk.COMPASS_ACCURACY};
+
+	private static final String ORDER_ASC = Schema.COL_ID + " asc";
+	private static final String ORDER_TIMESTAMP_ASC = Schema.COL_TIMESTAMP + " asc";
+	private static final String ORDER_DESC = Schema.COL_ID + " desc";
+
+	/**
+	 * Temporary table of the points of a track, for the queries not supported on chunks
+	 */
+	private static final String TMP_TRACKPOINT = "temp.trackpoint_unsealed";
+
+	private final SQLiteDatabase db;
+	private final long trackId;
+	private final String[] columnNames;
+
+	/**
+	 * Index in {@link #COLUMNS} of each column of the cursor
+	 */
+	private final int[] columns;
+
+	/**
+	 * Chunks read by the cursor, in recording order: id, and points
+	 * read (indices in the chunk, or null for all the points)
+	 */
+	private final long[] chunkIds;
+	private final int[][] selected;
+
+	/**
+	 * Position in recording order of the first point read from each chunk
+	 */
+	private final int[] offsets;
+
+	private final int count;
+	private final boolean descending;
+
+	/**
+	 * Decoded chunk, its index, and the point the cursor is on
+	 */
+	private TrackPointChunk chunk;
+	private int chunkIndex = -1;
+	private int point;
+
+	/**
+	 * @param afterId Only read points with an id greater than this one
+	 * @param bbox Only read points in this box: south, north, west, east. Or null.
+	 * @param limit Max. number of points
+	 */
+	private TrackPointChunkCursor(SQLiteDatabase db, long trackId, String[] columnNames, long afterId,
+			double[] bbox, boolean descending, int limit) {
+		this.db = db;
+		this.trackId = trackId;
+		this.columnNames = columnNames;
+		this.descending = descending;
+		columns = new int[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++) {
+			columns[i] = Arrays.asList(COLUMNS).indexOf(columnNames[i]);
+		}
+
+		List<long[]> chunks = new ArrayList<long[]>();
+		List<int[]> chunkSelections = new ArrayList<int[]>();
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_CHUNK, new String[] {Schema.COL_ID, Schema.COL_FIRST_ID,
+				Schema.COL_NB_POINTS, Schema.COL_MIN_LATITUDE, Schema.COL_MIN_LONGITUDE,
+				Schema.COL_MAX_LATITUDE, Schema.COL_MAX_LONGITUDE},
+				Schema.COL_TRACK_ID + " = ? and " + Schema.COL_LAST_ID + " > ?",
+				new String[] {Long.toString(trackId), Long.toString(afterId)}, null, null, Schema.COL_FIRST_ID + " asc");
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			int nbPoints = c.getInt(2);
+			boolean all = c.getLong(1) > afterId;
+			if (bbox != null) {
+				double minLat = TrackPointCodec.decode(Schema.COL_LATITUDE, c.getLong(3));
+				double minLon = TrackPointCodec.decode(Schema.COL_LONGITUDE, c.getLong(4));
+				double maxLat = TrackPointCodec.decode(Schema.COL_LATITUDE, c.getLong(5));
+				double maxLon = TrackPointCodec.decode(Schema.COL_LONGITUDE, c.getLong(6));
+				if (maxLat < bbox[0] || minLat > bbox[1] || maxLon < bbox[2] || minLon > bbox[3]) {
+					continue;
+				}
+				all &= minLat >= bbox[0] && maxLat <= bbox[1] && minLon >= bbox[2] && maxLon <= bbox[3];
+			}
+
+			int[] points = null;
+			if (!all) {
+				// Partly read: decode the chunk to know which points are read
+				TrackPointChunk decoded = read(c.getLong(0), nbPoints);
+				points = new int[nbPoints];
+				int n = 0;
+				for (int p = 0; p < nbPoints; p++) {
+					if (decoded.ids[p] > afterId && (bbox == null || contains(bbox,
+							TrackPointCodec.decode(Schema.COL_LATITUDE, decoded.latitudes[p]),
+							TrackPointCodec.decode(Schema.COL_LONGITUDE, decoded.longitudes[p])))) {
+						points[n++] = p;
+					}
+				}
+				if (n == 0) {
+					continue;
+				}
+				points = Arrays.copyOf(points, n);
+				nbPoints = n;
+			}
+			chunks.add(new long[] {c.getLong(0), nbPoints});
+			chunkSelections.add(points);
+		}
+		c.close();
+
+		chunkIds = new long[chunks.size()];
+		selected = chunkSelections.toArray(new int[chunks.size()][]);
+		offsets = new int[chunks.size() + 1];
+		for (int i = 0; i < chunkIds.length; i++) {
+			chunkIds[i] = chunks.get(i)[0];
+			offsets[i + 1] = offsets[i] + (int) chunks.get(i)[1];
+		}
+		count = Math.min(offsets[chunkIds.length], limit);
+	}
+
+	/**
+	 * @return A cursor on all the sealed points of a track, in recording order
+	 */
+	static Cursor query(SQLiteDatabase db, long trackId, String[] columnNames) {
+		return new TrackPointChunkCursor(db, trackId, columnNames, 0, null, false, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the sealed points of a track, if any, to the points read from the trackpoint rows.
+	 * Sealed points were recorded before the other ones. The track isn't sealed until the
+	 * returned cursor is closed.
+	 * @param rows Points not sealed, read with the same query, not read yet
+	 */
+	static Cursor withSealedPoints(SQLiteDatabase db, long trackId, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder, String limit, Cursor rows) {
+		// Before the rows are read: the rows cursor runs its query when first read,
+		// and again for each window of a large track
+		TrackSealer.startReading(trackId);
+		try {
+			return new ReadingCursor(merge(db, trackId, projection, selection, selectionArgs, sortOrder, limit, rows),
+					trackId);
+		} catch (RuntimeException e) {
+			TrackSealer.stopReading(trackId);
+			throw e;
+		}
+	}
+
+	private static Cursor merge(SQLiteDatabase db, long trackId, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder, String limit, Cursor rows) {
+		if (!TrackSealer.isSealed(db, trackId)) {
+			return rows;
+		}
+
+		String[] columnNames = (projection == null) ? COLUMNS : projection;
+		boolean descending = ORDER_DESC.equals(sortOrder);
+		long afterId = 0;
+		double[] bbox = null;
+		boolean supported = descending || sortOrder == null || ORDER_ASC.equals(sortOrder)
+				|| ORDER_TIMESTAMP_ASC.equals(sortOrder);
+		for (String column : columnNames) {
+			supported &= Arrays.asList(COLUMNS).contains(column);
+		}
+		if (Schema.SELECTION_AFTER_ID.equals(selection)) {
+			afterId = Long.parseLong(selectionArgs[0]);
+		} else if (Schema.SELECTION_BBOX.equals(selection)) {
+			bbox = new double[4];
+			for (int i = 0; i < 4; i++) {
+				bbox[i] = Double.parseDouble(selectionArgs[i]);
+			}
+		} else if (selection != null) {
+			supported = false;
+		}
+		if (!supported) {
+			rows.close();
+			return queryUnsealed(db, trackId, projection, selection, selectionArgs, sortOrder, limit);
+		}
+
+		Cursor sealed = new TrackPointChunkCursor(db, trackId, columnNames, afterId, bbox, descending,
+				(limit == null) ? Integer.MAX_VALUE : Integer.parseInt(limit));
+		Cursor first = descending ? rows : sealed;
+		Cursor second = descending ? sealed : rows;
+		if (limit != null) {
+			// Only the start or the end of the track
+			Cursor c = (first.getCount() > 0) ? first : second;
+			(c == first ? second : first).close();
+			return c;
+		}
+		return new MergeCursor(new Cursor[] {first, second});
+	}
+
+	/**
+	 * Runs a query on the points of a track, sealed or not, copied into a temporary
+	 * table. Slower than reading the chunks, but any query on the points is possible.
+	 * @return The result of the query, in memory
+	 */
+	private static Cursor queryUnsealed(SQLiteDatabase db, long trackId, String[] projection, String selection,
+			String[] selectionArgs, String sortOrder, String limit) {
+		// Temporary tables belong to a connection, which the transaction holds
+		db.beginTransactionNonExclusive();
+		try {
+			db.execSQL("drop table if exists " + TMP_TRACKPOINT);
+			db.execSQL("create table " + TMP_TRACKPOINT + " as select * from " + Schema.VIEW_TRACKPOINT
+					+ " where " + Schema.COL_TRACK_ID + " = " + trackId);
+
+			StringBuilder sql = new StringBuilder("insert into ").append(TMP_TRACKPOINT).append(" (");
+			for (int i = 0; i < COLUMNS.length; i++) {
+				sql.append((i > 0) ? ", " : "").append(COLUMNS[i]);
+			}
+			sql.append(") values (");
+			for (int i = 0; i < COLUMNS.length; i++) {
+				sql.append((i > 0) ? ", ?" : "?");
+			}
+			SQLiteStatement insert = db.compileStatement(sql.append(")").toString());
+			Cursor sealed = query(db, trackId, COLUMNS);
+			for (sealed.moveToFirst(); !sealed.isAfterLast(); sealed.moveToNext()) {
+				for (int i = 0; i < COLUMNS.length; i++) {
+					switch (sealed.getType(i)) {
+					case FIELD_TYPE_NULL:
+						insert.bindNull(i + 1);
+						break;
+					case FIELD_TYPE_FLOAT:
+						insert.bindDouble(i + 1, sealed.getDouble(i));
+						break;
+					default:
+						insert.bindLong(i + 1, sealed.getLong(i));
+					}
+				}
+				insert.executeInsert();
+			}
+			sealed.close();
+			insert.close();
+
+			Cursor c = db.query(TMP_TRACKPOINT, projection, selection, selectionArgs, null, null, sortOrder, limit);
+			MatrixCursor result = new MatrixCursor(c.getColumnNames(), c.getCount());
+			Object[] row = new Object[c.getColumnCount()];
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				for (int i = 0; i < row.length; i++) {
+					switch (c.getType(i)) {
+					case FIELD_TYPE_NULL:
+						row[i] = null;
+						break;
+					case FIELD_TYPE_INTEGER:
+						row[i] = c.getLong(i);
+						break;
+					case FIELD_TYPE_FLOAT:
+						row[i] = c.getDouble(i);
+						break;
+					case FIELD_TYPE_BLOB:
+						row[i] = c.getBlob(i);
+						break;
+					default:
+						row[i] = c.getString(i);
+					}
+				}
+				result.addRow(row);
+			}
+			c.close();
+
+			db.execSQL("drop table " + TMP_TRACKPOINT);
+			db.setTransactionSuccessful();
+			return result;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Cursor on the points of a track, letting the track be sealed once closed.
+	 */
+	private static class ReadingCursor extends CursorWrapper {
+
+		private final long trackId;
+		private boolean closed = false;
+
+		ReadingCursor(Cursor cursor, long trackId) {
+			super(cursor);
+			this.trackId = trackId;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				TrackSealer.stopReading(trackId);
+			}
+			super.close();
+		}
+
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		int p = descending ? offsets[chunkIds.length] - 1 - newPosition : newPosition;
+		// Chunk containing p: offsets are increasing, no chunk is empty
+		int k = Arrays.binarySearch(offsets, 0, chunkIds.length, p);
+		if (k < 0) {
+			k = -k - 2;
+		}
+		if (k != chunkIndex) {
+			chunk = read(chunkIds[k], -1);
+			chunkIndex = k;
+		}
+		int i = p - offsets[k];
+		point = (selected[k] == null) ? i : selected[k][i];
+		return true;
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		int value = OPTIONAL_VALUES[columns[column]];
+		return value >= 0 && !chunk.has(point, value);
+	}
+
+	@Override
+	public int getType(int column) {
+		if (isNull(column)) {
+			return FIELD_TYPE_NULL;
+		}
+		return isDecoded(column) ? FIELD_TYPE_FLOAT : FIELD_TYPE_INTEGER;
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return TrackPointCodec.decode(COLUMNS[columns[column]], getStored(column));
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return (float) getDouble(column);
+	}
+
+	@Override
+	public long getLong(int column) {
+		return isDecoded(column) ? (long) getDouble(column) : getStored(column);
+	}
+
+	@Override
+	public int getInt(int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public short getShort(int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public String getString(int column) {
+		if (isNull(column)) {
+			return null;
+		}
+		return isDecoded(column) ? Double.toString(getDouble(column)) : Long.toString(getLong(column));
+	}
+
+	/**
+	 * @return Whether the column has decimals once decoded
+	 */
+	private boolean isDecoded(int column) {
+		return TrackPointCodec.isScaled(COLUMNS[columns[column]]);
+	}
+
+	/**
+	 * @return Stored value of a column for the current point, 0 if null
+	 */
+	private long getStored(int column) {
+		int c = columns[column];
+		switch (c) {
+		case 0:
+			return chunk.ids[point];
+		case 1:
+			return trackId;
+		case 2:
+			return chunk.latitudes[point];
+		case 3:
+			return chunk.longitudes[point];
+		case 7:
+			return chunk.timestamps[point];
+		default:
+			return chunk.has(point, OPTIONAL_VALUES[c]) ? chunk.get(point, OPTIONAL_VALUES[c]) : 0;
+		}
+	}
+
+	/**
+	 * Reads and decodes a chunk
+	 * @param nbPoints Number of points of the chunk, or -1 to read it
+	 */
+	private TrackPointChunk read(long chunkId, int nbPoints) {
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_CHUNK, new String[] {Schema.COL_DATA, Schema.COL_NB_POINTS},
+				Schema.COL_ID + " = ?", new String[] {Long.toString(chunkId)}, null, null, null);
+		try {
+			c.moveToFirst();
+			return TrackPointChunk.decode(c.getBlob(0), (nbPoints < 0) ? c.getInt(1) : nbPoints);
+		} finally {
+			c.close();
+		}
+	}
+
+	private static boolean contains(double[] bbox, double lat, double lon) {
+		return lat >= bbox[0] && lat <= bbox[1] && lon >= bbox[2] && lon <= bbox[3];
+	}
+
+}
@@ -0,0 +1,193 @@
+package net.osmtracker.db;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Fixed-point storage of the track points.
+ *<P>
+ * Coordinates are stored as integers in 1e-7 degrees, speed, elevation, accuracy
+ * and compass as integers in small units, so that SQLite stores them in 1 to 4
+ * bytes instead of 8. Points are encoded when inserted by the provider, and
+ * decoded by {@link Schema#VIEW_TRACKPOINT}, which has the columns and units of
+ * the table before v22.
+ *<P>
+ * Compass values are only recorded on some devices and only exported on demand,
+ * so they're stored apart, in {@link Schema#TBL_TRACKPOINT_ATTRIBUTE}. The view
+ * reads them with a subquery, only run if the column is queried.
+ */
+public class TrackPointCodec {
+
+	/**
+	 * Scaled columns, and the number of stored units per unit of the column:
+	 * 1e-7 degree, cm/s, dm, dm, 1/10 degree
+	 */
+	private static final String[] SCALED_COLUMNS = {Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+		Schema.COL_SPEED, Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_COMPASS};
+	private static final double[] SCALES = {1e7, 1e7, 100, 10, 10, 10};
+
+	/**
+	 * Columns stored in {@link Schema#TBL_TRACKPOINT_ATTRIBUTE}, and their attribute keys
+	 */
+	static final String[] ATTRIBUTE_COLUMNS = {Schema.COL_COMPASS, Schema.COL_COMPASS_ACCURACY};
+	private static final int[] ATTRIBUTES = {Schema.VAL_ATTRIBUTE_COMPASS, Schema.VAL_ATTRIBUTE_COMPASS_ACCURACY};
+
+	/**
+	 * @return A copy of the values of a track point, with the scaled columns encoded
+	 */
+	static ContentValues encode(ContentValues values) {
+		ContentValues encoded = new ContentValues(values);
+		for (int i = 0; i < SCALED_COLUMNS.length; i++) {
+			Double value = values.getAsDouble(SCALED_COLUMNS[i]);
+			if (value != null) {
+				encoded.put(SCALED_COLUMNS[i], Math.round(value * SCALES[i]));
+			}
+		}
+		return encoded;
+	}
+
+	/**
+	 * Inserts a track point, with its attributes
+	 * @param values Values of the track point, decoded
+	 * @return Id of the track point, or -1 on error
+	 */
+	static long insert(SQLiteDatabase db, ContentValues values) {
+		ContentValues point = encode(values);
+		ContentValues[] attributes = new ContentValues[ATTRIBUTE_COLUMNS.length];
+		for (int i = 0; i < ATTRIBUTE_COLUMNS.length; i++) {
+			Long value = point.getAsLong(ATTRIBUTE_COLUMNS[i]);
+			point.remove(ATTRIBUTE_COLUMNS[i]);
+			if (value != null) {
+				attributes[i] = new ContentValues();
+				attributes[i].put(Schema.COL_ATTRIBUTE, ATTRIBUTES[i]);
+				attributes[i].put(Schema.COL_VALUE, value);
+			}
+		}
+
+		db.beginTransaction();
+		try {
+			long rowId = db.insert(Schema.TBL_TRACKPOINT, null, point);
+			if (rowId > 0) {
+				for (ContentValues attribute : attributes) {
+					if (attribute != null) {
+						attribute.put(Schema.COL_TRACKPOINT_ID, rowId);
+						db.insert(Schema.TBL_TRACKPOINT_ATTRIBUTE, null, attribute);
+					}
+				}
+			}
+			db.setTransactionSuccessful();
+			return rowId;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * @return SQL expressions encoding columns that contain decoded values, comma separated
+	 */
+	static String encodingColumns(String[] columns) {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			int i = indexOf(column);
+			if (i < 0) {
+				sb.append(column);
+			} else {
+				sb.append("round(").append(column).append(" * ").append(SCALES[i]).append(")");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return SQL expressions decoding the stored columns, under their own name, comma separated
+	 */
+	static String decodingColumns(String[] columns) {
+		StringBuilder sb = new StringBuilder();
+		for (String column : columns) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			int i = indexOf(column);
+			if (i < 0) {
+				sb.append(storedColumn(column));
+			} else {
+				// Casting gives the expression a real affinity, so that
+				// it can be compared to string selection arguments
+				sb.append("cast(").append(storedValue(column)).append(" / ").append(SCALES[i]).append(" as real) as ")
+					.append(column);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return Columns of the trackpoint table, the attribute columns being read from their
+	 * own table, e.g. for a query on the table
+	 */
+	static String[] storedColumns(String[] columns) {
+		String[] stored = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			stored[i] = storedColumn(columns[i]);
+		}
+		return stored;
+	}
+
+	private static String storedColumn(String column) {
+		return (attributeOf(column) < 0) ? column : storedValue(column) + " as " + column;
+	}
+
+	/**
+	 * @return SQL expression of the stored value of a column of the trackpoint table
+	 */
+	private static String storedValue(String column) {
+		int attribute = attributeOf(column);
+		if (attribute < 0) {
+			return column;
+		}
+		return "(select " + Schema.COL_VALUE + " from " + Schema.TBL_TRACKPOINT_ATTRIBUTE
+				+ " where " + Schema.COL_TRACKPOINT_ID + " = " + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID
+				+ " and " + Schema.COL_ATTRIBUTE + " = " + attribute + ")";
+	}
+
+	/**
+	 * @return Attribute key of a column, or -1 if stored in the trackpoint table
+	 */
+	static int attributeOf(String column) {
+		for (int i = 0; i < ATTRIBUTE_COLUMNS.length; i++) {
+			if (ATTRIBUTE_COLUMNS[i].equals(column)) {
+				return ATTRIBUTES[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return A stored value of a column, decoded
+	 */
+	static double decode(String column, long value) {
+		int i = indexOf(column);
+		return (i < 0) ? value : value / SCALES[i];
+	}
+
+	/**
+	 * @return Whether the values of a column are stored in fixed point
+	 */
+	static boolean isScaled(String column) {
+		return indexOf(column) >= 0;
+	}
+
+	private static int indexOf(String column) {
+		for (int i = 0; i < SCALED_COLUMNS.length; i++) {
+			if (SCALED_COLUMNS[i].equals(column)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,154 @@
+package net.osmtracker.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.util.FileSystemUtils;
+import net.osmtracker.util.TrackThumbnailCache;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * Deletes tracks in two steps, so that deleting is immediate and can be undone.
+ *<P>
+ * Deleting a track only flags it with a deletion batch number
+ * ({@link Schema#COL_DELETED}), which hides it from all queries. Later, e.g. once
+ * the user can't undo anymore, the flagged tracks are purged in the background:
+ * their rows are deleted by chunks, each in its own transaction so that track
+ * recording isn't blocked, then their files are deleted.
+ */
+public class TrackPurger {
+
+	private static final String TAG = TrackPurger.class.getSimpleName();
+
+	/**
+	 * Number of rows deleted per transaction
+	 */
+	private static final int CHUNK_SIZE = 500;
+
+	/**
+	 * Purges all the flagged tracks, see {@link #purgeAsync(Context, long)}
+	 */
+	public static final long ALL_BATCHES = Long.MAX_VALUE;
+
+	/**
+	 * Last deletion batch number
+	 */
+	private static long lastBatch = 0;
+
+	/**
+	 * @return A new deletion batch number, greater than the previous ones
+	 */
+	public static synchronized long newBatch() {
+		lastBatch = Math.max(lastBatch + 1, System.currentTimeMillis());
+		return lastBatch;
+	}
+
+	/**
+	 * Flags a track as deleted
+	 * @param batch Deletion batch, see {@link #newBatch()}
+	 */
+	public static void delete(Context context, long trackId, long batch) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_DELETED, batch);
+		context.getContentResolver().update(
+				ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId), values, null, null);
+	}
+
+	/**
+	 * Flags all the tracks as deleted
+	 * @param batch Deletion batch, see {@link #newBatch()}
+	 */
+	public static void deleteAll(Context context, long batch) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_DELETED, batch);
+		context.getContentResolver().update(TrackContentProvider.CONTENT_URI_TRACK, values,
+				Schema.COL_DELETED + " = 0", null);
+	}
+
+	/**
+	 * Restores the tracks of a deletion batch, if not purged yet
+	 */
+	public static void undelete(Context context, long batch) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_DELETED, 0);
+		context.getContentResolver().update(TrackContentProvider.CONTENT_URI_TRACK, values,
+				Schema.COL_DELETED + " = ?", new String[] {Long.toString(batch)});
+	}
+
+	/**
+	 * Purges flagged tracks in the background, then deletes their files.
+	 * @param maxBatch Last deletion batch to purge, or {@link #ALL_BATCHES}
+	 */
+	public static void purgeAsync(final Context context, final long maxBatch) {
+		final Context appContext = context.getApplicationContext();
+		new Thread(TAG) {
+			@Override
+			public void run() {
+				Bundle result = appContext.getContentResolver().call(TrackContentProvider.CONTENT_URI_TRACK,
+						TrackContentProvider.METHOD_PURGE_TRACKS, Long.toString(maxBatch), null);
+				for (long trackId : result.getLongArray(TrackContentProvider.EXTRA_TRACK_IDS)) {
+					// Delete any data stored for the track
+					File trackStorageDirectory = DataHelper.getTrackDirectory(trackId);
+					if (trackStorageDirectory.exists()) {
+						FileSystemUtils.delete(trackStorageDirectory, true);
+					}
+					TrackThumbnailCache.deleteThumbnails(appContext, trackId);
+				}
+			}
+		}.start();
+	}
+
+	/**
+	 * Deletes the rows of the flagged tracks. Runs in the provider.
+	 * Purges are synchronized, not to purge a track twice.
+	 * @param maxBatch Last deletion batch to purge
+	 * @return Ids of the purged tracks
+	 */
+	static synchronized long[] purge(SQLiteDatabase db, long maxBatch) {
+		List<Long> ids = new ArrayList<Long>();
+		Cursor c = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_ID},
+				Schema.COL_DELETED + " != 0 and " + Schema.COL_DELETED + " <= ?",
+				new String[] {Long.toString(maxBatch)}, null, null, null);
+		for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+			ids.add(c.getLong(0));
+		}
+		c.close();
+
+		long[] out = new long[ids.size()];
+		for (int i = 0; i < out.length; i++) {
+			long trackId = ids.get(i);
+			String[] args = new String[] {Long.toString(trackId)};
+			HeatmapBuilder.removeTrack(db, trackId);
+			// Points would be deleted by cascade, but in a single long transaction
+			deleteInChunks(db, Schema.TBL_WAYPOINT, args);
+			deleteInChunks(db, Schema.TBL_TRACKPOINT, args);
+			db.delete(Schema.TBL_TRACK, Schema.COL_ID + " = ?", args);
+			out[i] = trackId;
+		}
+		Log.v(TAG, "Purged " + out.length + " tracks");
+		return out;
+	}
+
+	/**
+	 * Deletes the rows of a track, {@link #CHUNK_SIZE} rows per transaction
+	 * @param trackIdArgs Track id, as selection arguments
+	 */
+	private static void deleteInChunks(SQLiteDatabase db, String table, String[] trackIdArgs) {
+		String chunk = Schema.COL_ID + " in (select " + Schema.COL_ID + " from " + table
+				+ " where " + Schema.COL_TRACK_ID + " = ? limit " + CHUNK_SIZE + ")";
+		int deleted;
+		do {
+			deleted = db.delete(table, chunk, trackIdArgs);
+		} while (deleted > 0);
+	}
+
+}
@@ -0,0 +1,195 @@
+package net.osmtracker.db;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Packs the points of finished tracks into chunks of {@link #CHUNK_POINTS}
+ * points ({@link Schema#TBL_TRACKPOINT_CHUNK}), which take several times less
+ * space than one row per point, and are read a chunk at a time.
+ *<P>
+ * Only points already added to the density grid are sealed (see
+ * {@link HeatmapBuilder}), so that the grid never reads chunks to update.
+ * Sealed points are read through {@link TrackPointChunkCursor}. Tracks are
+ * not sealed while their points are read, see {@link #startReading(long)}.
+ */
+public class TrackSealer {
+
+	private static final String TAG = TrackSealer.class.getSimpleName();
+
+	/**
+	 * Max. number of points per chunk
+	 */
+	static final int CHUNK_POINTS = 1000;
+
+	/**
+	 * Number of cursors reading the points of each track. Guarded by
+	 * itself, which is also held while sealing a chunk.
+	 */
+	private static final Map<Long, Integer> readers = new HashMap<Long, Integer>();
+
+	/**
+	 * Runs the background sealing requests one after the other
+	 */
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/**
+	 * Updates the density grid and seals the finished tracks in the background,
+	 * e.g. when the track list is opened.
+	 */
+	public static void sealAsync(ContentResolver contentResolver) {
+		sealAsync(contentResolver, -1);
+	}
+
+	/**
+	 * Updates the density grid and seals the finished tracks in the background,
+	 * then stores the overview of a track (see {@link TrackOverviewBuilder}),
+	 * e.g. when the track is stopped.
+	 * @param overviewTrackId Id of the track to store the overview of, or -1
+	 */
+	public static void sealAsync(final ContentResolver contentResolver, final long overviewTrackId) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				contentResolver.call(TrackContentProvider.CONTENT_URI_TRACK,
+						TrackContentProvider.METHOD_SEAL_TRACKS, null, null);
+				if (overviewTrackId != -1) {
+					TrackOverviewBuilder.update(contentResolver, overviewTrackId);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Prevents a track from being sealed until {@link #stopReading(long)}, so that
+	 * a cursor reading its rows by windows doesn't miss points sealed meanwhile.
+	 * Waits for the chunk being sealed, if any.
+	 */
+	static void startReading(long trackId) {
+		synchronized (readers) {
+			Integer count = readers.get(trackId);
+			readers.put(trackId, (count == null) ? 1 : count + 1);
+		}
+	}
+
+	static void stopReading(long trackId) {
+		synchronized (readers) {
+			Integer count = readers.get(trackId);
+			if (count == null || count <= 1) {
+				readers.remove(trackId);
+			} else {
+				readers.put(trackId, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether some points of a track are sealed
+	 */
+	static boolean isSealed(SQLiteDatabase db, long trackId) {
+		return DatabaseUtils.queryNumEntries(db, Schema.TBL_TRACKPOINT_CHUNK,
+				Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)}) > 0;
+	}
+
+	/**
+	 * Seals the points of the inactive tracks. Each chunk is sealed in its own
+	 * transaction, so a track can be partly sealed. Tracks being read are left
+	 * for the next time. Sealing is synchronized, not to seal points twice.
+	 * Runs in the provider.
+	 * @return Number of points sealed
+	 */
+	static synchronized int seal(SQLiteDatabase db) {
+		int total = 0;
+		Cursor tracks = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_ID, Schema.COL_HEATMAP_LAST_ID},
+				Schema.COL_ACTIVE + " = ? and " + Schema.COL_DELETED + " = 0 and exists (select 1 from "
+						+ Schema.TBL_TRACKPOINT + " where " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID + " = "
+						+ Schema.TBL_TRACK + "." + Schema.COL_ID + " and " + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID
+						+ " <= " + Schema.TBL_TRACK + "." + Schema.COL_HEATMAP_LAST_ID + ")",
+				new String[] {Integer.toString(Schema.VAL_TRACK_INACTIVE)}, null, null, null);
+		try {
+			for (tracks.moveToFirst(); !tracks.isAfterLast(); tracks.moveToNext()) {
+				long trackId = tracks.getLong(0);
+				long lastId = tracks.getLong(1);
+				int sealed;
+				do {
+					synchronized (readers) {
+						if (readers.containsKey(trackId)) {
+							Log.v(TAG, "Track " + trackId + " is being read, not sealed");
+							break;
+						}
+						sealed = sealChunk(db, trackId, lastId);
+					}
+					total += Math.max(0, sealed);
+				} while (sealed == CHUNK_POINTS);
+			}
+		} finally {
+			tracks.close();
+		}
+		Log.v(TAG, "Sealed " + total + " points");
+		return total;
+	}
+
+	/**
+	 * Seals the next points of a track: reads them, inserts their chunk and
+	 * deletes them, in one transaction
+	 * @param lastId Id of the last point that can be sealed
+	 * @return Number of points sealed, or -1 if the chunk was rolled back
+	 */
+	private static int sealChunk(SQLiteDatabase db, long trackId, long lastId) {
+		db.beginTransaction();
+		try {
+			Cursor c = db.query(Schema.TBL_TRACKPOINT, TrackPointCodec.storedColumns(TrackPointChunk.COLUMNS),
+					Schema.COL_TRACK_ID + " = ? and " + Schema.COL_ID + " <= ?",
+					new String[] {Long.toString(trackId), Long.toString(lastId)},
+					null, null, Schema.COL_ID + " asc", Integer.toString(CHUNK_POINTS));
+			TrackPointChunk chunk = new TrackPointChunk(c.getCount());
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				chunk.add(c);
+			}
+			c.close();
+			if (chunk.size == 0) {
+				return 0;
+			}
+
+			int last = chunk.size - 1;
+			ContentValues values = new ContentValues();
+			values.put(Schema.COL_TRACK_ID, trackId);
+			values.put(Schema.COL_FIRST_ID, chunk.ids[0]);
+			values.put(Schema.COL_LAST_ID, chunk.ids[last]);
+			values.put(Schema.COL_NB_POINTS, chunk.size);
+			values.put(Schema.COL_FIRST_TIMESTAMP, chunk.timestamps[0]);
+			values.put(Schema.COL_LAST_TIMESTAMP, chunk.timestamps[last]);
+			values.put(Schema.COL_MIN_LATITUDE, chunk.minLatitude);
+			values.put(Schema.COL_MIN_LONGITUDE, chunk.minLongitude);
+			values.put(Schema.COL_MAX_LATITUDE, chunk.maxLatitude);
+			values.put(Schema.COL_MAX_LONGITUDE, chunk.maxLongitude);
+			values.put(Schema.COL_DATA, chunk.encode());
+			db.insert(Schema.TBL_TRACKPOINT_CHUNK, null, values);
+
+			int deleted = db.delete(Schema.TBL_TRACKPOINT, Schema.COL_TRACK_ID + " = ? and "
+					+ Schema.COL_ID + " between ? and ?",
+					new String[] {Long.toString(trackId), Long.toString(chunk.ids[0]), Long.toString(chunk.ids[last])});
+			if (deleted != chunk.size) {
+				Log.w(TAG, "Track " + trackId + ": " + deleted + " points deleted instead of " + chunk.size
+						+ ", chunk rolled back");
+				return -1;
+			}
+			db.setTransactionSuccessful();
+			return chunk.size;
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+}
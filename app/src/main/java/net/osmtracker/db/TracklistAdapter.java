@@ -1,98 +1,168 @@
 package net.osmtracker.db;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.osmtracker.R;
-import net.osmtracker.db.model.Track;
+import net.osmtracker.db.model.TrackRow;
 import net.osmtracker.activity.TrackManager;
+import net.osmtracker.util.TrackThumbnailCache;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
  * Adapter for track list in {@link TrackManager Track Manager}.
  * For each row's contents, see <tt>tracklist_item.xml</tt>.
+ *<P>
+ * Rows are {@link TrackRow}s loaded by a {@link TrackListLoader}: binding a
+ * row doesn't query anything. When new rows are set, the list is only
+ * refreshed if a row changed.
  * 
  * @author Nicolas Guillaumin
  *
  */
-public class TracklistAdapter extends CursorAdapter {
+public class TracklistAdapter extends BaseAdapter {
 
-	public TracklistAdapter(Context context, Cursor c) {
-		super(context, c);
+	/**
+	 * Views of a row, looked up once
+	 */
+	private static class ViewHolder {
+		TextView vId;
+		TextView vNameOrStartDate;
+		TextView vWps;
+		TextView vTps;
+		ImageView vStatus;
+		ImageView vUploadStatus;
+		ImageView vThumbnail;
+	}
+
+	private final Context context;
+
+	private final TrackThumbnailCache thumbnails;
+
+	private List<TrackRow> rows = new ArrayList<TrackRow>();
+
+	public TracklistAdapter(Context context, TrackThumbnailCache thumbnails) {
+		this.context = context;
+		this.thumbnails = thumbnails;
+	}
+
+	/**
+	 * Replaces the rows, refreshing the list if any row changed
+	 * @param newRows New rows, not modified afterwards
+	 * @return true if the list was refreshed
+	 */
+	public boolean setRows(List<TrackRow> newRows) {
+		boolean changed = newRows.size() != rows.size();
+		for (int i = 0; !changed && i < newRows.size(); i++) {
+			changed = !newRows.get(i).sameAs(rows.get(i));
+		}
+		if (changed) {
+			rows = newRows;
+			notifyDataSetChanged();
+		}
+		return changed;
+	}
+
+	/**
+	 * @return Position of a track, or -1 if it's not loaded
+	 */
+	public int getPosition(long trackId) {
+		for (int i = 0; i < rows.size(); i++) {
+			if (rows.get(i).id == trackId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public TrackRow getItem(int position) {
+		return rows.get(position);
 	}
 
 	@Override
-	public void bindView(View view, Context context, Cursor cursor) {
-		bind(cursor, view, context);	
+	public long getItemId(int position) {
+		return rows.get(position).id;
 	}
 
 	@Override
-	public View newView(Context context, Cursor cursor, ViewGroup vg) {
-		View view = LayoutInflater.from(vg.getContext()).inflate(R.layout.tracklist_item,
-				vg, false);
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View view = convertView;
+		if (view == null) {
+			view = LayoutInflater.from(context).inflate(R.layout.tracklist_item, parent, false);
+			ViewHolder holder = new ViewHolder();
+			holder.vId = (TextView) view.findViewById(R.id.trackmgr_item_id);
+			holder.vNameOrStartDate = (TextView) view.findViewById(R.id.trackmgr_item_nameordate);
+			holder.vWps = (TextView) view.findViewById(R.id.trackmgr_item_wps);
+			holder.vTps = (TextView) view.findViewById(R.id.trackmgr_item_tps);
+			holder.vStatus = (ImageView) view.findViewById(R.id.trackmgr_item_statusicon);
+			holder.vUploadStatus = (ImageView) view.findViewById(R.id.trackmgr_item_upload_statusicon);
+			holder.vThumbnail = (ImageView) view.findViewById(R.id.trackmgr_item_thumbnail);
+			view.setTag(holder);
+		}
+		bind(rows.get(position), (ViewHolder) view.getTag());
 		return view;
 	}
-	
+
 	/**
 	 * Do the binding between data and item view.
 	 * 
-	 * @param cursor
-	 *				Cursor to pull data
+	 * @param row
+	 *				Track to display
 	 * @param v
-	 *				RelativeView representing one item
-	 * @param context
-	 *				Context, to get resources
-	 * @return The relative view with data bound.
+	 *				Views of the item
 	 */
-	private View bind(Cursor cursor, View v, Context context) {
-		TextView vId = (TextView) v.findViewById(R.id.trackmgr_item_id);
-		TextView vNameOrStartDate = (TextView) v.findViewById(R.id.trackmgr_item_nameordate);
-		TextView vWps = (TextView) v.findViewById(R.id.trackmgr_item_wps);
-		TextView vTps = (TextView) v.findViewById(R.id.trackmgr_item_tps);
-		ImageView vStatus = (ImageView) v.findViewById(R.id.trackmgr_item_statusicon);
-		ImageView vUploadStatus = (ImageView) v.findViewById(R.id.trackmgr_item_upload_statusicon);
-
+	private void bind(TrackRow row, ViewHolder v) {
 		// Is track active ?
-		int active = cursor.getInt(cursor.getColumnIndex(TrackContentProvider.Schema.COL_ACTIVE));
-		if (TrackContentProvider.Schema.VAL_TRACK_ACTIVE == active) {
+		if (row.active) {
 			// Yellow clock icon for Active
-			vStatus.setImageResource(android.R.drawable.presence_away);
-			vStatus.setVisibility(View.VISIBLE);
-		} else if (cursor.isNull(cursor.getColumnIndex(TrackContentProvider.Schema.COL_EXPORT_DATE))) {
+			v.vStatus.setImageResource(android.R.drawable.presence_away);
+			v.vStatus.setVisibility(View.VISIBLE);
+		} else if (!row.exported) {
 			// Hide green circle icon: Track not yet exported
-			vStatus.setVisibility(View.GONE);
+			v.vStatus.setVisibility(View.GONE);
 		} else {
 			// Show green circle icon (don't assume already visible with this drawable; may be a re-query)
-			vStatus.setImageResource(android.R.drawable.presence_online);
-			vStatus.setVisibility(View.VISIBLE);
+			v.vStatus.setImageResource(android.R.drawable.presence_online);
+			v.vStatus.setVisibility(View.VISIBLE);
 		}
 		
 		// Upload status
-		if (cursor.isNull(cursor.getColumnIndex(TrackContentProvider.Schema.COL_OSM_UPLOAD_DATE))) {
-			vUploadStatus.setVisibility(View.GONE);
+		if (!row.uploaded) {
+			v.vUploadStatus.setVisibility(View.GONE);
 		}		
 		else{
-			vUploadStatus.setImageResource(android.R.drawable.stat_sys_upload_done);
-			vUploadStatus.setVisibility(View.VISIBLE);
+			v.vUploadStatus.setImageResource(android.R.drawable.stat_sys_upload_done);
+			v.vUploadStatus.setVisibility(View.VISIBLE);
 		}
 
 		// Bind id
-		long trackId = cursor.getLong(cursor.getColumnIndex(TrackContentProvider.Schema.COL_ID));
-		String strTrackId = Long.toString(trackId);
-		vId.setText("#" + strTrackId);
+		v.vId.setText("#" + Long.toString(row.id));
 
-		// Bind WP count, TP count, name
-		Track t = Track.build(trackId, cursor, context.getContentResolver(), false);
-		vTps.setText(Integer.toString(t.getTpCount()));
-		vWps.setText(Integer.toString(t.getWpCount()));
-		vNameOrStartDate.setText(t.getName());
+		// Thumbnail, from the track overview
+		thumbnails.load(v.vThumbnail, row.id, row.overview, row.active);
 
-		return v;
+		// Bind WP count, TP count, name
+		v.vTps.setText(Integer.toString(row.tpCount));
+		v.vWps.setText(Integer.toString(row.wpCount));
+		v.vNameOrStartDate.setText(row.displayName);
 	}
 
 }
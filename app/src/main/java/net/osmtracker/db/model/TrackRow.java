@@ -0,0 +1,84 @@
+package net.osmtracker.db.model;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+import net.osmtracker.db.TrackContentProvider.Schema;
+
+import android.database.Cursor;
+
+/**
+ * A track as displayed in the track list: only the columns shown,
+ * read once when loaded rather than on each bind.
+ * Unlike {@link Track}, tags and visibility are not parsed.
+ */
+public class TrackRow {
+
+	/**
+	 * Column indices of a track list cursor, resolved once per cursor
+	 */
+	public static class Columns {
+		final int id, name, startDate, active, exportDate, uploadDate, overview, tpCount, wpCount;
+
+		public Columns(Cursor c) {
+			id = c.getColumnIndex(Schema.COL_ID);
+			name = c.getColumnIndex(Schema.COL_NAME);
+			startDate = c.getColumnIndex(Schema.COL_START_DATE);
+			active = c.getColumnIndex(Schema.COL_ACTIVE);
+			exportDate = c.getColumnIndex(Schema.COL_EXPORT_DATE);
+			uploadDate = c.getColumnIndex(Schema.COL_OSM_UPLOAD_DATE);
+			overview = c.getColumnIndex(Schema.COL_OVERVIEW);
+			tpCount = c.getColumnIndex(Schema.COL_TRACKPOINT_COUNT);
+			wpCount = c.getColumnIndex(Schema.COL_WAYPOINT_COUNT);
+		}
+	}
+
+	public final long id;
+	public final long startDate;
+
+	/**
+	 * Name, or start date if the track has no name
+	 */
+	public final String displayName;
+
+	public final boolean active;
+	public final boolean exported;
+	public final boolean uploaded;
+
+	/**
+	 * Overview of the track, or null if not computed yet
+	 */
+	public final String overview;
+
+	public final int tpCount;
+	public final int wpCount;
+
+	/**
+	 * Reads the current row of a cursor
+	 * @param dateFormat Format of the start date, for tracks without name
+	 */
+	public TrackRow(Cursor c, Columns columns, DateFormat dateFormat) {
+		id = c.getLong(columns.id);
+		startDate = c.getLong(columns.startDate);
+		String name = c.getString(columns.name);
+		displayName = (name != null && name.length() > 0) ? name : dateFormat.format(new Date(startDate));
+		active = c.getInt(columns.active) == Schema.VAL_TRACK_ACTIVE;
+		exported = !c.isNull(columns.exportDate);
+		uploaded = !c.isNull(columns.uploadDate);
+		overview = c.getString(columns.overview);
+		tpCount = c.getInt(columns.tpCount);
+		wpCount = c.getInt(columns.wpCount);
+	}
+
+	/**
+	 * @return true if the row would be displayed the same way
+	 */
+	public boolean sameAs(TrackRow other) {
+		return id == other.id && startDate == other.startDate && active == other.active
+				&& exported == other.exported && uploaded == other.uploaded
+				&& tpCount == other.tpCount && wpCount == other.wpCount
+				&& displayName.equals(other.displayName)
+				&& (overview == null ? other.overview == null : overview.equals(other.overview));
+	}
+
+}
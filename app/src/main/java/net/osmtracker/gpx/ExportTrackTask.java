@@ -231,7 +231,7 @@ public abstract class ExportTrackTask  extends AsyncTask<Void, Long, Boolean> {
 				File trackFile = new File(trackGPXExportDirectory, filenameBase);
 
 
-				Cursor cTrackPoints = cr.query(TrackContentProvider.trackPointsUri(trackId), null,
+				Cursor cTrackPoints = cr.query(TrackContentProvider.trackPointsUri(trackId), getTrackPointsProjection(),
 						null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
 				Cursor cWayPoints = cr.query(TrackContentProvider.waypointsUri(trackId), null, null,
 						null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
@@ -269,6 +269,29 @@ public abstract class ExportTrackTask  extends AsyncTask<Void, Long, Boolean> {
 
 	}
 
+	/**
+	 * @return Columns of the track points to export. Compass values are stored
+	 * apart from the points, so they're only read if exported.
+	 */
+	private String[] getTrackPointsProjection() {
+		String compassOutput = PreferenceManager.getDefaultSharedPreferences(context).getString(
+				OSMTracker.Preferences.KEY_OUTPUT_COMPASS,
+				OSMTracker.Preferences.VAL_OUTPUT_COMPASS);
+
+		ArrayList<String> columns = new ArrayList<String>();
+		columns.add(TrackContentProvider.Schema.COL_LATITUDE);
+		columns.add(TrackContentProvider.Schema.COL_LONGITUDE);
+		columns.add(TrackContentProvider.Schema.COL_ELEVATION);
+		columns.add(TrackContentProvider.Schema.COL_TIMESTAMP);
+		columns.add(TrackContentProvider.Schema.COL_ACCURACY);
+		columns.add(TrackContentProvider.Schema.COL_SPEED);
+		if (!OSMTracker.Preferences.VAL_OUTPUT_COMPASS_NONE.equals(compassOutput)) {
+			columns.add(TrackContentProvider.Schema.COL_COMPASS);
+			columns.add(TrackContentProvider.Schema.COL_COMPASS_ACCURACY);
+		}
+		return columns.toArray(new String[columns.size()]);
+	}
+
 	/**
 	 * Writes the GPX file
 	 * @param cTrackPoints Cursor to track points.
@@ -5,23 +5,14 @@ import java.text.DecimalFormat;
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.activity.TrackLogger;
+import net.osmtracker.service.gps.GPSLogger;
+import net.osmtracker.service.gps.GPSLoggerListener;
 
-import android.Manifest;
-import android.app.Activity;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.location.GpsSatellite;
 import android.location.GpsStatus;
-import android.location.GpsStatus.Listener;
 import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
 import android.location.LocationProvider;
-import android.os.Bundle;
 import android.preference.PreferenceManager;
-import android.support.annotation.NonNull;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -32,16 +23,15 @@ import android.widget.TextView;
 /**
  * Layout for the GPS Status image and misc
  * action buttons.
+ * Receives GPS updates from the bound {@link GPSLogger} service.
  * 
  * @author Nicolas Guillaumin
  * 
  */
-public class GpsStatusRecord extends LinearLayout implements Listener, LocationListener {
+public class GpsStatusRecord extends LinearLayout implements GPSLoggerListener {
 	
 	private final static String TAG = GpsStatusRecord.class.getSimpleName();
 
-    final private int REQUEST_CODE_GPS_PERMISSIONS = 1;
-
 	/**
 	 * Formatter for accuracy display.
 	 */
@@ -58,11 +48,6 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 	 */
 	private TrackLogger activity;
 	
-	/**
-	 * Reference to LocationManager
-	 */
-	private LocationManager lmgr;
-	
 	/**
 	 * the timestamp of the last GPS fix we used
 	 */
@@ -104,7 +89,6 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 		
 		if (context instanceof TrackLogger) {
 			activity = (TrackLogger) context;
-			lmgr = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
 		}
 		
 		// Initialize waiting message (0 satellites so far)
@@ -115,25 +99,8 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 
 	}
 	
-	public void requestLocationUpdates(boolean request) {
-		if (request) {
-
-            if (ContextCompat.checkSelfPermission(activity, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-                lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
-                lmgr.addGpsStatusListener(this);
-            }
-			else {
-                    ActivityCompat.requestPermissions((Activity) activity, new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
-                            REQUEST_CODE_GPS_PERMISSIONS);
-                }
-		} else {
-			lmgr.removeUpdates(this);
-			lmgr.removeGpsStatusListener(this);
-		}
-	}
-
 	@Override
-	public void onGpsStatusChanged(int event) {
+	public void onGpsStatusChanged(int event, int satCount, int fixCount) {
 		// Update GPS Status image according to event
 		ImageView imgSatIndicator = (ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator);
 
@@ -154,20 +121,9 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 			if((event != GpsStatus.GPS_EVENT_SATELLITE_STATUS) || (lastGPSTimestampStatus + gpsLoggingInterval) < System.currentTimeMillis()){
 				lastGPSTimestampStatus = System.currentTimeMillis(); // save the time of this fix
 
-				if (ContextCompat.checkSelfPermission(activity, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-					break;
-				}
-				GpsStatus status = lmgr.getGpsStatus(null);
-
-				satCount = 0;
-				fixCount = 0;
-				// Count active satellites
-				for (GpsSatellite sat:status.getSatellites()) {
-					satCount++;
-					if (sat.usedInFix()) {
-						fixCount++;
-					}
-				}
+				// Satellites are counted once by the GPSLogger service
+				this.satCount = satCount;
+				this.fixCount = fixCount;
 
 				// Count how many bars should we draw
 				int nbBars = 0;
@@ -221,8 +177,8 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 	}
 
 	@Override
-	public void onProviderDisabled(String provider) {
-		Log.d(TAG, "Location provider " + provider + " disabled");
+	public void onProviderDisabled() {
+		Log.d(TAG, "Location provider disabled");
 		gpsActive = false;
 		((ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator)).setImageResource(R.drawable.sat_indicator_off);
 		((TextView) findViewById(R.id.gpsstatus_record_tvAccuracy)).setText("");
@@ -230,15 +186,15 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 	}
 
 	@Override
-	public void onProviderEnabled(String provider) {
-		Log.d(TAG, "Location provider " + provider + " enabled");
+	public void onProviderEnabled() {
+		Log.d(TAG, "Location provider enabled");
 		((ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator)).setImageResource(R.drawable.sat_indicator_unknown);
 	}
 
 	@Override
-	public void onStatusChanged(String provider, int status, Bundle extras) {
+	public void onProviderStatusChanged(int status) {
 		// Update provider status image according to status
-		Log.d(TAG, "Location provider " + provider + " status changed to: " + status);
+		Log.d(TAG, "Location provider status changed to: " + status);
 		ImageView imgSatIndicator = (ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator);
 		TextView tvAccuracy = (TextView) findViewById(R.id.gpsstatus_record_tvAccuracy);
 		
@@ -273,17 +229,4 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 		}
 	}
 
-	public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-		switch (requestCode) {
-			case REQUEST_CODE_GPS_PERMISSIONS:
-				if (grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-					requestLocationUpdates(true);
-					// do something
-					return;
-				} else {
-					requestLocationUpdates(false);
-				}
-		}
-	}
-
 }
@@ -1,19 +1,18 @@
 package net.osmtracker.listener;
 
-import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
+import net.osmtracker.service.gps.WayPointCommand;
+import net.osmtracker.service.gps.WayPointCommandQueue;
 
-import android.content.Intent;
+import android.content.Context;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.Toast;
 
-import net.osmtracker.db.TrackContentProvider;
-
 /**
  * Listener for standard waypoint tag button.
- * Sends an Intent to track waypoint. Waypoint name is the
+ * Sends a command to track waypoint. Waypoint name is the
  * label of the button.
  * 
  * @author Nicolas Guillaumin
@@ -32,14 +31,19 @@ public class TagButtonOnClickListener implements OnClickListener {
 		Button button = (Button) view;
 		String label = button.getText().toString().replaceAll("\n", " ");
 
-		// Send an intent to inform service to track the waypoint.
-		Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-		intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, currentTrackId);
-		intent.putExtra(OSMTracker.INTENT_KEY_NAME, label);
-		view.getContext().sendBroadcast(intent);
-		
-		// Inform user that the waypoint was tracked
-		Toast.makeText(view.getContext(), view.getContext().getResources().getString(R.string.tracklogger_tracked) + " " + label, Toast.LENGTH_SHORT).show();
+		// Inform service to track the waypoint, and inform user once it's tracked
+		final Context context = view.getContext();
+		WayPointCommand.track(currentTrackId, null, label, null).send(context, new WayPointCommandQueue.Callback() {
+			@Override
+			public void onComplete(WayPointCommand command, boolean success) {
+				if (success) {
+					Toast.makeText(context, context.getResources().getString(R.string.tracklogger_tracked) + " " + command.name, Toast.LENGTH_SHORT).show();
+				} else {
+					// No fix yet, queue full or storage error
+					Toast.makeText(context, context.getResources().getString(R.string.tracklogger_not_tracked) + " " + command.name, Toast.LENGTH_LONG).show();
+				}
+			}
+		});
 
 	}
 
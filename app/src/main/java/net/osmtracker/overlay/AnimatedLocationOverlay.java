@@ -0,0 +1,217 @@
+package net.osmtracker.overlay;
+
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Displays the current position, moving smoothly between fixes.
+ *<P>
+ * When a new fix arrives, the marker moves from its displayed position
+ * to the fix over the time elapsed since the previous fix. It then keeps
+ * moving at the speed and bearing between the last two fixes (dead
+ * reckoning) for up to the same time, until the next fix arrives.
+ *<P>
+ * The marker is drawn on its own view, stacked over the map with the same
+ * bounds, so that an animation frame only redraws the marker and not the
+ * map with all its overlays. Frames where the marker doesn't move by a
+ * pixel aren't drawn. The view follows the map when it's scrolled or zoomed.
+ */
+public class AnimatedLocationOverlay extends View implements MapListener {
+
+	/**
+	 * Bounds of the interpolation duration, in ms
+	 */
+	private static final long MIN_DURATION = 100;
+	private static final long MAX_DURATION = 2000;
+
+	/**
+	 * Marker radius and border width, in dp
+	 */
+	private static final float RADIUS_DP = 7;
+	private static final float BORDER_DP = 2;
+
+	private final MapView mapView;
+
+	private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint borderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final float radius;
+
+	/**
+	 * Last fix, and the time it was received
+	 */
+	private GeoPoint location;
+	private long lastFixTime;
+
+	/**
+	 * Position the current animation starts from, and
+	 * velocity between the last two fixes, in degrees per ms
+	 */
+	private double fromLat, fromLon;
+	private double speedLat, speedLon;
+	private long startTime;
+	private long duration;
+	private boolean animating = false;
+
+	/**
+	 * Displayed position
+	 */
+	private final GeoPoint displayed = new GeoPoint(0d, 0d);
+
+	/**
+	 * Position of the marker when last drawn, in view coordinates
+	 */
+	private final Point drawnPoint = new Point(Integer.MIN_VALUE, Integer.MIN_VALUE);
+	private final Point point = new Point();
+
+	private final Runnable frame = new Runnable() {
+		@Override
+		public void run() {
+			if (animating) {
+				updateDisplayed(SystemClock.uptimeMillis());
+				invalidateMarker();
+				if (animating) {
+					postOnAnimation(this);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param mapView Map the marker is displayed over. The view must be added
+	 * over it, with the same bounds.
+	 */
+	public AnimatedLocationOverlay(Context context, MapView mapView) {
+		super(context);
+		this.mapView = mapView;
+
+		float density = context.getResources().getDisplayMetrics().density;
+		radius = RADIUS_DP * density;
+		fillPaint.setColor(Color.RED);
+		borderPaint.setColor(Color.WHITE);
+		borderPaint.setStyle(Paint.Style.STROKE);
+		borderPaint.setStrokeWidth(BORDER_DP * density);
+
+		mapView.addMapListener(this);
+	}
+
+	/**
+	 * Moves the marker to a position, without animation.
+	 */
+	public void setLocation(GeoPoint p) {
+		animating = false;
+		location = p;
+		lastFixTime = SystemClock.uptimeMillis();
+		speedLat = speedLon = 0;
+		displayed.setCoords(p.getLatitude(), p.getLongitude());
+		invalidate();
+	}
+
+	/**
+	 * Animates the marker to a new fix.
+	 */
+	public void animateTo(GeoPoint p) {
+		long now = SystemClock.uptimeMillis();
+		long interval = now - lastFixTime;
+		if (location == null || interval <= 0) {
+			setLocation(p);
+			return;
+		}
+
+		speedLat = (p.getLatitude() - location.getLatitude()) / interval;
+		speedLon = (p.getLongitude() - location.getLongitude()) / interval;
+		fromLat = displayed.getLatitude();
+		fromLon = displayed.getLongitude();
+		duration = Math.max(MIN_DURATION, Math.min(MAX_DURATION, interval));
+		startTime = now;
+		location = p;
+		lastFixTime = now;
+
+		if (!animating) {
+			animating = true;
+			postOnAnimation(frame);
+		}
+	}
+
+	/**
+	 * @return Last fix, or null
+	 */
+	public GeoPoint getLocation() {
+		return location;
+	}
+
+	/**
+	 * Stops the animation and following the map.
+	 */
+	public void detach() {
+		animating = false;
+		removeCallbacks(frame);
+		mapView.removeMapListener(this);
+	}
+
+	/**
+	 * Computes the displayed position at a given time,
+	 * and stops the animation when it's over.
+	 */
+	private void updateDisplayed(long now) {
+		long t = now - startTime;
+		if (t < duration) {
+			// Interpolate towards the last fix
+			double f = (double) t / duration;
+			displayed.setCoords(fromLat + (location.getLatitude() - fromLat) * f,
+					fromLon + (location.getLongitude() - fromLon) * f);
+		} else {
+			// Dead reckoning past the last fix
+			long dt = Math.min(t - duration, duration);
+			displayed.setCoords(location.getLatitude() + speedLat * dt,
+					location.getLongitude() + speedLon * dt);
+			if (t >= 2 * duration) {
+				animating = false;
+			}
+		}
+	}
+
+	/**
+	 * Redraws the marker if it moved by at least a pixel
+	 */
+	private void invalidateMarker() {
+		mapView.getProjection().toPixels(displayed, point);
+		if (!point.equals(drawnPoint.x, drawnPoint.y)) {
+			invalidate();
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		if (location == null) {
+			return;
+		}
+
+		mapView.getProjection().toPixels(displayed, drawnPoint);
+		canvas.drawCircle(drawnPoint.x, drawnPoint.y, radius, fillPaint);
+		canvas.drawCircle(drawnPoint.x, drawnPoint.y, radius, borderPaint);
+	}
+
+	@Override
+	public boolean onScroll(ScrollEvent event) {
+		invalidate();
+		return false;
+	}
+
+	@Override
+	public boolean onZoom(ZoomEvent event) {
+		invalidate();
+		return false;
+	}
+
+}
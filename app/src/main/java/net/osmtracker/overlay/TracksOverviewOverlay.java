@@ -0,0 +1,461 @@
+package net.osmtracker.overlay;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.osmtracker.db.HeatmapBuilder;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.util.MemoryBudgetManager;
+import net.osmtracker.util.MercatorProjection;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+/**
+ * Displays all the tracks: as a heatmap at low zoom levels, and as lines
+ * from {@link #LINES_MIN_ZOOM}.
+ *<P>
+ * Heatmap tiles are rendered from the density grid maintained by
+ * {@link HeatmapBuilder}, without reading any trackpoint. Lines are only
+ * loaded for the tracks whose bounding box is visible, keeping one point
+ * per {@link #LINE_TOLERANCE} pixels.
+ *<P>
+ * Queries and rendering run on a background thread. Rendered tiles are kept in
+ * a cache sized and trimmed by the {@link MemoryBudgetManager}.
+ */
+public class TracksOverviewOverlay extends Overlay implements MemoryBudgetManager.Cache {
+
+	private static final String TAG = TracksOverviewOverlay.class.getSimpleName();
+
+	/**
+	 * Zoom level from which tracks are drawn as lines instead of the heatmap
+	 */
+	public static final int LINES_MIN_ZOOM = 14;
+
+	/**
+	 * Cells wanted per tile side, as a zoom offset (2^6 = 64 cells of 4 pixels)
+	 */
+	private static final int CELL_ZOOM_OFFSET = 6;
+
+	private static final int TILE_PIXELS = 256;
+
+	/**
+	 * Min. distance between two points of a line, in pixels
+	 */
+	private static final int LINE_TOLERANCE = 2;
+
+	/**
+	 * Max. number of line points loaded at once
+	 */
+	private static final int MAX_LINE_POINTS = 50000;
+
+	/**
+	 * Cached instead of tiles without any point
+	 */
+	private static final Bitmap EMPTY_TILE = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+
+	/**
+	 * Lines of the visible tracks, as runs of points. A run
+	 * ends where a track leaves the loaded area.
+	 */
+	private static class Lines {
+		BoundingBox box;
+		int zoom;
+		double[] latitudes;
+		double[] longitudes;
+		int[] runStarts;
+		int nbRuns;
+		int nbPoints;
+	}
+
+	private final MapView mapView;
+	private final ContentResolver contentResolver;
+	private final ContentObserver heatmapObserver;
+	private final MemoryBudgetManager memoryBudget;
+
+	/**
+	 * Rendered heatmap tiles, by tile key
+	 */
+	private final LruCache<Long, Bitmap> tiles;
+
+	/**
+	 * Tiles requested and not rendered yet. Only accessed from the main thread.
+	 */
+	private final Set<Long> requestedTiles = new HashSet<Long>();
+
+	/**
+	 * Lines being displayed, and whether new ones are being loaded.
+	 * Only accessed from the main thread.
+	 */
+	private Lines lines;
+	private boolean linesRequested = false;
+
+	/**
+	 * Highest number of points in a cell, for each of {@link HeatmapBuilder#CELL_ZOOMS},
+	 * or -1 if unknown. Only accessed from the render thread.
+	 */
+	private final int[] maxCounts = new int[HeatmapBuilder.CELL_ZOOMS.length];
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	/**
+	 * Reused while drawing
+	 */
+	private final GeoPoint geoPoint = new GeoPoint(0d, 0d);
+	private final Point point = new Point();
+	private final Rect rect = new Rect();
+	private float[] segments = new float[1024];
+
+	public TracksOverviewOverlay(Context context, MapView mapView) {
+		super();
+		this.mapView = mapView;
+		this.contentResolver = context.getContentResolver();
+
+		Arrays.fill(maxCounts, -1);
+		linePaint.setColor(Color.argb(192, 0, 0, 255));
+		linePaint.setStrokeWidth(2 * context.getResources().getDisplayMetrics().density);
+
+		memoryBudget = MemoryBudgetManager.getInstance(context);
+		tiles = new LruCache<Long, Bitmap>(memoryBudget.getOverlayTileCacheBudget(TILE_PIXELS)) {
+			@Override
+			protected int sizeOf(Long key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+		};
+		memoryBudget.register("Tracks overview", MemoryBudgetManager.PRIORITY_TILES, this);
+
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+
+		// Grid updated (e.g. a track was stopped), render again
+		heatmapObserver = new ContentObserver(mainHandler) {
+			@Override
+			public void onChange(boolean selfChange) {
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						Arrays.fill(maxCounts, -1);
+					}
+				});
+				tiles.evictAll();
+				lines = null;
+				TracksOverviewOverlay.this.mapView.invalidate();
+			}
+		};
+		contentResolver.registerContentObserver(TrackContentProvider.CONTENT_URI_HEATMAP, false, heatmapObserver);
+	}
+
+	@Override
+	public void draw(Canvas canvas, MapView osmv, boolean shadow) {
+		if (shadow) {
+			return;
+		}
+
+		Projection projection = osmv.getProjection();
+		BoundingBox box = projection.getBoundingBox();
+		int zoom = (int) osmv.getZoomLevelDouble();
+		if (zoom >= LINES_MIN_ZOOM) {
+			drawLines(canvas, projection, box, zoom);
+			return;
+		}
+
+		int x0 = HeatmapBuilder.tileX(box.getLonWest(), zoom);
+		int x1 = HeatmapBuilder.tileX(box.getLonEast(), zoom);
+		int y0 = HeatmapBuilder.tileY(box.getLatNorth(), zoom);
+		int y1 = HeatmapBuilder.tileY(box.getLatSouth(), zoom);
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				long key = tileKey(zoom, x, y);
+				Bitmap tile = tiles.get(key);
+				if (tile == null) {
+					requestTile(key, zoom, x, y);
+				} else if (tile != EMPTY_TILE) {
+					geoPoint.setCoords(tileLatitude(y, zoom), tileLongitude(x, zoom));
+					projection.toPixels(geoPoint, point);
+					rect.left = point.x;
+					rect.top = point.y;
+					geoPoint.setCoords(tileLatitude(y + 1, zoom), tileLongitude(x + 1, zoom));
+					projection.toPixels(geoPoint, point);
+					rect.right = point.x;
+					rect.bottom = point.y;
+					canvas.drawBitmap(tile, null, rect, tilePaint);
+				}
+			}
+		}
+	}
+
+	@Override
+	public long getSize() {
+		return tiles.size();
+	}
+
+	@Override
+	public void trim() {
+		tiles.evictAll();
+		lines = null;
+	}
+
+	@Override
+	public void onDetach(MapView osmv) {
+		contentResolver.unregisterContentObserver(heatmapObserver);
+		memoryBudget.unregister(this);
+		thread.quit();
+		tiles.evictAll();
+		super.onDetach(osmv);
+	}
+
+	/**
+	 * Renders a heatmap tile in the background, if not already requested
+	 */
+	private void requestTile(final long key, final int zoom, final int x, final int y) {
+		if (!requestedTiles.add(key)) {
+			return;
+		}
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				final Bitmap tile = renderTile(zoom, x, y);
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						requestedTiles.remove(key);
+						tiles.put(key, tile);
+						if (tile != EMPTY_TILE) {
+							mapView.invalidate();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Renders a heatmap tile from the grid cells it contains.
+	 * Runs on the render thread.
+	 * @return Rendered tile, or {@link #EMPTY_TILE}
+	 */
+	private Bitmap renderTile(int zoom, int x, int y) {
+		// Cell level giving the wanted cell size, or the closest one
+		int levelIndex = 0;
+		for (int i = 0; i < HeatmapBuilder.CELL_ZOOMS.length; i++) {
+			if (HeatmapBuilder.CELL_ZOOMS[i] <= zoom + CELL_ZOOM_OFFSET) {
+				levelIndex = i;
+			}
+		}
+		int level = HeatmapBuilder.CELL_ZOOMS[levelIndex];
+		int shift = level - zoom;
+
+		Cursor c = contentResolver.query(TrackContentProvider.CONTENT_URI_HEATMAP,
+				new String[] {Schema.COL_CELL_X, Schema.COL_CELL_Y, Schema.COL_NB_POINTS},
+				Schema.COL_ZOOM + " = ? and " + Schema.COL_CELL_X + " between ? and ? and "
+						+ Schema.COL_CELL_Y + " between ? and ?",
+				new String[] {Integer.toString(level),
+						Long.toString((long) x << shift), Long.toString((((long) x + 1) << shift) - 1),
+						Long.toString((long) y << shift), Long.toString((((long) y + 1) << shift) - 1)},
+				null);
+		try {
+			if (c.getCount() == 0) {
+				return EMPTY_TILE;
+			}
+
+			if (maxCounts[levelIndex] < 0) {
+				Cursor m = contentResolver.query(TrackContentProvider.CONTENT_URI_HEATMAP,
+						new String[] {"max(" + Schema.COL_NB_POINTS + ")"},
+						Schema.COL_ZOOM + " = ?", new String[] {Integer.toString(level)}, null);
+				maxCounts[levelIndex] = m.moveToFirst() ? Math.max(1, m.getInt(0)) : 1;
+				m.close();
+			}
+			double logMax = Math.log(1 + maxCounts[levelIndex]);
+
+			Bitmap tile = Bitmap.createBitmap(TILE_PIXELS, TILE_PIXELS, Bitmap.Config.ARGB_8888);
+			Canvas canvas = new Canvas(tile);
+			Paint paint = new Paint();
+			float cellPixels = (float) TILE_PIXELS / (1 << shift);
+			float[] hsv = new float[] {0, 1, 1};
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				float left = (c.getLong(0) - ((long) x << shift)) * cellPixels;
+				float top = (c.getLong(1) - ((long) y << shift)) * cellPixels;
+				// From blue for a few points to red for the densest cells
+				float density = (float) Math.min(1, Math.log(1 + c.getInt(2)) / logMax);
+				hsv[0] = 240 * (1 - density);
+				paint.setColor(Color.HSVToColor(96 + (int) (128 * density), hsv));
+				canvas.drawRect(left, top, left + cellPixels, top + cellPixels, paint);
+			}
+			return tile;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Draws the lines of the visible tracks, loading them if needed
+	 */
+	private void drawLines(Canvas canvas, Projection projection, BoundingBox box, int zoom) {
+		Lines l = lines;
+		if (l == null || l.zoom != zoom || !contains(l.box, box)) {
+			requestLines(box, zoom);
+		}
+		if (l == null || l.zoom != zoom) {
+			return;
+		}
+
+		for (int r = 0; r < l.nbRuns; r++) {
+			int from = l.runStarts[r];
+			int to = (r + 1 < l.nbRuns) ? l.runStarts[r + 1] : l.nbPoints;
+			if (to - from < 2) {
+				continue;
+			}
+			if (segments.length < (to - from) * 4) {
+				segments = new float[(to - from) * 4];
+			}
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				geoPoint.setCoords(l.latitudes[i], l.longitudes[i]);
+				projection.toPixels(geoPoint, point);
+				if (i > from) {
+					segments[n++] = point.x;
+					segments[n++] = point.y;
+				}
+				if (i < to - 1) {
+					segments[n++] = point.x;
+					segments[n++] = point.y;
+				}
+			}
+			canvas.drawLines(segments, 0, n, linePaint);
+		}
+	}
+
+	/**
+	 * Loads the lines around the visible area in the background
+	 */
+	private void requestLines(BoundingBox visible, final int zoom) {
+		if (linesRequested) {
+			return;
+		}
+		linesRequested = true;
+		final BoundingBox box = visible.increaseByScale(2f);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				final Lines l = loadLines(box, zoom);
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						linesRequested = false;
+						lines = l;
+						mapView.invalidate();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reads the points of the tracks crossing an area, keeping one point
+	 * per {@link #LINE_TOLERANCE} pixels. Runs on the render thread.
+	 */
+	private Lines loadLines(BoundingBox box, int zoom) {
+		Lines l = new Lines();
+		l.box = box;
+		l.zoom = zoom;
+		l.latitudes = new double[1024];
+		l.longitudes = new double[1024];
+		l.runStarts = new int[64];
+
+		String north = Double.toString(box.getLatNorth()), south = Double.toString(box.getLatSouth());
+		String east = Double.toString(box.getLonEast()), west = Double.toString(box.getLonWest());
+		Cursor tracks = contentResolver.query(TrackContentProvider.CONTENT_URI_HEATMAP_TRACKS,
+				new String[] {Schema.COL_ID},
+				Schema.COL_MIN_LATITUDE + " <= ? and " + Schema.COL_MAX_LATITUDE + " >= ? and "
+						+ Schema.COL_MIN_LONGITUDE + " <= ? and " + Schema.COL_MAX_LONGITUDE + " >= ?",
+				new String[] {north, south, east, west}, null);
+
+		double pixelsPerWorld = (double) TILE_PIXELS * (1 << zoom);
+		for (tracks.moveToFirst(); !tracks.isAfterLast() && l.nbPoints < MAX_LINE_POINTS; tracks.moveToNext()) {
+			Cursor c = contentResolver.query(TrackContentProvider.trackPointsUri(tracks.getLong(0)),
+					new String[] {Schema.COL_ID, Schema.COL_LATITUDE, Schema.COL_LONGITUDE},
+					Schema.SELECTION_BBOX,
+					new String[] {south, north, west, east}, Schema.COL_ID + " asc");
+			long previousId = -2;
+			double lastX = 0, lastY = 0;
+			for (c.moveToFirst(); !c.isAfterLast() && l.nbPoints < MAX_LINE_POINTS; c.moveToNext()) {
+				long id = c.getLong(0);
+				double lat = c.getDouble(1);
+				double lon = c.getDouble(2);
+				double x = (lon + 180) / 360 * pixelsPerWorld;
+				double y = (180 - MercatorProjection.latitudeToMercatorY(lat)) / 360 * pixelsPerWorld;
+				boolean newRun = id != previousId + 1;
+				previousId = id;
+				if (!newRun && c.getPosition() < c.getCount() - 1
+						&& Math.abs(x - lastX) < LINE_TOLERANCE && Math.abs(y - lastY) < LINE_TOLERANCE) {
+					// Too close to the previous point
+					continue;
+				}
+				if (newRun) {
+					if (l.nbRuns == l.runStarts.length) {
+						l.runStarts = Arrays.copyOf(l.runStarts, l.nbRuns * 2);
+					}
+					l.runStarts[l.nbRuns++] = l.nbPoints;
+				}
+				if (l.nbPoints == l.latitudes.length) {
+					l.latitudes = Arrays.copyOf(l.latitudes, l.nbPoints * 2);
+					l.longitudes = Arrays.copyOf(l.longitudes, l.nbPoints * 2);
+				}
+				l.latitudes[l.nbPoints] = lat;
+				l.longitudes[l.nbPoints] = lon;
+				l.nbPoints++;
+				lastX = x;
+				lastY = y;
+			}
+			c.close();
+		}
+		tracks.close();
+		return l;
+	}
+
+	private static boolean contains(BoundingBox outer, BoundingBox inner) {
+		return outer.getLatNorth() >= inner.getLatNorth() && outer.getLatSouth() <= inner.getLatSouth()
+				&& outer.getLonEast() >= inner.getLonEast() && outer.getLonWest() <= inner.getLonWest();
+	}
+
+	private static long tileKey(int zoom, int x, int y) {
+		return ((long) zoom << 48) | ((long) x << 24) | y;
+	}
+
+	private static double tileLongitude(int x, int zoom) {
+		return (double) x / (1 << zoom) * 360 - 180;
+	}
+
+	private static double tileLatitude(int y, int zoom) {
+		double n = Math.PI * (1 - 2.0 * y / (1 << zoom));
+		return Math.toDegrees(Math.atan(Math.sinh(n)));
+	}
+
+}
@@ -1,46 +1,167 @@
 package net.osmtracker.overlay;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import net.osmtracker.R;
+import net.osmtracker.db.ChangeNotificationDispatcher;
 import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.util.MemoryBudgetManager;
+import net.osmtracker.util.MercatorProjection;
 
-import org.osmdroid.api.IMapView;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
-import org.osmdroid.views.overlay.ItemizedOverlay;
-import org.osmdroid.views.overlay.OverlayItem;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
 
-import android.content.Context;
 import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+/**
+ * Displays the waypoints of a track.
+ *<P>
+ * Waypoints close to each other on screen are grouped in a single marker,
+ * showing the number of waypoints. Groups are computed on a grid, once per
+ * zoom level, and only the groups in the visible area are drawn.
+ *<P>
+ * Waypoints are kept up to date by observing the track waypoints: inserted
+ * waypoints are read and added to the existing groups, other changes reload
+ * all waypoints. Waypoints are read on a background thread, and added to the
+ * groups on the main thread.
+ *<P>
+ * When trimmed, groups are dropped and built again when drawn.
+ */
+public class WayPointsOverlay extends Overlay implements MemoryBudgetManager.Cache {
+
+	private static final String TAG = WayPointsOverlay.class.getSimpleName();
+
+	/**
+	 * Size of the grouping grid cells, in dp
+	 */
+	private static final int CELL_SIZE_DP = 48;
+
+	/**
+	 * Text size of the waypoints count, in dp
+	 */
+	private static final int COUNT_TEXT_SIZE_DP = 12;
+
+	/**
+	 * Waypoints groups of a zoom level
+	 */
+	private static class Grid {
+		/** Group index, by cell */
+		final LongSparseArray<Integer> cells = new LongSparseArray<Integer>();
+		/** Sum of the coordinates and number of waypoints of each group */
+		double[] sumLat = new double[16];
+		double[] sumLon = new double[16];
+		int[] count = new int[16];
+		int size = 0;
+	}
 
-public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
+	/**
+	 * Waypoints coordinates, in degrees, and their position on the
+	 * map as a fraction of the world size (0 to 1). Only accessed from the main thread.
+	 */
+	private double[] latitudes = new double[64];
+	private double[] longitudes = new double[64];
+	private double[] worldX = new double[64];
+	private double[] worldY = new double[64];
+	private int nbWayPoints = 0;
 
 	/**
-	 * List of waypoints to display on the map.
+	 * Id of the last waypoint read, or -1 if none. Only accessed from the loader thread.
 	 */
-	private List<OverlayItem> wayPointItems = new ArrayList<OverlayItem>();
-	
-	private long trackId;
-	
-	private ContentResolver pContentResolver;
-	
+	private long lastWayPointId = -1;
+
+	/**
+	 * Groups, by zoom level. Built when a zoom level is first drawn.
+	 */
+	private final SparseArray<Grid> grids = new SparseArray<Grid>();
+
+	private final long trackId;
+
+	private final ContentResolver pContentResolver;
+
+	private final ContentObserver wayPointsObserver;
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Map the overlay was last drawn on, redrawn when waypoints are loaded
+	 */
+	private MapView mapView;
+
+	private final Drawable marker;
+	private final float cellSize;
+	private final Paint countBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint countTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	/**
+	 * Reused while drawing
+	 */
+	private final GeoPoint geoPoint = new GeoPoint(0d, 0d);
+	private final Point point = new Point();
+
 	public WayPointsOverlay(
 			final Drawable pDefaultMarker,
 			final Context pContext,
 			final long trackId
 			)
 	{
-		super(pDefaultMarker);
-		
+		super();
+
 		this.trackId = trackId;
 		this.pContentResolver = pContext.getContentResolver();
+		this.marker = pDefaultMarker;
+
+		float density = pContext.getResources().getDisplayMetrics().density;
+		cellSize = CELL_SIZE_DP * density;
+		countBackgroundPaint.setColor(Color.BLUE);
+		countTextPaint.setColor(Color.WHITE);
+		countTextPaint.setTextSize(COUNT_TEXT_SIZE_DP * density);
+		countTextPaint.setTextAlign(Paint.Align.CENTER);
+
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+
+		// Notified on the loader thread
+		wayPointsObserver = new ContentObserver(handler) {
+			@Override
+			public void onChange(boolean selfChange) {
+				loadWayPoints(true);
+			}
+
+			@Override
+			public void onChange(boolean selfChange, Uri uri) {
+				// Insertion: read only the new waypoints
+				loadWayPoints(ChangeNotificationDispatcher.getFirstId(uri) < 0);
+			}
+		};
+		pContentResolver.registerContentObserver(TrackContentProvider.waypointsUri(trackId), true, wayPointsObserver);
+		// Waypoints deleted by uuid are notified apart from their track
+		pContentResolver.registerContentObserver(TrackContentProvider.CONTENT_URI_WAYPOINT_UUID, true, wayPointsObserver);
+
 		refresh();
 	}
-	
+
 	public WayPointsOverlay(
 			final Context pContext,
 			final long trackId
@@ -49,42 +170,198 @@ public class WayPointsOverlay extends ItemizedOverlay<OverlayItem> {
 		this(pContext.getResources().getDrawable(R.drawable.star), pContext, trackId);
 	}
 
+	/**
+	 * Reloads all the waypoints, in the background.
+	 */
+	public void refresh() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				loadWayPoints(true);
+			}
+		});
+	}
+
 	@Override
-	public boolean onSnapToItem(final int pX, final int pY, final Point pSnapPoint, final IMapView pMapView) {
-		// TODO Implement this!
-		return false;
+	public long getSize() {
+		// Waypoints arrays, and for each group: sums, count, and cell index
+		long size = latitudes.length * 32L;
+		for (int i = 0; i < grids.size(); i++) {
+			size += grids.valueAt(i).count.length * 48L;
+		}
+		return size;
 	}
-	
+
 	@Override
-	protected OverlayItem createItem(final int index) {
-		return wayPointItems.get(index);
+	public void trim() {
+		grids.clear();
 	}
-	
+
 	@Override
-	public int size() {
-		return wayPointItems.size();
+	public void onDetach(MapView mapView) {
+		pContentResolver.unregisterContentObserver(wayPointsObserver);
+		thread.quit();
+		this.mapView = null;
+		super.onDetach(mapView);
 	}
-	
-	public void refresh() {
-		wayPointItems.clear();
-		
+
+	/**
+	 * Reads the waypoints added since the last read, or all of them, and posts
+	 * them to the main thread. Runs on the loader thread.
+	 * @param reload Whether to read all the waypoints, replacing the ones read before
+	 */
+	private void loadWayPoints(final boolean reload) {
+		if (reload) {
+			lastWayPointId = -1;
+		}
 		Cursor c = this.pContentResolver.query(
 				TrackContentProvider.waypointsUri(trackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
- 
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			OverlayItem i = new OverlayItem(
-					c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_NAME)),
-					c.getString(c.getColumnIndex(TrackContentProvider.Schema.COL_NAME)),
-					new GeoPoint(
-							c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE)),
-							c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE)))
-					);
-			wayPointItems.add(i);
+				new String[] {TrackContentProvider.Schema.COL_ID, TrackContentProvider.Schema.COL_LATITUDE,
+						TrackContentProvider.Schema.COL_LONGITUDE},
+				TrackContentProvider.Schema.COL_ID + " > ?", new String[] {Long.toString(lastWayPointId)},
+				TrackContentProvider.Schema.COL_ID + " asc");
+
+		final int count = c.getCount();
+		final double[] lats = new double[count];
+		final double[] lons = new double[count];
+		for (int i = 0; c.moveToNext(); i++) {
+			lastWayPointId = c.getLong(0);
+			lats[i] = c.getDouble(1);
+			lons[i] = c.getDouble(2);
 		}
 		c.close();
-		populate();
+
+		if (count == 0 && !reload) {
+			return;
+		}
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				addWayPoints(reload, lats, lons, count);
+			}
+		});
+	}
+
+	/**
+	 * Adds loaded waypoints to the groups already built, and redraws the map.
+	 * @param reload Whether the waypoints replace the current ones
+	 */
+	private void addWayPoints(boolean reload, double[] lats, double[] lons, int count) {
+		if (reload) {
+			nbWayPoints = 0;
+			grids.clear();
+		}
+		int first = nbWayPoints;
+		for (int i = 0; i < count; i++) {
+			addWayPoint(lats[i], lons[i]);
+		}
+		for (int i = 0; i < grids.size(); i++) {
+			addToGrid(grids.keyAt(i), grids.valueAt(i), first, nbWayPoints);
+		}
+		if (mapView != null) {
+			mapView.invalidate();
+		}
+	}
+
+	private void addWayPoint(double lat, double lon) {
+		if (nbWayPoints == latitudes.length) {
+			int capacity = nbWayPoints * 2;
+			latitudes = Arrays.copyOf(latitudes, capacity);
+			longitudes = Arrays.copyOf(longitudes, capacity);
+			worldX = Arrays.copyOf(worldX, capacity);
+			worldY = Arrays.copyOf(worldY, capacity);
+		}
+		latitudes[nbWayPoints] = lat;
+		longitudes[nbWayPoints] = lon;
+		worldX[nbWayPoints] = (lon + 180) / 360;
+		worldY[nbWayPoints] = (180 - MercatorProjection.latitudeToMercatorY(lat)) / 360;
+		nbWayPoints++;
+	}
+
+	/**
+	 * @return Groups for a zoom level, built if needed
+	 */
+	private Grid getGrid(int zoom) {
+		Grid grid = grids.get(zoom);
+		if (grid == null) {
+			grid = new Grid();
+			addToGrid(zoom, grid, 0, nbWayPoints);
+			grids.put(zoom, grid);
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds waypoints to the groups of a zoom level
+	 * @param from Index of the first waypoint to add
+	 * @param to Index after the last waypoint to add
+	 */
+	private void addToGrid(int zoom, Grid grid, int from, int to) {
+		double cellsPerWorld = TileSystem.getTileSize() * Math.pow(2, zoom) / cellSize;
+		for (int i = from; i < to; i++) {
+			long cellX = (long) (worldX[i] * cellsPerWorld);
+			long cellY = (long) (worldY[i] * cellsPerWorld);
+			long key = (cellX << 32) | (cellY & 0xffffffffL);
+			Integer index = grid.cells.get(key);
+			if (index == null) {
+				if (grid.size == grid.count.length) {
+					int capacity = grid.size * 2;
+					grid.sumLat = Arrays.copyOf(grid.sumLat, capacity);
+					grid.sumLon = Arrays.copyOf(grid.sumLon, capacity);
+					grid.count = Arrays.copyOf(grid.count, capacity);
+				}
+				index = grid.size++;
+				grid.cells.put(key, index);
+			}
+			grid.sumLat[index] += latitudes[i];
+			grid.sumLon[index] += longitudes[i];
+			grid.count[index]++;
+		}
 	}
 
+	@Override
+	public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+		this.mapView = mapView;
+		if (shadow || nbWayPoints == 0) {
+			return;
+		}
+
+		Projection projection = mapView.getProjection();
+		Grid grid = getGrid((int) mapView.getZoomLevelDouble());
+
+		// Visible area, with a margin for the markers
+		// of groups just outside of the screen
+		BoundingBox box = projection.getBoundingBox();
+		double marginLat = box.getLatitudeSpan() / 10;
+		double marginLon = box.getLongitudeSpan() / 10;
+		double north = box.getLatNorth() + marginLat, south = box.getLatSouth() - marginLat;
+		double east = box.getLonEast() + marginLon, west = box.getLonWest() - marginLon;
+
+		int halfWidth = marker.getIntrinsicWidth() / 2;
+		int height = marker.getIntrinsicHeight();
+		float radius = countTextPaint.getTextSize();
+
+		for (int i = 0; i < grid.size; i++) {
+			int count = grid.count[i];
+			double lat = grid.sumLat[i] / count;
+			double lon = grid.sumLon[i] / count;
+			if (lat > north || lat < south || lon > east || lon < west) {
+				continue;
+			}
+
+			geoPoint.setCoords(lat, lon);
+			projection.toPixels(geoPoint, point);
+			marker.setBounds(point.x - halfWidth, point.y - height, point.x + halfWidth, point.y);
+			marker.draw(canvas);
+
+			if (count > 1) {
+				float cx = point.x + halfWidth;
+				float cy = point.y - height;
+				canvas.drawCircle(cx, cy, radius, countBackgroundPaint);
+				canvas.drawText(Integer.toString(count), cx,
+						cy - (countTextPaint.ascent() + countTextPaint.descent()) / 2, countTextPaint);
+			}
+		}
+	}
 
 }
@@ -0,0 +1,38 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+
+/**
+ * {@link LocationFilter} rejecting fixes with a poor accuracy.
+ * Fixes without accuracy information are kept.
+ */
+public class AccuracyFilter implements LocationFilter {
+
+	/**
+	 * Max. accepted accuracy radius, in meters
+	 */
+	private final float maxAccuracy;
+
+	public AccuracyFilter(float maxAccuracy) {
+		this.maxAccuracy = maxAccuracy;
+	}
+
+	@Override
+	public Location filter(Location location) {
+		if (location.hasAccuracy() && location.getAccuracy() > maxAccuracy) {
+			return null;
+		}
+		return location;
+	}
+
+	@Override
+	public void reset() {
+		// Stateless
+	}
+
+	@Override
+	public String getName() {
+		return "accuracy";
+	}
+
+}
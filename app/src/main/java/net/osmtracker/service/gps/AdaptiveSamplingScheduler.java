@@ -0,0 +1,172 @@
+package net.osmtracker.service.gps;
+
+import net.osmtracker.util.GeoUtils;
+
+/**
+ * Adaptive GPS sampling: decides which fixes are worth keeping and how often
+ * the location provider should be asked for new ones, based on the geometry
+ * of the path rather than on the clock.
+ *<P>
+ * When stationary or slow, the request interval grows towards the maximum
+ * interval. When moving fast or turning, it shrinks towards the minimum one.
+ * A fix is kept after a turn, after {@link #TARGET_SPACING} meters, or when
+ * the current interval has elapsed since the last kept fix. Straight lines
+ * therefore get one point every {@link #TARGET_SPACING} meters whatever the
+ * speed, while corners stay sharp.
+ */
+public class AdaptiveSamplingScheduler {
+
+	/**
+	 * Speed (m/s) under which we consider we're not moving.
+	 */
+	public static final float STATIONARY_SPEED = 0.5f;
+
+	/**
+	 * Distance (meters) we aim to have between two kept fixes on a straight line.
+	 */
+	public static final float TARGET_SPACING = 50f;
+
+	/**
+	 * Change of heading (degrees) since the last kept fix that is considered a turn.
+	 */
+	public static final float TURN_ANGLE = 15f;
+
+	/**
+	 * Ratio the wanted interval must differ from the current one before we
+	 * re-request location updates, to avoid re-registering on each fix.
+	 */
+	private static final float INTERVAL_HYSTERESIS = 1.5f;
+
+	/**
+	 * Bounds of the request interval, in ms
+	 */
+	private final long minInterval, maxInterval;
+
+	/**
+	 * Current request interval, in ms
+	 */
+	private long interval;
+
+	/**
+	 * Set when {@link #interval} changed and the provider has to be re-requested.
+	 */
+	private boolean intervalChanged = false;
+
+	/**
+	 * Last kept fix. {@link #lastBearing} is negative if unknown.
+	 */
+	private boolean hasLastFix = false;
+	private long lastTime;
+	private double lastLat, lastLon;
+	private float lastBearing;
+
+	/**
+	 * @param minInterval Shortest request interval, in ms
+	 * @param maxInterval Longest request interval, in ms
+	 */
+	public AdaptiveSamplingScheduler(long minInterval, long maxInterval) {
+		this.minInterval = Math.max(0, minInterval);
+		this.maxInterval = Math.max(this.minInterval, maxInterval);
+		interval = this.minInterval;
+	}
+
+	/**
+	 * Forget the last kept fix, for instance when a new track starts.
+	 */
+	public void reset() {
+		hasLastFix = false;
+	}
+
+	/**
+	 * Process a new fix.
+	 *
+	 * @param time Time of the fix, in ms
+	 * @param latitude Latitude of the fix
+	 * @param longitude Longitude of the fix
+	 * @param speed Speed in m/s, or a negative value if unknown
+	 * @param bearing Bearing in degrees, or a negative value if unknown
+	 * @return true if the fix should be kept, false if it can be dropped
+	 */
+	public boolean onFix(long time, double latitude, double longitude, float speed, float bearing) {
+		if (!hasLastFix) {
+			keep(time, latitude, longitude, bearing);
+			return true;
+		}
+
+		double distance = GeoUtils.distance(lastLat, lastLon, latitude, longitude);
+		long elapsed = time - lastTime;
+		if (speed < 0 && elapsed > 0) {
+			// No speed from the provider, derive it from the last kept fix
+			speed = (float) (distance * 1000 / elapsed);
+		}
+
+		// Bearing is meaningless when standing still
+		boolean turning = speed >= STATIONARY_SPEED && bearing >= 0 && lastBearing >= 0
+				&& GeoUtils.angleDifference(lastBearing, bearing) >= TURN_ANGLE;
+
+		updateInterval(speed, turning);
+
+		// Fixes don't arrive exactly on time, allow some jitter on the interval
+		if (turning || distance >= TARGET_SPACING || elapsed >= interval - interval / 10) {
+			keep(time, latitude, longitude, bearing);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compute the wanted request interval from the current movement.
+	 */
+	private void updateInterval(float speed, boolean turning) {
+		long target;
+		if (turning) {
+			target = minInterval;
+		} else if (speed < STATIONARY_SPEED) {
+			target = maxInterval;
+		} else {
+			target = Math.min(maxInterval, Math.max(minInterval, (long) (TARGET_SPACING * 1000 / speed)));
+		}
+
+		if (target != interval
+				&& (target == minInterval || target == maxInterval
+					|| target * INTERVAL_HYSTERESIS < interval || target > interval * INTERVAL_HYSTERESIS)) {
+			interval = target;
+			intervalChanged = true;
+		}
+	}
+
+	private void keep(long time, double latitude, double longitude, float bearing) {
+		hasLastFix = true;
+		lastTime = time;
+		lastLat = latitude;
+		lastLon = longitude;
+		lastBearing = bearing;
+	}
+
+	/**
+	 * Returns whether the request interval changed since the last call,
+	 * and clears the flag.
+	 * @return true if location updates should be re-requested with {@link #getInterval()}
+	 */
+	public boolean consumeIntervalChange() {
+		boolean changed = intervalChanged;
+		intervalChanged = false;
+		return changed;
+	}
+
+	/**
+	 * @return The current request interval, in ms
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public long getMinInterval() {
+		return minInterval;
+	}
+
+	public long getMaxInterval() {
+		return maxInterval;
+	}
+
+}
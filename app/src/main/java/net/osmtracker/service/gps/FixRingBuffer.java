@@ -0,0 +1,208 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+/**
+ * Fixed-size ring buffer of the most recent fixes, stored in primitive
+ * arrays so that recording a fix doesn't allocate.
+ *<P>
+ * Fixes are indexed by the system time at which they were received, so that
+ * a position can be computed for any instant close to now (e.g. when a
+ * waypoint button was pressed), by interpolating between the two fixes
+ * surrounding it.
+ */
+public class FixRingBuffer {
+
+	/**
+	 * Default number of fixes to keep
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	private final int capacity;
+
+	/**
+	 * System time (ms) at which each fix was received
+	 */
+	private final long[] receivedTimes;
+
+	/**
+	 * Fix time (ms), as reported by the provider
+	 */
+	private final long[] fixTimes;
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+
+	/**
+	 * Altitude of each fix, NaN if the fix had none
+	 */
+	private final double[] altitudes;
+
+	/**
+	 * Accuracy (meters) of each fix, negative if the fix had none
+	 */
+	private final float[] accuracies;
+
+	/**
+	 * Speed (m/s) of each fix, negative if the fix had none
+	 */
+	private final float[] speeds;
+
+	/**
+	 * Number of satellites used in each fix
+	 */
+	private final int[] satellites;
+
+	/**
+	 * Index of the next slot to write, and number of stored fixes
+	 */
+	private int head = 0, size = 0;
+
+	public FixRingBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Number of fixes to keep
+	 */
+	public FixRingBuffer(int capacity) {
+		this.capacity = capacity;
+		receivedTimes = new long[capacity];
+		fixTimes = new long[capacity];
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		altitudes = new double[capacity];
+		accuracies = new float[capacity];
+		speeds = new float[capacity];
+		satellites = new int[capacity];
+	}
+
+	/**
+	 * Records a fix. Fixes must be added in the order they're received.
+	 * @param receivedTime System time at which the fix was received, in ms
+	 * @param location The fix
+	 * @param nbSatellites Number of satellites used in the fix
+	 */
+	public void add(long receivedTime, Location location, int nbSatellites) {
+		receivedTimes[head] = receivedTime;
+		fixTimes[head] = location.getTime();
+		latitudes[head] = location.getLatitude();
+		longitudes[head] = location.getLongitude();
+		altitudes[head] = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+		accuracies[head] = location.hasAccuracy() ? location.getAccuracy() : -1;
+		speeds[head] = location.hasSpeed() ? location.getSpeed() : -1;
+		satellites[head] = nbSatellites;
+
+		head = (head + 1) % capacity;
+		if (size < capacity) {
+			size++;
+		}
+	}
+
+	/**
+	 * Forgets all fixes.
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param time System time, in ms
+	 * @return Whether a fix was received after the given time, so that a
+	 * position can be interpolated at that time
+	 */
+	public boolean hasFixAfter(long time) {
+		return size > 0 && receivedTimes[index(0)] > time;
+	}
+
+	/**
+	 * Computes the position at a given time. Between two fixes, values are
+	 * linearly interpolated. Before the oldest fix or after the newest one,
+	 * the closest fix is used as is: see {@link #hasFixAfter(long)}.
+	 *
+	 * @param time System time, in ms
+	 * @return A new location, or null if the buffer is empty
+	 */
+	public Location getLocationAt(long time) {
+		if (size == 0) {
+			return null;
+		}
+
+		// Walk from the newest fix backwards, waypoints are mostly recent
+		int after = -1;
+		for (int n = 0; n < size; n++) {
+			int i = index(n);
+			if (receivedTimes[i] <= time) {
+				if (after == -1) {
+					// Newer than the newest fix
+					return toLocation(i, i, 0);
+				}
+				long span = receivedTimes[after] - receivedTimes[i];
+				float ratio = (span > 0) ? (float) (time - receivedTimes[i]) / span : 0;
+				return toLocation(i, after, ratio);
+			}
+			after = i;
+		}
+
+		// Older than the oldest fix
+		return toLocation(after, after, 0);
+	}
+
+	/**
+	 * @param time System time, in ms
+	 * @return The number of satellites used by the fix closest to the given time,
+	 * or 0 if the buffer is empty
+	 */
+	public int getSatellitesAt(long time) {
+		int best = 0;
+		long bestDelta = Long.MAX_VALUE;
+		for (int n = 0; n < size; n++) {
+			int i = index(n);
+			long delta = Math.abs(receivedTimes[i] - time);
+			if (delta < bestDelta) {
+				bestDelta = delta;
+				best = satellites[i];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param n Age of the fix, 0 being the newest
+	 * @return Slot index of the fix
+	 */
+	private int index(int n) {
+		return (head - 1 - n + capacity) % capacity;
+	}
+
+	/**
+	 * Builds a location between two fixes.
+	 * @param from Slot of the first fix
+	 * @param to Slot of the second fix
+	 * @param ratio Position between the two fixes, from 0 to 1
+	 */
+	private Location toLocation(int from, int to, float ratio) {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setTime(fixTimes[from] + Math.round((fixTimes[to] - fixTimes[from]) * ratio));
+		location.setLatitude(latitudes[from] + (latitudes[to] - latitudes[from]) * ratio);
+		location.setLongitude(longitudes[from] + (longitudes[to] - longitudes[from]) * ratio);
+		if (!Double.isNaN(altitudes[from]) && !Double.isNaN(altitudes[to])) {
+			location.setAltitude(altitudes[from] + (altitudes[to] - altitudes[from]) * ratio);
+		}
+		if (accuracies[from] >= 0 && accuracies[to] >= 0) {
+			// Keep the worst of both, interpolating doesn't make it better
+			location.setAccuracy(Math.max(accuracies[from], accuracies[to]));
+		}
+		if (speeds[from] >= 0 && speeds[to] >= 0) {
+			location.setSpeed(speeds[from] + (speeds[to] - speeds[from]) * ratio);
+		}
+		return location;
+	}
+
+}
@@ -7,6 +7,10 @@ import net.osmtracker.db.DataHelper;
 import net.osmtracker.db.TrackContentProvider;
 import net.osmtracker.listener.SensorListener;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import android.Manifest;
 import android.app.Notification;
 import android.app.NotificationChannel;
@@ -17,13 +21,17 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.location.GpsSatellite;
+import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
@@ -36,7 +44,7 @@ import android.util.Log;
  * @author Nicolas Guillaumin
  *
  */
-public class GPSLogger extends Service implements LocationListener {
+public class GPSLogger extends Service implements LocationListener, GpsStatus.Listener {
 
 	private static final String TAG = GPSLogger.class.getSimpleName();
 
@@ -67,14 +75,55 @@ public class GPSLogger extends Service implements LocationListener {
 	private Location lastLocation;
 	
 	/**
-	 * Last number of satellites used in fix.
+	 * Most recent fixes, to position waypoints at the time they were requested
+	 */
+	private final FixRingBuffer recentFixes = new FixRingBuffer();
+
+	/**
+	 * Max. time (ms) a waypoint waits for the fix following it, on top of the
+	 * location request interval. The newest fix is used after that.
+	 */
+	private static final long WAYPOINT_FIX_MARGIN = 5000;
+
+	/**
+	 * Waypoint commands waiting for the fix following them, and the commands on
+	 * the same waypoints submitted after them, so that they stay in order. At most
+	 * {@link WayPointCommandQueue#MAX_PENDING}. Only accessed from the main thread.
+	 */
+	private final List<PendingWayPointCommand> pendingWayPointCommands = new ArrayList<PendingWayPointCommand>();
+
+	private final Handler handler = new Handler();
+
+	/**
+	 * Queues the pending waypoint commands if no fix came in time
 	 */
-	private int lastNbSatellites;
+	private final Runnable wayPointFixTimeout = new Runnable() {
+		@Override
+		public void run() {
+			Log.v(TAG, "No fix after waypoint, using the newest one");
+			flushWayPointCommands();
+		}
+	};
 	
 	/**
 	 * LocationManager
 	 */
 	private LocationManager lmgr;
+
+	/**
+	 * Last GPS status, re-used when querying the LocationManager
+	 */
+	private GpsStatus gpsStatus;
+
+	/**
+	 * Satellites in view, and used in fix, from the last GPS status
+	 */
+	private int satCount = 0, fixCount = 0;
+
+	/**
+	 * Bound UI components receiving our GPS updates
+	 */
+	private final List<GPSLoggerListener> listeners = new CopyOnWriteArrayList<GPSLoggerListener>();
 	
 	/**
 	 * Current Track ID
@@ -91,6 +140,21 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private long gpsLoggingInterval;
 	private long gpsLoggingMinDistance;
+
+	/**
+	 * Filters applied on fixes before anything else, or null if filtering is disabled
+	 */
+	private LocationFilterChain locationFilterChain;
+
+	/**
+	 * Adaptive sampling scheduler, or null if adaptive sampling is disabled
+	 */
+	private AdaptiveSamplingScheduler samplingScheduler;
+
+	/**
+	 * Record-time track compressor, or null if compression is disabled
+	 */
+	private TrackCompressor<TrackedFix> trackCompressor;
 	
 	/**
 	 * sensors for magnetic orientation
@@ -106,40 +170,13 @@ public class GPSLogger extends Service implements LocationListener {
 		public void onReceive(Context context, Intent intent) {
 			Log.v(TAG, "Received intent " + intent.getAction());
 			
-			if (OSMTracker.INTENT_TRACK_WP.equals(intent.getAction())) {
-				// Track a way point
-				Bundle extras = intent.getExtras();
-				if (extras != null) {
-					// because of the gps logging interval our last fix could be very old
-					// so we'll request the last known location from the gps provider
-					if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-						lastLocation = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-						if (lastLocation != null) {
-							Long trackId = extras.getLong(TrackContentProvider.Schema.COL_TRACK_ID);
-							String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
-							String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
-							String link = extras.getString(OSMTracker.INTENT_KEY_LINK);
-
-							dataHelper.wayPoint(trackId, lastLocation, lastNbSatellites, name, link, uuid, sensorListener.getAzimuth(), sensorListener.getAccuracy());
-						}
-					}
-				}
-			} else if (OSMTracker.INTENT_UPDATE_WP.equals(intent.getAction())) {
-				// Update an existing waypoint
-				Bundle extras = intent.getExtras();
-				if (extras != null) {
-					Long trackId = extras.getLong(TrackContentProvider.Schema.COL_TRACK_ID);
-					String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
-					String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
-					String link = extras.getString(OSMTracker.INTENT_KEY_LINK);
-					dataHelper.updateWayPoint(trackId, uuid, name, link);
-				}
-			} else if (OSMTracker.INTENT_DELETE_WP.equals(intent.getAction())) {
-				// Delete an existing waypoint
-				Bundle extras = intent.getExtras();
-				if (extras != null) {
-					String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
-					dataHelper.deleteWayPoint(uuid);
+			if (OSMTracker.INTENT_TRACK_WP.equals(intent.getAction())
+					|| OSMTracker.INTENT_UPDATE_WP.equals(intent.getAction())
+					|| OSMTracker.INTENT_DELETE_WP.equals(intent.getAction())) {
+				// Waypoint command from a component not bound to us
+				WayPointCommand command = WayPointCommand.fromIntent(intent);
+				if (command != null) {
+					submitWayPointCommand(command, command.getResultCallback());
 				}
 			} else if (OSMTracker.INTENT_START_TRACKING.equals(intent.getAction()) ) {
 				Bundle extras = intent.getExtras();
@@ -153,6 +190,11 @@ public class GPSLogger extends Service implements LocationListener {
 		}
 	};
 	
+	/**
+	 * Processes waypoint commands on the storage thread
+	 */
+	private WayPointCommandQueue wayPointCommandQueue;
+
 	/**
 	 * Binder for service interaction
 	 */
@@ -167,6 +209,9 @@ public class GPSLogger extends Service implements LocationListener {
 	@Override
 	public boolean onUnbind(Intent intent) {
 		Log.v(TAG, "Service onUnbind()");
+		// No more bound UI, nobody to publish to
+		listeners.clear();
+
 		// If we aren't currently tracking we can
 		// stop ourselves
 		if (! isTracking ) {
@@ -191,18 +236,67 @@ public class GPSLogger extends Service implements LocationListener {
 		public GPSLogger getService() {			
 			return GPSLogger.this;
 		}
+
+		/**
+		 * Registers a listener for GPS updates, instead of
+		 * subscribing to the LocationManager again.
+		 * @param listener Listener to add
+		 */
+		public void addListener(GPSLoggerListener listener) {
+			if (!listeners.contains(listener)) {
+				listeners.add(listener);
+			}
+		}
+
+		/**
+		 * Un-registers a listener for GPS updates.
+		 * @param listener Listener to remove
+		 */
+		public void removeListener(GPSLoggerListener listener) {
+			listeners.remove(listener);
+		}
 	}
 	
 	@Override
 	public void onCreate() {	
 		Log.v(TAG, "Service onCreate()");
 		dataHelper = new DataHelper(this);
+		wayPointCommandQueue = new WayPointCommandQueue(new WayPointCommandQueue.Processor() {
+			@Override
+			public boolean process(WayPointCommand command) {
+				return processWayPointCommand(command);
+			}
+		});
 
 		//read the logging interval from preferences
-		gpsLoggingInterval = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getString(
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext());
+		gpsLoggingInterval = Long.parseLong(prefs.getString(
 				OSMTracker.Preferences.KEY_GPS_LOGGING_INTERVAL, OSMTracker.Preferences.VAL_GPS_LOGGING_INTERVAL)) * 1000;
-		gpsLoggingMinDistance = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getString(
+		gpsLoggingMinDistance = Long.parseLong(prefs.getString(
 				OSMTracker.Preferences.KEY_GPS_LOGGING_MIN_DISTANCE, OSMTracker.Preferences.VAL_GPS_LOGGING_MIN_DISTANCE));
+
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER, OSMTracker.Preferences.VAL_GPS_FILTER)) {
+			locationFilterChain = new LocationFilterChain()
+				.add(new AccuracyFilter(Float.parseFloat(prefs.getString(OSMTracker.Preferences.KEY_GPS_FILTER_MAX_ACCURACY, OSMTracker.Preferences.VAL_GPS_FILTER_MAX_ACCURACY))))
+				.add(new SpeedJumpFilter(Float.parseFloat(prefs.getString(OSMTracker.Preferences.KEY_GPS_FILTER_MAX_SPEED, OSMTracker.Preferences.VAL_GPS_FILTER_MAX_SPEED))));
+			if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_FILTER_SMOOTHING, OSMTracker.Preferences.VAL_GPS_FILTER_SMOOTHING)) {
+				locationFilterChain.add(new KalmanLocationFilter(KalmanLocationFilter.DEFAULT_PROCESS_NOISE));
+			}
+		}
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_ADAPTIVE_SAMPLING, OSMTracker.Preferences.VAL_GPS_ADAPTIVE_SAMPLING)) {
+			samplingScheduler = new AdaptiveSamplingScheduler(
+					Long.parseLong(prefs.getString(OSMTracker.Preferences.KEY_GPS_ADAPTIVE_MIN_INTERVAL, OSMTracker.Preferences.VAL_GPS_ADAPTIVE_MIN_INTERVAL)) * 1000,
+					Long.parseLong(prefs.getString(OSMTracker.Preferences.KEY_GPS_ADAPTIVE_MAX_INTERVAL, OSMTracker.Preferences.VAL_GPS_ADAPTIVE_MAX_INTERVAL)) * 1000);
+		}
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_COMPRESSION, OSMTracker.Preferences.VAL_GPS_COMPRESSION)) {
+			double tolerance = Double.parseDouble(prefs.getString(OSMTracker.Preferences.KEY_GPS_COMPRESSION_TOLERANCE, OSMTracker.Preferences.VAL_GPS_COMPRESSION_TOLERANCE));
+			trackCompressor = new TrackCompressor<TrackedFix>(tolerance, new TrackCompressor.Listener<TrackedFix>() {
+				@Override
+				public void onPoint(TrackedFix fix) {
+					dataHelper.track(currentTrackId, fix.location, fix.azimuth, fix.accuracy);
+				}
+			});
+		}
 		
 		// Register our broadcast receiver
 		IntentFilter filter = new IntentFilter();
@@ -215,10 +309,7 @@ public class GPSLogger extends Service implements LocationListener {
 
 		// Register ourselves for location updates
 		lmgr = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-
-		if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-			lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, gpsLoggingInterval, gpsLoggingMinDistance, this);
-		}
+		requestLocationUpdates((samplingScheduler != null) ? samplingScheduler.getInterval() : gpsLoggingInterval);
 		
 		//register for Orientation updates
 		sensorListener.register(this);
@@ -244,9 +335,15 @@ public class GPSLogger extends Service implements LocationListener {
 
 		// Unregister listener
 		lmgr.removeUpdates(this);
+		lmgr.removeGpsStatusListener(this);
+		listeners.clear();
 		
 		// Unregister broadcast receiver
 		unregisterReceiver(receiver);
+
+		// Write pending waypoints, then stop the storage thread
+		flushWayPointCommands();
+		wayPointCommandQueue.quit();
 		
 		// Cancel any existing notification
 		stopNotifyBackgroundService();
@@ -257,11 +354,32 @@ public class GPSLogger extends Service implements LocationListener {
 		super.onDestroy();
 	}
 
+	/**
+	 * (Re-)registers ourselves for location and GPS status updates.
+	 * Calling it again replaces the previous request.
+	 * @param interval Minimum time interval between location updates, in ms
+	 */
+	private void requestLocationUpdates(long interval) {
+		if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+			lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, interval, gpsLoggingMinDistance, this);
+			lmgr.addGpsStatusListener(this);
+		}
+	}
+
 	/**
 	 * Start GPS tracking.
 	 */
 	private void startTracking(long trackId) {
 		currentTrackId = trackId;
+		if (locationFilterChain != null) {
+			locationFilterChain.reset();
+		}
+		if (samplingScheduler != null) {
+			samplingScheduler.reset();
+		}
+		if (trackCompressor != null) {
+			trackCompressor.reset();
+		}
 		Log.v(TAG, "Starting track logging for track #" + trackId);
 		// Refresh notification with correct Track ID
 		NotificationManager nmgr = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -273,6 +391,14 @@ public class GPSLogger extends Service implements LocationListener {
 	 * Stops GPS Logging
 	 */
 	private void stopTrackingAndSave() {
+		if (trackCompressor != null) {
+			// Write the fixes held by the compressor
+			trackCompressor.flush();
+		}
+		if (locationFilterChain != null) {
+			Log.i(TAG, "Location filters for track #" + currentTrackId + ": " + locationFilterChain);
+		}
+		flushWayPointCommands();
 		isTracking = false;
 		dataHelper.stopTracking(currentTrackId);
 		currentTrackId = -1;
@@ -283,38 +409,208 @@ public class GPSLogger extends Service implements LocationListener {
 	public void onLocationChanged(Location location) {		
 		// We're receiving location, so GPS is enabled
 		isGpsEnabled = true;
+
+		for (GPSLoggerListener listener : listeners) {
+			listener.onLocationChanged(location);
+		}
+
+		if (locationFilterChain != null) {
+			// Drop inaccurate fixes and jumps before they reach anything else
+			location = locationFilterChain.filter(location);
+			if (location == null) {
+				return;
+			}
+		}
+
+		// Every accepted fix is kept for waypoints, whatever the logging interval
+		recentFixes.add(System.currentTimeMillis(), location, fixCount);
+		if (!pendingWayPointCommands.isEmpty()) {
+			// Waypoints waiting for this fix can now be interpolated
+			flushWayPointCommands();
+		}
+
+		if (samplingScheduler != null) {
+			// Adaptive sampling: keep the fix depending on the path geometry,
+			// and adjust the provider interval to the current movement
+			boolean keep = samplingScheduler.onFix(location.getTime(), location.getLatitude(), location.getLongitude(),
+					location.hasSpeed() ? location.getSpeed() : -1,
+					location.hasBearing() ? location.getBearing() : -1);
+			if (samplingScheduler.consumeIntervalChange()) {
+				Log.v(TAG, "Adaptive sampling interval is now " + samplingScheduler.getInterval() + "ms");
+				requestLocationUpdates(samplingScheduler.getInterval());
+			}
+			if (keep) {
+				trackLocation(location);
+			}
+			return;
+		}
 		
 		// first of all we check if the time from the last used fix to the current fix is greater than the logging interval
 		if((lastGPSTimestamp + gpsLoggingInterval) < System.currentTimeMillis()){
 			lastGPSTimestamp = System.currentTimeMillis(); // save the time of this fix
-		
-			lastLocation = location;
-			//lastNbSatellites = countSatellites();
-			
-			if (isTracking) {
-				dataHelper.track(currentTrackId, location, sensorListener.getAzimuth(), sensorListener.getAccuracy());
+			trackLocation(location);
+		}
+	}
+
+	/**
+	 * Queues a waypoint command, to be processed in order on the storage thread.
+	 * A new waypoint is positioned at the time it was requested, between the
+	 * fixes surrounding it: it waits for the next fix if needed, and so do the
+	 * new waypoints and the commands on the same waypoint submitted after it.
+	 * Must be called from the main thread.
+	 *
+	 * @param command The command
+	 * @param callback Notified on the main thread when done, may be null
+	 * @return false if the command was rejected
+	 */
+	public boolean submitWayPointCommand(WayPointCommand command, WayPointCommandQueue.Callback callback) {
+		if (command.type == WayPointCommand.Type.TRACK) {
+			// Orientation at the time the waypoint was requested
+			command.azimuth = sensorListener.getAzimuth();
+			command.accuracy = sensorListener.getAccuracy();
+		}
+
+		boolean waits = (command.type == WayPointCommand.Type.TRACK)
+				? !pendingWayPointCommands.isEmpty() || !recentFixes.hasFixAfter(command.timestamp)
+				: isWayPointPending(command.uuid);
+		if (!waits) {
+			return queueWayPointCommand(command, callback);
+		}
+
+		if (pendingWayPointCommands.size() >= WayPointCommandQueue.MAX_PENDING) {
+			Log.w(TAG, "Too many commands waiting for a fix, rejecting " + command);
+			if (callback != null) {
+				callback.onComplete(command, false);
 			}
+			return false;
+		}
+		if (pendingWayPointCommands.isEmpty()) {
+			long interval = (samplingScheduler != null) ? samplingScheduler.getInterval() : gpsLoggingInterval;
+			handler.postDelayed(wayPointFixTimeout, interval + WAYPOINT_FIX_MARGIN);
 		}
+		pendingWayPointCommands.add(new PendingWayPointCommand(command, callback));
+		return true;
 	}
 
 	/**
-	 * Counts number of satellites used in last fix.
-	 * @return The number of satellites
+	 * @return Whether a command on a waypoint is waiting for a fix
 	 */
-	/*
-	private int countSatellites() {
-		int count = 0;
-		GpsStatus status = lmgr.getGpsStatus(null);
-		for(GpsSatellite sat:status.getSatellites()) {
-			if (sat.usedInFix()) {
-				count++;
+	private boolean isWayPointPending(String uuid) {
+		if (uuid == null) {
+			return false;
+		}
+		for (PendingWayPointCommand pending : pendingWayPointCommands) {
+			if (uuid.equals(pending.command.uuid)) {
+				return true;
 			}
 		}
-		
-		return count;
+		return false;
 	}
-	*/
-	
+
+	/**
+	 * Queues the pending waypoint commands, positioned from the fixes received so far
+	 */
+	private void flushWayPointCommands() {
+		handler.removeCallbacks(wayPointFixTimeout);
+		for (PendingWayPointCommand pending : pendingWayPointCommands) {
+			queueWayPointCommand(pending.command, pending.callback);
+		}
+		pendingWayPointCommands.clear();
+	}
+
+	/**
+	 * Positions a new waypoint from the recent fixes, and queues its command
+	 * @return false if the command was rejected
+	 */
+	private boolean queueWayPointCommand(WayPointCommand command, WayPointCommandQueue.Callback callback) {
+		if (command.type == WayPointCommand.Type.TRACK) {
+			// because of the gps logging interval our last tracked fix could be very old,
+			// so we position the waypoint from the recent fixes, at the time it was requested
+			command.location = recentFixes.getLocationAt(command.timestamp);
+			command.nbSatellites = recentFixes.getSatellitesAt(command.timestamp);
+			if (command.location == null
+					&& ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+				// No fix received yet, fall back to the provider
+				command.location = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+				command.nbSatellites = fixCount;
+			}
+			if (command.location == null) {
+				Log.w(TAG, "No location available for " + command);
+				if (callback != null) {
+					callback.onComplete(command, false);
+				}
+				return false;
+			}
+		}
+		return wayPointCommandQueue.submit(command, callback);
+	}
+
+	/**
+	 * A waypoint command waiting to be queued, with its callback
+	 */
+	private static class PendingWayPointCommand {
+		final WayPointCommand command;
+		final WayPointCommandQueue.Callback callback;
+
+		PendingWayPointCommand(WayPointCommand command, WayPointCommandQueue.Callback callback) {
+			this.command = command;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * A fix held by the compressor, with the compass values recorded with it
+	 */
+	private static class TrackedFix {
+		final Location location;
+		final float azimuth;
+		final int accuracy;
+
+		TrackedFix(Location location, float azimuth, int accuracy) {
+			this.location = location;
+			this.azimuth = azimuth;
+			this.accuracy = accuracy;
+		}
+	}
+
+	/**
+	 * Does the database and file work for a waypoint command.
+	 * Runs on the storage thread.
+	 */
+	private boolean processWayPointCommand(WayPointCommand command) {
+		switch (command.type) {
+		case TRACK:
+			dataHelper.wayPoint(command.trackId, command.location, command.nbSatellites, command.name, command.link,
+					command.uuid, command.azimuth, command.accuracy);
+			break;
+		case UPDATE:
+			dataHelper.updateWayPoint(command.trackId, command.uuid, command.name, command.link);
+			break;
+		case DELETE:
+			dataHelper.deleteWayPoint(command.uuid);
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Uses an accepted fix: keeps it as last location and, if tracking,
+	 * stores it (through the compressor if enabled).
+	 * @param location The accepted fix
+	 */
+	private void trackLocation(Location location) {
+		lastLocation = location;
+
+		if (isTracking) {
+			if (trackCompressor != null) {
+				trackCompressor.add(new TrackedFix(location, sensorListener.getAzimuth(), sensorListener.getAccuracy()),
+						location.getLatitude(), location.getLongitude(), location.getTime());
+			} else {
+				dataHelper.track(currentTrackId, location, sensorListener.getAzimuth(), sensorListener.getAccuracy());
+			}
+		}
+	}
+
 	/**
 	 * Builds the notification to display when tracking in background.
 	 */
@@ -364,16 +660,45 @@ public class GPSLogger extends Service implements LocationListener {
 	@Override
 	public void onProviderDisabled(String provider) {
 		isGpsEnabled = false;
+		for (GPSLoggerListener listener : listeners) {
+			listener.onProviderDisabled();
+		}
 	}
 
 	@Override
 	public void onProviderEnabled(String provider) {
 		isGpsEnabled = true;
+		for (GPSLoggerListener listener : listeners) {
+			listener.onProviderEnabled();
+		}
 	}
 
 	@Override
 	public void onStatusChanged(String provider, int status, Bundle extras) {
-		// Not interested in provider status			
+		// Not interested in provider status ourselves, but the UI is
+		for (GPSLoggerListener listener : listeners) {
+			listener.onProviderStatusChanged(status);
+		}
+	}
+
+	@Override
+	public void onGpsStatusChanged(int event) {
+		if (event == GpsStatus.GPS_EVENT_SATELLITE_STATUS
+				&& ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+			gpsStatus = lmgr.getGpsStatus(gpsStatus);
+			satCount = 0;
+			fixCount = 0;
+			for (GpsSatellite sat : gpsStatus.getSatellites()) {
+				satCount++;
+				if (sat.usedInFix()) {
+					fixCount++;
+				}
+			}
+		}
+
+		for (GPSLoggerListener listener : listeners) {
+			listener.onGpsStatusChanged(event, satCount, fixCount);
+		}
 	}
 
 	/**
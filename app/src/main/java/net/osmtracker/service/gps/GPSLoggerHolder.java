@@ -0,0 +1,15 @@
+package net.osmtracker.service.gps;
+
+/**
+ * Component bound to the {@link GPSLogger} service, typically an activity.
+ * Waypoint commands sent from it are handed directly to the service, see
+ * {@link WayPointCommand#send(android.content.Context, WayPointCommandQueue.Callback)}.
+ */
+public interface GPSLoggerHolder {
+
+	/**
+	 * @return The bound service, or null if not bound (yet)
+	 */
+	public GPSLogger getGpsLogger();
+
+}
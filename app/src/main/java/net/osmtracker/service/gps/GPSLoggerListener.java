@@ -0,0 +1,45 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+
+/**
+ * Receives GPS updates published by the {@link GPSLogger} service, which
+ * owns the single location and GPS status subscription. UI components
+ * register through {@link GPSLogger.GPSLoggerBinder#addListener(GPSLoggerListener)}
+ * instead of subscribing to the LocationManager themselves.
+ *<P>
+ * All methods are called on the main thread.
+ */
+public interface GPSLoggerListener {
+
+	/**
+	 * A new fix was received (before any filtering).
+	 * @param location The new fix
+	 */
+	public void onLocationChanged(Location location);
+
+	/**
+	 * GPS status changed.
+	 * @param event One of the GpsStatus.GPS_EVENT_* constants
+	 * @param satCount Number of satellites in view
+	 * @param fixCount Number of satellites used in the last fix
+	 */
+	public void onGpsStatusChanged(int event, int satCount, int fixCount);
+
+	/**
+	 * GPS provider has been enabled by the user.
+	 */
+	public void onProviderEnabled();
+
+	/**
+	 * GPS provider has been disabled by the user.
+	 */
+	public void onProviderDisabled();
+
+	/**
+	 * GPS provider status changed.
+	 * @param status One of the LocationProvider status constants
+	 */
+	public void onProviderStatusChanged(int status);
+
+}
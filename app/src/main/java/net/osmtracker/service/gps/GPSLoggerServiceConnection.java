@@ -23,6 +23,16 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 	 * Reference to TrackLogger activity
 	 */
 	private TrackLogger activity;
+
+	/**
+	 * Binder of the connected service, null when not connected
+	 */
+	private GPSLogger.GPSLoggerBinder binder;
+
+	/**
+	 * GPS status layout registered as a listener on the service
+	 */
+	private GpsStatusRecord gpsStatusRecord;
 	
 	public GPSLoggerServiceConnection(TrackLogger tl) {
 		activity = tl;
@@ -30,6 +40,8 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 	
 	@Override
 	public void onServiceDisconnected(ComponentName name) {
+		binder = null;
+		gpsStatusRecord = null;
 		activity.setEnabledActionButtons(false);
 		activity.setGpsLogger(null);
 	}
@@ -37,12 +49,15 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 	@Override
 	public void onServiceConnected(ComponentName name, IBinder service) {
 		
-		activity.setGpsLogger( ((GPSLogger.GPSLoggerBinder) service).getService());
+		binder = (GPSLogger.GPSLoggerBinder) service;
+		activity.setGpsLogger(binder.getService());
 
-		// Update record status regarding of current tracking state
-		GpsStatusRecord gpsStatusRecord = (GpsStatusRecord) activity.findViewById(R.id.gpsStatus);
+		// Update record status regarding of current tracking state,
+		// and receive GPS updates from the service
+		gpsStatusRecord = (GpsStatusRecord) activity.findViewById(R.id.gpsStatus);
 		if (gpsStatusRecord != null) {
 			gpsStatusRecord.manageRecordingIndicator(activity.getGpsLogger().isTracking());
+			binder.addListener(gpsStatusRecord);
 		}
 		
 		// If not already tracking, start tracking
@@ -54,4 +69,15 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 		}
 	}
 
+	/**
+	 * Stops receiving GPS updates from the service. Must be
+	 * called before unbinding.
+	 */
+	public void removeGpsListeners() {
+		if (binder != null && gpsStatusRecord != null) {
+			binder.removeListener(gpsStatusRecord);
+		}
+		gpsStatusRecord = null;
+	}
+
 }
@@ -0,0 +1,82 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+
+/**
+ * {@link LocationFilter} smoothing positions with a lightweight Kalman
+ * filter: constant position model, with the variance of each fix taken from
+ * its accuracy and a process noise expressed as a speed.
+ *<P>
+ * Never rejects a fix, but returns a copy with corrected latitude and longitude.
+ */
+public class KalmanLocationFilter implements LocationFilter {
+
+	/**
+	 * Accuracy (meters) assumed for fixes without accuracy information
+	 */
+	private static final float DEFAULT_ACCURACY = 10;
+
+	/**
+	 * Default process noise, in m/s
+	 */
+	public static final float DEFAULT_PROCESS_NOISE = 3;
+
+	/**
+	 * Process noise, in m/s: how fast we expect the real position to move away
+	 * from the estimate.
+	 */
+	private final float processNoise;
+
+	/**
+	 * Current estimate. {@link #variance} is negative when there's no estimate.
+	 */
+	private double lat, lon;
+	private long time;
+	private double variance = -1;
+
+	public KalmanLocationFilter(float processNoise) {
+		this.processNoise = processNoise;
+	}
+
+	@Override
+	public Location filter(Location location) {
+		float accuracy = location.hasAccuracy() && location.getAccuracy() > 0 ? location.getAccuracy() : DEFAULT_ACCURACY;
+		double measurementVariance = accuracy * accuracy;
+
+		if (variance < 0) {
+			lat = location.getLatitude();
+			lon = location.getLongitude();
+			time = location.getTime();
+			variance = measurementVariance;
+			return location;
+		}
+
+		long elapsed = location.getTime() - time;
+		if (elapsed > 0) {
+			// Uncertainty grows with time since the last estimate
+			variance += elapsed * processNoise * processNoise / 1000;
+			time = location.getTime();
+		}
+
+		double gain = variance / (variance + measurementVariance);
+		lat += gain * (location.getLatitude() - lat);
+		lon += gain * (location.getLongitude() - lon);
+		variance = (1 - gain) * variance;
+
+		Location smoothed = new Location(location);
+		smoothed.setLatitude(lat);
+		smoothed.setLongitude(lon);
+		return smoothed;
+	}
+
+	@Override
+	public void reset() {
+		variance = -1;
+	}
+
+	@Override
+	public String getName() {
+		return "kalman";
+	}
+
+}
@@ -0,0 +1,30 @@
+package net.osmtracker.service.gps;
+
+import android.location.Location;
+
+/**
+ * Filter applied on GPS fixes before they're stored.
+ * Implementations must use a constant amount of memory, whatever
+ * the number of fixes processed.
+ *
+ * @see LocationFilterChain
+ */
+public interface LocationFilter {
+
+	/**
+	 * @param location Fix to filter
+	 * @return The fix to keep (the same or a corrected copy), or null to reject it
+	 */
+	public Location filter(Location location);
+
+	/**
+	 * Forget any state, for instance when a new track starts.
+	 */
+	public void reset();
+
+	/**
+	 * @return Short name of the filter, for diagnostics
+	 */
+	public String getName();
+
+}
@@ -0,0 +1,82 @@
+package net.osmtracker.service.gps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.location.Location;
+
+/**
+ * Ordered chain of {@link LocationFilter}s. A fix is passed through each
+ * filter in turn, and dropped as soon as one rejects it. The number of
+ * rejections is counted per filter, for diagnostics: see {@link #toString()},
+ * logged when tracking stops.
+ */
+public class LocationFilterChain {
+
+	private final List<LocationFilter> filters = new ArrayList<LocationFilter>();
+
+	/**
+	 * Rejection counters, same order as {@link #filters}
+	 */
+	private int[] rejectedCounts = new int[0];
+
+	/**
+	 * Number of fixes that went through the chain
+	 */
+	private int processedCount = 0;
+
+	/**
+	 * Appends a filter at the end of the chain.
+	 * @param filter Filter to add
+	 * @return this chain
+	 */
+	public LocationFilterChain add(LocationFilter filter) {
+		filters.add(filter);
+		int[] counts = new int[filters.size()];
+		System.arraycopy(rejectedCounts, 0, counts, 0, rejectedCounts.length);
+		rejectedCounts = counts;
+		return this;
+	}
+
+	/**
+	 * @param location Fix to filter
+	 * @return The fix to keep, possibly corrected, or null if rejected
+	 */
+	public Location filter(Location location) {
+		processedCount++;
+		int size = filters.size();
+		for (int i = 0; i < size && location != null; i++) {
+			Location filtered = filters.get(i).filter(location);
+			if (filtered == null) {
+				rejectedCounts[i]++;
+			}
+			location = filtered;
+		}
+		return location;
+	}
+
+	/**
+	 * Resets all filters and counters.
+	 */
+	public void reset() {
+		for (LocationFilter filter : filters) {
+			filter.reset();
+		}
+		rejectedCounts = new int[filters.size()];
+		processedCount = 0;
+	}
+
+	/**
+	 * @return Number of fixes filtered, and rejected by each filter
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(processedCount).append(" fixes");
+		for (int i = 0; i < filters.size(); i++) {
+			sb.append(", ").append(filters.get(i).getName()).append(" rejected ").append(rejectedCounts[i]);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,72 @@
+package net.osmtracker.service.gps;
+
+import net.osmtracker.util.GeoUtils;
+
+import android.location.Location;
+
+/**
+ * {@link LocationFilter} rejecting jumps: fixes that would require moving
+ * faster than a plausible speed since the last accepted fix, as produced
+ * by multipath reflections.
+ *<P>
+ * If too many fixes in a row are rejected, the last accepted fix was
+ * probably the wrong one: the filter then re-synchronizes on the new fix.
+ */
+public class SpeedJumpFilter implements LocationFilter {
+
+	/**
+	 * Number of consecutive rejections after which we accept the fix anyway.
+	 */
+	private static final int MAX_CONSECUTIVE_REJECTIONS = 5;
+
+	/**
+	 * Max. plausible speed, in m/s
+	 */
+	private final float maxSpeed;
+
+	/**
+	 * Last accepted fix
+	 */
+	private boolean hasLastFix = false;
+	private double lastLat, lastLon;
+	private long lastTime;
+
+	private int consecutiveRejections = 0;
+
+	public SpeedJumpFilter(float maxSpeed) {
+		this.maxSpeed = maxSpeed;
+	}
+
+	@Override
+	public Location filter(Location location) {
+		if (hasLastFix && consecutiveRejections < MAX_CONSECUTIVE_REJECTIONS) {
+			long elapsed = location.getTime() - lastTime;
+			double distance = GeoUtils.distance(lastLat, lastLon, location.getLatitude(), location.getLongitude());
+			// A distance is only plausible if it can be covered in the elapsed time
+			// (at least one second, GPS times are not precise enough below)
+			if (distance > maxSpeed * Math.max(elapsed, 1000) / 1000) {
+				consecutiveRejections++;
+				return null;
+			}
+		}
+
+		hasLastFix = true;
+		lastLat = location.getLatitude();
+		lastLon = location.getLongitude();
+		lastTime = location.getTime();
+		consecutiveRejections = 0;
+		return location;
+	}
+
+	@Override
+	public void reset() {
+		hasLastFix = false;
+		consecutiveRejections = 0;
+	}
+
+	@Override
+	public String getName() {
+		return "speed";
+	}
+
+}
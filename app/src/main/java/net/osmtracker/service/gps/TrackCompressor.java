@@ -0,0 +1,163 @@
+package net.osmtracker.service.gps;
+
+import net.osmtracker.util.GeoUtils;
+
+/**
+ * Streaming track compressor, using the opening window algorithm.
+ *<P>
+ * Incoming fixes are held in a window starting at the last emitted point
+ * (the anchor). As long as every held fix stays within the tolerance of the
+ * segment between the anchor and the newest fix, nothing is emitted. When a
+ * fix would break the tolerance, the previous one is emitted and becomes the
+ * new anchor. Straight segments are thus reduced to their end points, and the
+ * path can be rebuilt from the emitted points within the tolerance.
+ *<P>
+ * A fix is held at most {@link #MAX_HOLD_TIME} after the anchor, so that the
+ * stored track, and the maps displaying it, follow the position on long
+ * straight segments too.
+ *<P>
+ * Held fixes must be flushed with {@link #flush()} when tracking stops.
+ *
+ * @param <P> Type of the points, e.g. a fix with its compass values
+ */
+public class TrackCompressor<P> {
+
+	/**
+	 * Receives the points to keep.
+	 */
+	public interface Listener<P> {
+		/**
+		 * @param point Point to store
+		 */
+		void onPoint(P point);
+	}
+
+	/**
+	 * Maximum number of held fixes. When reached, the window is closed even if
+	 * the tolerance is not exceeded, to bound memory and processing per fix.
+	 */
+	private static final int MAX_WINDOW_SIZE = 256;
+
+	/**
+	 * Max. time (ms) between the anchor and the last fix of the window.
+	 * When exceeded, the window is closed even if the tolerance is not.
+	 */
+	static final long MAX_HOLD_TIME = 10000;
+
+	/**
+	 * Max. distance (meters) allowed between a dropped fix and the compressed path
+	 */
+	private final double tolerance;
+
+	private final Listener<P> listener;
+
+	/**
+	 * Position and time of the last emitted point. Time is -1 if nothing was emitted yet.
+	 */
+	private double anchorLatitude, anchorLongitude;
+	private long anchorTime = -1;
+
+	/**
+	 * Held fixes since the anchor, with their position and time
+	 */
+	private final Object[] window = new Object[MAX_WINDOW_SIZE];
+	private final double[] windowLatitudes = new double[MAX_WINDOW_SIZE];
+	private final double[] windowLongitudes = new double[MAX_WINDOW_SIZE];
+	private final long[] windowTimes = new long[MAX_WINDOW_SIZE];
+	private int windowSize = 0;
+
+	/**
+	 * @param tolerance Max. distance (meters) between a dropped fix and the compressed path
+	 * @param listener Listener receiving the points to store
+	 */
+	public TrackCompressor(double tolerance, Listener<P> listener) {
+		this.tolerance = tolerance;
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a new fix.
+	 * @param point The fix
+	 * @param latitude Latitude of the fix
+	 * @param longitude Longitude of the fix
+	 * @param time Time of the fix, in ms
+	 */
+	public void add(P point, double latitude, double longitude, long time) {
+		if (anchorTime < 0) {
+			// First point of the track is always kept
+			setAnchor(latitude, longitude, time);
+			listener.onPoint(point);
+			return;
+		}
+
+		if (windowSize > 0 && (windowSize == MAX_WINDOW_SIZE
+				|| windowTimes[windowSize - 1] - anchorTime >= MAX_HOLD_TIME
+				|| !fitsWindow(latitude, longitude))) {
+			emitWindowEnd();
+		}
+
+		window[windowSize] = point;
+		windowLatitudes[windowSize] = latitude;
+		windowLongitudes[windowSize] = longitude;
+		windowTimes[windowSize] = time;
+		windowSize++;
+	}
+
+	/**
+	 * Emits the held fix, if any. Must be called when tracking stops,
+	 * otherwise the end of the track would be lost.
+	 */
+	public void flush() {
+		if (windowSize > 0) {
+			emitWindowEnd();
+		}
+	}
+
+	/**
+	 * Forgets everything, without emitting held fixes.
+	 */
+	public void reset() {
+		clearWindow();
+		anchorTime = -1;
+	}
+
+	/**
+	 * @return true if all held fixes are within the tolerance of the segment anchor-end
+	 */
+	private boolean fitsWindow(double endLatitude, double endLongitude) {
+		for (int i = 0; i < windowSize; i++) {
+			double d = GeoUtils.distanceToSegment(windowLatitudes[i], windowLongitudes[i],
+					anchorLatitude, anchorLongitude, endLatitude, endLongitude);
+			if (d > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Emits the last held fix, and makes it the new anchor.
+	 */
+	@SuppressWarnings("unchecked")
+	private void emitWindowEnd() {
+		int last = windowSize - 1;
+		P point = (P) window[last];
+		setAnchor(windowLatitudes[last], windowLongitudes[last], windowTimes[last]);
+		clearWindow();
+		listener.onPoint(point);
+	}
+
+	private void setAnchor(double latitude, double longitude, long time) {
+		anchorLatitude = latitude;
+		anchorLongitude = longitude;
+		anchorTime = time;
+	}
+
+	private void clearWindow() {
+		for (int i = 0; i < windowSize; i++) {
+			window[i] = null;
+		}
+		windowSize = 0;
+	}
+
+}
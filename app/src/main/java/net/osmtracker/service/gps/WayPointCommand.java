@@ -0,0 +1,199 @@
+package net.osmtracker.service.gps;
+
+import net.osmtracker.OSMTracker;
+import net.osmtracker.db.TrackContentProvider;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
+
+/**
+ * A waypoint operation requested by the UI: track a new waypoint,
+ * update or delete an existing one.
+ *<P>
+ * Commands are sent with {@link #send(Context, WayPointCommandQueue.Callback)}, which
+ * hands them directly to the bound {@link GPSLogger}. They are then processed
+ * in order on the storage thread, see {@link WayPointCommandQueue}.
+ */
+public class WayPointCommand {
+
+	public enum Type {
+		TRACK, UPDATE, DELETE
+	}
+
+	/**
+	 * Result codes sent to the result receiver of a broadcast command
+	 */
+	private static final int RESULT_FAILURE = 0;
+	private static final int RESULT_SUCCESS = 1;
+
+	public final Type type;
+	public final long trackId;
+	public final String uuid;
+	public final String name;
+	public final String link;
+
+	/**
+	 * System time (ms) at which the waypoint was requested
+	 */
+	public final long timestamp;
+
+	/**
+	 * Position of a waypoint to track, resolved by {@link GPSLogger}
+	 * once the fix following the waypoint is received.
+	 */
+	Location location;
+	int nbSatellites;
+	float azimuth;
+	int accuracy;
+
+	/**
+	 * Notified once a broadcast command is processed, may be null
+	 */
+	private ResultReceiver resultReceiver;
+
+	private WayPointCommand(Type type, long trackId, String uuid, String name, String link, long timestamp) {
+		this.type = type;
+		this.trackId = trackId;
+		this.uuid = uuid;
+		this.name = name;
+		this.link = link;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Creates a command to track a new waypoint at the current time.
+	 * @param trackId Id of the track
+	 * @param uuid Unique id of the waypoint, may be null
+	 * @param name Name of the waypoint
+	 * @param link Name of a file attached to the waypoint, may be null
+	 */
+	public static WayPointCommand track(long trackId, String uuid, String name, String link) {
+		return new WayPointCommand(Type.TRACK, trackId, uuid, name, link, System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates a command to update an existing waypoint.
+	 * @param trackId Id of the track
+	 * @param uuid Unique id of the waypoint
+	 * @param name New name, or null to keep the current one
+	 * @param link New link, or null to keep the current one
+	 */
+	public static WayPointCommand update(long trackId, String uuid, String name, String link) {
+		return new WayPointCommand(Type.UPDATE, trackId, uuid, name, link, System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates a command to delete an existing waypoint.
+	 * @param uuid Unique id of the waypoint
+	 */
+	public static WayPointCommand delete(String uuid) {
+		return new WayPointCommand(Type.DELETE, -1, uuid, null, null, System.currentTimeMillis());
+	}
+
+	/**
+	 * Sends this command to the GPS service. If the context is a {@link GPSLoggerHolder}
+	 * bound to the service, the command is queued in-process. Otherwise, it's
+	 * broadcast, with a result receiver notifying the callback.
+	 *
+	 * @param context Context sending the command
+	 * @param callback Callback invoked on the main thread once the command is processed, may be null
+	 */
+	public void send(Context context, final WayPointCommandQueue.Callback callback) {
+		GPSLogger gpsLogger = (context instanceof GPSLoggerHolder) ? ((GPSLoggerHolder) context).getGpsLogger() : null;
+		if (gpsLogger != null) {
+			gpsLogger.submitWayPointCommand(this, callback);
+		} else {
+			Intent intent = toIntent();
+			if (callback != null) {
+				intent.putExtra(OSMTracker.INTENT_KEY_RESULT_RECEIVER, new ResultReceiver(new Handler(Looper.getMainLooper())) {
+					@Override
+					protected void onReceiveResult(int resultCode, Bundle resultData) {
+						callback.onComplete(WayPointCommand.this, resultCode == RESULT_SUCCESS);
+					}
+				});
+			}
+			context.sendBroadcast(intent);
+		}
+	}
+
+	/**
+	 * @return A callback notifying the sender of a broadcast command once it's
+	 * processed, or null if the sender didn't ask to be
+	 */
+	WayPointCommandQueue.Callback getResultCallback() {
+		if (resultReceiver == null) {
+			return null;
+		}
+		return new WayPointCommandQueue.Callback() {
+			@Override
+			public void onComplete(WayPointCommand command, boolean success) {
+				resultReceiver.send(success ? RESULT_SUCCESS : RESULT_FAILURE, null);
+			}
+		};
+	}
+
+	/**
+	 * @return An intent carrying this command, for the broadcast receiver of {@link GPSLogger}
+	 */
+	public Intent toIntent() {
+		Intent intent;
+		switch (type) {
+		case TRACK:
+			intent = new Intent(OSMTracker.INTENT_TRACK_WP);
+			break;
+		case UPDATE:
+			intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
+			break;
+		default:
+			intent = new Intent(OSMTracker.INTENT_DELETE_WP);
+			break;
+		}
+		intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, trackId);
+		intent.putExtra(OSMTracker.INTENT_KEY_UUID, uuid);
+		intent.putExtra(OSMTracker.INTENT_KEY_NAME, name);
+		intent.putExtra(OSMTracker.INTENT_KEY_LINK, link);
+		intent.putExtra(OSMTracker.INTENT_KEY_TIMESTAMP, timestamp);
+		return intent;
+	}
+
+	/**
+	 * Builds a command from an intent sent with {@link #toIntent()}.
+	 * @param intent The received intent
+	 * @return The command, or null if the intent doesn't carry a waypoint command
+	 */
+	public static WayPointCommand fromIntent(Intent intent) {
+		Bundle extras = intent.getExtras();
+		if (extras == null) {
+			return null;
+		}
+		Type type;
+		if (OSMTracker.INTENT_TRACK_WP.equals(intent.getAction())) {
+			type = Type.TRACK;
+		} else if (OSMTracker.INTENT_UPDATE_WP.equals(intent.getAction())) {
+			type = Type.UPDATE;
+		} else if (OSMTracker.INTENT_DELETE_WP.equals(intent.getAction())) {
+			type = Type.DELETE;
+		} else {
+			return null;
+		}
+		WayPointCommand command = new WayPointCommand(type,
+				extras.getLong(TrackContentProvider.Schema.COL_TRACK_ID),
+				extras.getString(OSMTracker.INTENT_KEY_UUID),
+				extras.getString(OSMTracker.INTENT_KEY_NAME),
+				extras.getString(OSMTracker.INTENT_KEY_LINK),
+				extras.getLong(OSMTracker.INTENT_KEY_TIMESTAMP, System.currentTimeMillis()));
+		command.resultReceiver = extras.getParcelable(OSMTracker.INTENT_KEY_RESULT_RECEIVER);
+		return command;
+	}
+
+	@Override
+	public String toString() {
+		return type + " waypoint '" + name + "', track=" + trackId + ", uuid=" + uuid;
+	}
+
+}
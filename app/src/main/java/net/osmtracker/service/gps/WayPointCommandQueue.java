@@ -0,0 +1,139 @@
+package net.osmtracker.service.gps;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Bounded, ordered queue of {@link WayPointCommand}s, processed one at a
+ * time on a dedicated storage thread so that database and file system work
+ * never runs on the main thread.
+ *<P>
+ * Commands are processed in the order they were submitted. Completion
+ * callbacks are invoked on the main thread.
+ */
+public class WayPointCommandQueue {
+
+	private static final String TAG = WayPointCommandQueue.class.getSimpleName();
+
+	/**
+	 * Max. number of commands waiting to be processed. Further
+	 * commands are rejected until the queue drains.
+	 */
+	public static final int MAX_PENDING = 64;
+
+	/**
+	 * Notified on the main thread when a command has been processed.
+	 */
+	public interface Callback {
+		/**
+		 * @param command The processed command
+		 * @param success false if the command was rejected or failed
+		 */
+		void onComplete(WayPointCommand command, boolean success);
+	}
+
+	/**
+	 * Does the actual work for a command, on the storage thread.
+	 */
+	public interface Processor {
+		/**
+		 * @param command Command to process
+		 * @return true if the command succeeded
+		 */
+		boolean process(WayPointCommand command);
+	}
+
+	private final Processor processor;
+	private final HandlerThread storageThread;
+	private final Handler storageHandler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Commands submitted and not processed yet. Only modified on the main thread.
+	 */
+	private int pending = 0;
+
+	/**
+	 * Whether {@link #quit()} was called. Only modified on the main thread.
+	 */
+	private boolean quit = false;
+
+	/**
+	 * @param processor Processor doing the work for each command
+	 */
+	public WayPointCommandQueue(Processor processor) {
+		this.processor = processor;
+		storageThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		storageThread.start();
+		storageHandler = new Handler(storageThread.getLooper());
+	}
+
+	/**
+	 * Queues a command. Must be called from the main thread.
+	 * @param command Command to process
+	 * @param callback Callback to notify when done, may be null
+	 * @return false if the queue is full or stopped, and the command was rejected
+	 */
+	public boolean submit(final WayPointCommand command, final Callback callback) {
+		if (quit || pending >= MAX_PENDING) {
+			Log.w(TAG, (quit ? "Queue stopped" : "Queue full") + ", rejecting " + command);
+			return reject(command, callback);
+		}
+
+		boolean posted = storageHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				boolean success;
+				try {
+					success = processor.process(command);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Failed to process " + command, e);
+					success = false;
+				}
+				final boolean result = success;
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						pending--;
+						if (callback != null) {
+							callback.onComplete(command, result);
+						}
+					}
+				});
+			}
+		});
+		if (!posted) {
+			// Storage thread already stopped
+			Log.w(TAG, "Storage thread stopped, rejecting " + command);
+			return reject(command, callback);
+		}
+		pending++;
+		return true;
+	}
+
+	private boolean reject(WayPointCommand command, Callback callback) {
+		if (callback != null) {
+			callback.onComplete(command, false);
+		}
+		return false;
+	}
+
+	/**
+	 * Processes the remaining commands and stops the storage thread.
+	 * No command can be submitted afterwards.
+	 */
+	public void quit() {
+		quit = true;
+		// Let queued commands be processed before the looper stops
+		storageHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				storageThread.quit();
+			}
+		});
+	}
+
+}
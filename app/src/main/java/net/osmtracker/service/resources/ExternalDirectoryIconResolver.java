@@ -2,31 +2,67 @@ package net.osmtracker.service.resources;
 
 import java.io.File;
 
+import net.osmtracker.util.MemoryBudgetManager;
+
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.util.LruCache;
 
 /**
  * Implementation of {@link IconResolver} which reads icon
  * from an external directory.
+ *<P>
+ * Decoded icons are shared in a cache sized by the {@link MemoryBudgetManager},
+ * so that they're not decoded again each time a layout is displayed.
  * 
  * @author Nicolas Guillaumin
  *
  */
 public class ExternalDirectoryIconResolver implements IconResolver {
 	
+	/**
+	 * Decoded icons, by file path
+	 */
+	private static LruCache<String, Bitmap> cache;
+
 	/**
 	 * Base directory to read icon files.
 	 */
 	private File directory;
 		
-	public ExternalDirectoryIconResolver(File baseDir) {
+	public ExternalDirectoryIconResolver(File baseDir, Context context) {
 		if (!baseDir.isDirectory()) {
 			throw new IllegalArgumentException("baseDir must be a directory. " + baseDir + " is not.");
 		}
 		
 		directory = baseDir;
+		createCache(context);
+	}
+
+	private static synchronized void createCache(Context context) {
+		if (cache == null) {
+			MemoryBudgetManager memoryBudget = MemoryBudgetManager.getInstance(context);
+			cache = new LruCache<String, Bitmap>(memoryBudget.getIconCacheBudget()) {
+				@Override
+				protected int sizeOf(String key, Bitmap value) {
+					return value.getRowBytes() * value.getHeight();
+				}
+			};
+			memoryBudget.register("Layout icons", MemoryBudgetManager.PRIORITY_ICONS, new MemoryBudgetManager.Cache() {
+				@Override
+				public long getSize() {
+					return cache.size();
+				}
+
+				@Override
+				public void trim() {
+					cache.evictAll();
+				}
+			});
+		}
 	}
 	
 	@Override
@@ -36,7 +72,15 @@ public class ExternalDirectoryIconResolver implements IconResolver {
 		} else {
 			File iconFile = new File(directory, key);
 			if (iconFile.exists() && iconFile.canRead()) {
-				Bitmap iconBitmap = BitmapFactory.decodeFile(iconFile.getAbsolutePath());
+				String path = iconFile.getAbsolutePath();
+				Bitmap iconBitmap = cache.get(path);
+				if (iconBitmap == null) {
+					iconBitmap = BitmapFactory.decodeFile(path);
+					if (iconBitmap == null) {
+						return null;
+					}
+					cache.put(path, iconBitmap);
+				}
 				BitmapDrawable iconDrawable = new BitmapDrawable(iconBitmap);
 				return iconDrawable;
 			} else {
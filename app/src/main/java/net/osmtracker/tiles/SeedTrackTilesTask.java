@@ -0,0 +1,325 @@
+package net.osmtracker.tiles;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.osmtracker.R;
+import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.util.MemoryBudgetManager;
+import net.osmtracker.util.TileCoverage;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.modules.DatabaseFileArchive;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.modules.TileDownloader;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.util.MapTileIndex;
+
+import android.app.Activity;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Downloads the map tiles around a track into the osmdroid tile cache,
+ * so that the track can be reviewed on the map without network.
+ *<P>
+ * Tiles cover the track bounding box up to {@link #BBOX_MAX_ZOOM}, and
+ * a corridor of {@link #CORRIDOR_BUFFER} meters around the path above.
+ * Tiles already in the cache are skipped. Download stops when the cache
+ * would grow beyond the size osmdroid trims it to, or beyond the free space.
+ *<P>
+ * Tiles are fetched through the osmdroid downloader, with its user agent
+ * and expiration handling. Bulk downloading is forbidden by the
+ * OpenStreetMap tile usage policy, so sources served by its tile servers
+ * are refused, see {@link #isSeedingAllowed(OnlineTileSourceBase)}.
+ */
+public class SeedTrackTilesTask extends AsyncTask<Void, Integer, Integer> {
+
+	private static final String TAG = SeedTrackTilesTask.class.getSimpleName();
+
+	/**
+	 * Max. zoom level at which the whole bounding box is downloaded
+	 */
+	private static final int BBOX_MAX_ZOOM = 12;
+
+	/**
+	 * Width of the corridor on each side of the track, in meters
+	 */
+	private static final double CORRIDOR_BUFFER = 250;
+
+	/**
+	 * Number of concurrent downloads. Kept low as
+	 * public tile servers forbid heavy usage.
+	 */
+	private static final int NB_THREADS = 2;
+
+	/**
+	 * Host of the OpenStreetMap tile servers, which forbid bulk downloading
+	 */
+	private static final String OSM_TILE_HOST = "tile.openstreetmap.org";
+
+	/**
+	 * Result when the storage budget was reached
+	 */
+	private static final int RESULT_BUDGET_REACHED = -1;
+
+	/**
+	 * Application context, as the task may outlive the activity
+	 */
+	private final Context context;
+	private final WeakReference<Activity> activity;
+	private final long trackId;
+	private final OnlineTileSourceBase tileSource;
+	private final int minZoom;
+	private final int maxZoom;
+
+	private WeakReference<ProgressDialog> dialog;
+
+	/**
+	 * Number of tiles that couldn't be downloaded
+	 */
+	private int nbFailed = 0;
+
+	/**
+	 * @param tileSource Tile source to download from
+	 * @param minZoom Lowest zoom level to download
+	 * @param maxZoom Highest zoom level to download
+	 */
+	public SeedTrackTilesTask(Activity activity, long trackId, OnlineTileSourceBase tileSource, int minZoom, int maxZoom) {
+		this.context = activity.getApplicationContext();
+		this.activity = new WeakReference<Activity>(activity);
+		this.trackId = trackId;
+		this.tileSource = tileSource;
+		this.minZoom = minZoom;
+		this.maxZoom = maxZoom;
+	}
+
+	@Override
+	protected void onPreExecute() {
+		ProgressDialog progress = new ProgressDialog(activity.get());
+		progress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		progress.setIndeterminate(true);
+		progress.setMessage(context.getResources().getString(R.string.displaytrackmap_seeding));
+		progress.setCancelable(true);
+		progress.setOnCancelListener(new DialogInterface.OnCancelListener() {
+			@Override
+			public void onCancel(DialogInterface d) {
+				cancel(true);
+			}
+		});
+		progress.show();
+		dialog = new WeakReference<ProgressDialog>(progress);
+	}
+
+	@Override
+	protected Integer doInBackground(Void... params) {
+		final SqlTileWriter writer = new SqlTileWriter();
+		try {
+			long[] tiles = listMissingTiles();
+			publishProgress(0, tiles.length);
+
+			File cache = Configuration.getInstance().getOsmdroidTileCache();
+			final long budget = Math.min(Configuration.getInstance().getTileFileSystemCacheTrimBytes(),
+					MemoryBudgetManager.getAvailableSpace(cache));
+			// Tiles are saved in the database file, so the cache grows as it does
+			final File database = new File(cache, SqlTileWriter.DATABASE_FILENAME);
+			final long initialSize = MemoryBudgetManager.directorySize(cache) - database.length();
+			final TileDownloader downloader = new TileDownloader();
+
+			ExecutorService executor = Executors.newFixedThreadPool(NB_THREADS);
+			CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+			for (final long tile : tiles) {
+				completion.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						if (initialSize + database.length() >= budget) {
+							return false;
+						}
+						return downloader.downloadTile(tile, writer, tileSource) != null;
+					}
+				});
+			}
+
+			int done = 0;
+			try {
+				for (int i = 0; i < tiles.length && !isCancelled(); i++) {
+					try {
+						if (!completion.take().get()) {
+							nbFailed++;
+						}
+					} catch (ExecutionException ee) {
+						Log.w(TAG, "Tile download failed", ee.getCause());
+						nbFailed++;
+					}
+					publishProgress(++done);
+					if (initialSize + database.length() >= budget) {
+						Log.i(TAG, "Storage budget of " + budget + " bytes reached");
+						return RESULT_BUDGET_REACHED;
+					}
+				}
+			} catch (InterruptedException ie) {
+				Log.v(TAG, "Interrupted");
+			} finally {
+				executor.shutdownNow();
+			}
+			return done - nbFailed;
+		} finally {
+			writer.onDetach();
+		}
+	}
+
+	@Override
+	protected void onProgressUpdate(Integer... values) {
+		ProgressDialog dialog = this.dialog.get();
+		if (dialog == null) {
+			return;
+		}
+		if (values.length > 1) {
+			dialog.setIndeterminate(false);
+			dialog.setMax(values[1]);
+		}
+		dialog.setProgress(values[0]);
+	}
+
+	@Override
+	protected void onPostExecute(Integer result) {
+		dismissDialog();
+		String message;
+		if (result == RESULT_BUDGET_REACHED) {
+			message = context.getResources().getString(R.string.displaytrackmap_seeding_budget_reached);
+		} else {
+			message = MessageFormat.format(context.getResources().getString(R.string.displaytrackmap_seeding_done),
+					result, nbFailed);
+		}
+		Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+	}
+
+	@Override
+	protected void onCancelled() {
+		dismissDialog();
+	}
+
+	/**
+	 * Dismisses the progress dialog, unless its activity is gone
+	 */
+	private void dismissDialog() {
+		ProgressDialog dialog = this.dialog.get();
+		Activity a = activity.get();
+		if (dialog != null && a != null && !a.isFinishing()) {
+			dialog.dismiss();
+		}
+	}
+
+	/**
+	 * @return Whether the tiles of a source can be downloaded in bulk, i.e.
+	 * it isn't served by the OpenStreetMap tile servers
+	 */
+	public static boolean isSeedingAllowed(OnlineTileSourceBase tileSource) {
+		try {
+			String host = new URL(tileSource.getTileURLString(MapTileIndex.getTileIndex(0, 0, 0))).getHost();
+			return !(host.equals(OSM_TILE_HOST) || host.endsWith("." + OSM_TILE_HOST));
+		} catch (MalformedURLException mue) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return Tiles to download for the track, excluding the ones already in cache
+	 */
+	private long[] listMissingTiles() {
+		Cursor c = context.getContentResolver().query(TrackContentProvider.trackPointsUri(trackId),
+				new String[] {TrackContentProvider.Schema.COL_LATITUDE, TrackContentProvider.Schema.COL_LONGITUDE},
+				null, null, TrackContentProvider.Schema.COL_ID + " asc");
+		int count = c.getCount();
+		double[] lats = new double[count];
+		double[] lons = new double[count];
+		double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+		for (int i = 0; c.moveToNext(); i++) {
+			lats[i] = c.getDouble(0);
+			lons[i] = c.getDouble(1);
+			minLat = Math.min(minLat, lats[i]);
+			minLon = Math.min(minLon, lons[i]);
+			maxLat = Math.max(maxLat, lats[i]);
+			maxLon = Math.max(maxLon, lons[i]);
+		}
+		c.close();
+		if (count == 0) {
+			return new long[0];
+		}
+
+		long[] missing = new long[0];
+		int nbMissing = 0;
+		for (int zoom = Math.max(minZoom, tileSource.getMinimumZoomLevel());
+				zoom <= Math.min(maxZoom, tileSource.getMaximumZoomLevel()); zoom++) {
+			long[] tiles = (zoom <= BBOX_MAX_ZOOM)
+					? TileCoverage.boundingBox(minLat, minLon, maxLat, maxLon, zoom)
+					: TileCoverage.corridor(lats, lons, count, CORRIDOR_BUFFER, zoom);
+			Set<Long> cached = cachedTiles(zoom);
+			missing = Arrays.copyOf(missing, nbMissing + tiles.length);
+			for (long tile : tiles) {
+				if (!cached.contains(SqlTileWriter.getIndex(tile))) {
+					missing[nbMissing++] = tile;
+				}
+			}
+		}
+		Log.v(TAG, nbMissing + " tiles to download for track #" + trackId);
+		return Arrays.copyOf(missing, nbMissing);
+	}
+
+	/**
+	 * Lists the tiles of a zoom level in the cache with one query, instead of
+	 * one query per tile. Tile keys of a zoom level are contiguous.
+	 * @return Cache keys of the tiles of the tile source at the zoom level
+	 */
+	private Set<Long> cachedTiles(int zoom) {
+		Set<Long> cached = new HashSet<Long>();
+		File database = new File(Configuration.getInstance().getOsmdroidTileCache(), SqlTileWriter.DATABASE_FILENAME);
+		if (!database.exists()) {
+			return cached;
+		}
+		long last = (1L << zoom) - 1;
+		SQLiteDatabase db = null;
+		Cursor c = null;
+		try {
+			db = SQLiteDatabase.openDatabase(database.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+			c = db.query(DatabaseFileArchive.TABLE, new String[] {DatabaseFileArchive.COLUMN_KEY},
+					DatabaseFileArchive.COLUMN_PROVIDER + " = ? and " + DatabaseFileArchive.COLUMN_KEY + " between ? and ?",
+					new String[] {tileSource.name(), Long.toString(SqlTileWriter.getIndex(0, 0, zoom)),
+							Long.toString(SqlTileWriter.getIndex(last, last, zoom))},
+					null, null, null);
+			while (c.moveToNext()) {
+				cached.add(c.getLong(0));
+			}
+		} catch (SQLiteException se) {
+			Log.w(TAG, "Couldn't list the cached tiles", se);
+		} finally {
+			if (c != null) {
+				c.close();
+			}
+			if (db != null) {
+				db.close();
+			}
+		}
+		return cached;
+	}
+
+}
@@ -0,0 +1,137 @@
+package net.osmtracker.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer of coordinates, stored as a structure of primitive arrays
+ * rather than one object per point.
+ *<P>
+ * Coordinates are kept in microdegrees, along with the Mercator Y of each
+ * latitude so that it's computed only once per point whatever the number of
+ * projections. The bounding box is maintained as points are added.
+ */
+public class CoordinateBuffer {
+
+	/**
+	 * Default initial capacity
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Coordinates, in microdegrees
+	 */
+	private int[] longitudesE6;
+	private int[] latitudesE6;
+
+	/**
+	 * Mercator Y of each latitude, see {@link MercatorProjection#latitudeToMercatorY(double)}.
+	 * A float would only be precise to about 0.4 m at mid-latitudes, visible when zoomed in.
+	 */
+	private double[] mercatorY;
+
+	private int size = 0;
+
+	/**
+	 * Bounding box, in degrees
+	 */
+	private double minLat, minLon, maxLat, maxLon;
+
+	public CoordinateBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Initial capacity
+	 */
+	public CoordinateBuffer(int capacity) {
+		capacity = Math.max(1, capacity);
+		longitudesE6 = new int[capacity];
+		latitudesE6 = new int[capacity];
+		mercatorY = new double[capacity];
+	}
+
+	/**
+	 * Appends a point.
+	 * @param longitude Longitude, in degrees
+	 * @param latitude Latitude, in degrees
+	 * @return true if the point is outside of the previous bounding box
+	 */
+	public boolean add(double longitude, double latitude) {
+		if (size == longitudesE6.length) {
+			int capacity = size * 2;
+			longitudesE6 = Arrays.copyOf(longitudesE6, capacity);
+			latitudesE6 = Arrays.copyOf(latitudesE6, capacity);
+			mercatorY = Arrays.copyOf(mercatorY, capacity);
+		}
+		longitudesE6[size] = (int) Math.round(longitude * 1e6);
+		latitudesE6[size] = (int) Math.round(latitude * 1e6);
+		mercatorY[size] = MercatorProjection.latitudeToMercatorY(latitude);
+
+		boolean expanded;
+		if (size == 0) {
+			minLon = maxLon = longitude;
+			minLat = maxLat = latitude;
+			expanded = true;
+		} else {
+			expanded = longitude < minLon || longitude > maxLon || latitude < minLat || latitude > maxLat;
+			if (expanded) {
+				minLon = Math.min(minLon, longitude);
+				maxLon = Math.max(maxLon, longitude);
+				minLat = Math.min(minLat, latitude);
+				maxLat = Math.max(maxLat, latitude);
+			}
+		}
+		size++;
+		return expanded;
+	}
+
+	/**
+	 * Removes all points, keeping the allocated capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Current capacity, i.e. number of points that can be held without growing
+	 */
+	public int capacity() {
+		return longitudesE6.length;
+	}
+
+	public double getLongitude(int i) {
+		return longitudesE6[i] / 1e6;
+	}
+
+	public double getLatitude(int i) {
+		return latitudesE6[i] / 1e6;
+	}
+
+	/**
+	 * @return Cached Mercator Y of the point latitude
+	 */
+	public double getMercatorY(int i) {
+		return mercatorY[i];
+	}
+
+	public double getMinLatitude() {
+		return minLat;
+	}
+
+	public double getMinLongitude() {
+		return minLon;
+	}
+
+	public double getMaxLatitude() {
+		return maxLat;
+	}
+
+	public double getMaxLongitude() {
+		return maxLon;
+	}
+
+}
@@ -0,0 +1,164 @@
+package net.osmtracker.util;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Compact text form of a line, using the Google polyline algorithm:
+ * coordinates rounded to 1e-5 degrees, stored as deltas from the previous
+ * point, as variable length printable characters. A point usually takes
+ * 4 to 8 characters.
+ *<P>
+ * Used to store a simplified overview of each track (see {@link #simplify(CoordinateBuffer, int)}),
+ * to draw it without reading the track points.
+ */
+public final class EncodedPolyline {
+
+	/**
+	 * Precision of the encoded coordinates
+	 */
+	private static final double FACTOR = 1e5;
+
+	private EncodedPolyline() {
+	}
+
+	/**
+	 * Encodes some of the points of a line.
+	 * @param coords Points of the line
+	 * @param indices Index of the points to encode, in order
+	 * @return Encoded line
+	 */
+	public static String encode(CoordinateBuffer coords, int[] indices) {
+		StringBuilder sb = new StringBuilder(indices.length * 8);
+		long prevLat = 0, prevLon = 0;
+		for (int i : indices) {
+			long lat = Math.round(coords.getLatitude(i) * FACTOR);
+			long lon = Math.round(coords.getLongitude(i) * FACTOR);
+			encodeValue(lat - prevLat, sb);
+			encodeValue(lon - prevLon, sb);
+			prevLat = lat;
+			prevLon = lon;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes a line.
+	 * @param encoded Line encoded by {@link #encode(CoordinateBuffer, int[])}
+	 * @param out Buffer the points are appended to
+	 */
+	public static void decode(String encoded, CoordinateBuffer out) {
+		int index = 0;
+		long lat = 0, lon = 0;
+		int length = encoded.length();
+		long[] result = new long[1];
+		while (index < length) {
+			index = decodeValue(encoded, index, result);
+			lat += result[0];
+			if (index >= length) {
+				break;
+			}
+			index = decodeValue(encoded, index, result);
+			lon += result[0];
+			out.add(lon / FACTOR, lat / FACTOR);
+		}
+	}
+
+	/**
+	 * Selects the points that best keep the shape of a line, by splitting the
+	 * segment that is farthest from the line first (Douglas-Peucker, stopped
+	 * at a number of points rather than at a distance).
+	 * @param coords Points of the line
+	 * @param maxPoints Max. number of points to keep, at least 2
+	 * @return Index of the points kept, in order
+	 */
+	public static int[] simplify(CoordinateBuffer coords, int maxPoints) {
+		int n = coords.size();
+		if (n <= maxPoints) {
+			int[] all = new int[n];
+			for (int i = 0; i < n; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[n - 1] = true;
+		int kept = 2;
+
+		// Segments to split: distance to the farthest point, start, end, farthest point
+		PriorityQueue<double[]> segments = new PriorityQueue<double[]>(maxPoints, new Comparator<double[]>() {
+			@Override
+			public int compare(double[] lhs, double[] rhs) {
+				return Double.compare(rhs[0], lhs[0]);
+			}
+		});
+		addSegment(coords, 0, n - 1, segments);
+		while (kept < maxPoints && !segments.isEmpty()) {
+			double[] segment = segments.poll();
+			if (segment[0] <= 0) {
+				// Remaining points are on the line
+				break;
+			}
+			int from = (int) segment[1], to = (int) segment[2], farthest = (int) segment[3];
+			keep[farthest] = true;
+			kept++;
+			addSegment(coords, from, farthest, segments);
+			addSegment(coords, farthest, to, segments);
+		}
+
+		int[] indices = new int[kept];
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				indices[k++] = i;
+			}
+		}
+		return indices;
+	}
+
+	private static void addSegment(CoordinateBuffer coords, int from, int to, PriorityQueue<double[]> segments) {
+		if (to - from < 2) {
+			return;
+		}
+		double max = -1;
+		int farthest = from + 1;
+		for (int i = from + 1; i < to; i++) {
+			double d = GeoUtils.distanceToSegment(coords.getLatitude(i), coords.getLongitude(i),
+					coords.getLatitude(from), coords.getLongitude(from), coords.getLatitude(to), coords.getLongitude(to));
+			if (d > max) {
+				max = d;
+				farthest = i;
+			}
+		}
+		segments.add(new double[] {max, from, to, farthest});
+	}
+
+	private static void encodeValue(long value, StringBuilder sb) {
+		long v = (value < 0) ? ~(value << 1) : (value << 1);
+		while (v >= 0x20) {
+			sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+			v >>= 5;
+		}
+		sb.append((char) (v + 63));
+	}
+
+	/**
+	 * @param result Receives the decoded value
+	 * @return Index after the decoded value
+	 */
+	private static int decodeValue(String encoded, int index, long[] result) {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = encoded.charAt(index++) - 63;
+			value |= (long) (b & 0x1f) << shift;
+			shift += 5;
+		} while (b >= 0x20 && index < encoded.length());
+		result[0] = ((value & 1) != 0) ? ~(value >> 1) : (value >> 1);
+		return index;
+	}
+
+}
@@ -0,0 +1,91 @@
+package net.osmtracker.util;
+
+/**
+ * Geodesic helpers working on plain latitude / longitude values,
+ * so they can be used without instantiating Location objects.
+ */
+public final class GeoUtils {
+
+	/**
+	 * Mean earth radius, in meters.
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/**
+	 * Computes the great-circle distance between two points.
+	 *
+	 * @param lat1 Latitude of first point, in degrees
+	 * @param lon1 Longitude of first point, in degrees
+	 * @param lat2 Latitude of second point, in degrees
+	 * @param lon2 Longitude of second point, in degrees
+	 * @return Distance in meters
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+				* Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	/**
+	 * Computes the initial bearing from a point to another one.
+	 *
+	 * @return Bearing in degrees, in the range [0, 360[
+	 */
+	public static float bearing(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double y = Math.sin(dLon) * Math.cos(phi2);
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLon);
+		float bearing = (float) Math.toDegrees(Math.atan2(y, x));
+		return (bearing + 360) % 360;
+	}
+
+	/**
+	 * @return The absolute difference between two bearings, in the range [0, 180]
+	 */
+	public static float angleDifference(float bearing1, float bearing2) {
+		float diff = Math.abs(bearing1 - bearing2) % 360;
+		return (diff > 180) ? 360 - diff : diff;
+	}
+
+	/**
+	 * Computes the distance between a point and a segment. Uses a local
+	 * equirectangular approximation, which is accurate enough for the
+	 * short segments found between two track points.
+	 *
+	 * @param lat Latitude of the point
+	 * @param lon Longitude of the point
+	 * @param lat1 Latitude of segment start
+	 * @param lon1 Longitude of segment start
+	 * @param lat2 Latitude of segment end
+	 * @param lon2 Longitude of segment end
+	 * @return Distance in meters
+	 */
+	public static double distanceToSegment(double lat, double lon, double lat1, double lon1, double lat2, double lon2) {
+		double cosLat = Math.cos(Math.toRadians(lat));
+		// Project into meters, relative to the segment start
+		double x = Math.toRadians(lon - lon1) * cosLat * EARTH_RADIUS;
+		double y = Math.toRadians(lat - lat1) * EARTH_RADIUS;
+		double dx = Math.toRadians(lon2 - lon1) * cosLat * EARTH_RADIUS;
+		double dy = Math.toRadians(lat2 - lat1) * EARTH_RADIUS;
+
+		double len2 = dx * dx + dy * dy;
+		double t = 0;
+		if (len2 > 0) {
+			t = (x * dx + y * dy) / len2;
+			if (t < 0) {
+				t = 0;
+			} else if (t > 1) {
+				t = 1;
+			}
+		}
+		double ex = x - t * dx;
+		double ey = y - t * dy;
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+
+}
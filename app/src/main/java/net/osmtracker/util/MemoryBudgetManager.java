@@ -0,0 +1,295 @@
+package net.osmtracker.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.config.IConfigurationProvider;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+/**
+ * Sizes the memory caches of the app from the heap available to it
+ * ({@link ActivityManager#getMemoryClass()}), and shrinks them when the
+ * system asks to trim memory.
+ *<P>
+ * Caches register with a priority. On {@link #onTrimMemory(int)}, caches are
+ * trimmed in priority order, more of them as the level gets critical:
+ * map tiles first (they can be decoded again from the file cache), then
+ * geometry (track layers, points, waypoint groups), then icons.
+ */
+public class MemoryBudgetManager implements ComponentCallbacks2 {
+
+	private static final String TAG = MemoryBudgetManager.class.getSimpleName();
+
+	/**
+	 * Cache priorities, in trimming order
+	 */
+	public static final int PRIORITY_TILES = 0;
+	public static final int PRIORITY_GEOMETRY = 1;
+	public static final int PRIORITY_ICONS = 2;
+
+	/**
+	 * Share of the heap for the map tiles memory cache (1/4)
+	 */
+	private static final int TILE_CACHE_SHARE = 4;
+
+	/**
+	 * Share of the heap for the cache of tiles drawn over the map (1/8)
+	 */
+	private static final int OVERLAY_TILE_CACHE_SHARE = 8;
+
+	/**
+	 * Share of the heap for the icons cache (1/16)
+	 */
+	private static final int ICON_CACHE_SHARE = 16;
+
+	/**
+	 * Min. number of tiles kept in memory, to cover a screen
+	 */
+	private static final int MIN_TILES = 9;
+
+	/**
+	 * Max. size of the tiles file cache, and size it's trimmed to
+	 */
+	private static final long TILE_FILE_CACHE_MAX_BYTES = 600L * 1024 * 1024;
+	private static final long TILE_FILE_CACHE_TRIM_BYTES = 500L * 1024 * 1024;
+
+	/**
+	 * A cache that can release memory
+	 */
+	public interface Cache {
+		/**
+		 * @return Current size, in bytes
+		 */
+		long getSize();
+
+		/**
+		 * Releases as much memory as possible. Called on the main thread.
+		 */
+		void trim();
+	}
+
+	private static class Entry {
+		final String name;
+		final int priority;
+		final Cache cache;
+
+		Entry(String name, int priority, Cache cache) {
+			this.name = name;
+			this.priority = priority;
+			this.cache = cache;
+		}
+	}
+
+	private static MemoryBudgetManager instance;
+
+	/**
+	 * Registered caches, sorted by priority. Guarded by itself.
+	 */
+	private final List<Entry> caches = new ArrayList<Entry>();
+
+	/**
+	 * Heap available to the app, in bytes
+	 */
+	private final long heapBudget;
+
+	private final float density;
+
+	/**
+	 * Screen size, in pixels
+	 */
+	private final int screenWidth;
+	private final int screenHeight;
+
+	/**
+	 * @return The manager, registered for memory callbacks on first call
+	 */
+	public static synchronized MemoryBudgetManager getInstance(Context context) {
+		if (instance == null) {
+			Context app = context.getApplicationContext();
+			instance = new MemoryBudgetManager(app);
+			app.registerComponentCallbacks(instance);
+		}
+		return instance;
+	}
+
+	private MemoryBudgetManager(Context context) {
+		ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+		heapBudget = am.getMemoryClass() * 1024L * 1024L;
+		DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+		density = metrics.density;
+		screenWidth = metrics.widthPixels;
+		screenHeight = metrics.heightPixels;
+		Log.v(TAG, "Heap budget: " + heapBudget + " bytes");
+	}
+
+	/**
+	 * Registers a cache
+	 * @param name Name, for {@link #getUsage()}
+	 * @param priority One of the PRIORITY_* constants
+	 */
+	public void register(String name, int priority, Cache cache) {
+		synchronized (caches) {
+			caches.add(new Entry(name, priority, cache));
+			Collections.sort(caches, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry lhs, Entry rhs) {
+					return lhs.priority - rhs.priority;
+				}
+			});
+		}
+	}
+
+	public void unregister(Cache cache) {
+		synchronized (caches) {
+			for (int i = caches.size() - 1; i >= 0; i--) {
+				if (caches.get(i).cache == cache) {
+					caches.remove(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Heap available to the app, in bytes
+	 */
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	/**
+	 * @return Size to use for the icons cache, in bytes
+	 */
+	public int getIconCacheBudget() {
+		return (int) (heapBudget / ICON_CACHE_SHARE);
+	}
+
+	/**
+	 * @return Size to use for a cache of tiles drawn over the map, in bytes,
+	 * at least enough for the tiles covering the screen
+	 * @param tilePixels Width of a tile, in pixels, tiles being ARGB_8888 bitmaps
+	 */
+	public int getOverlayTileCacheBudget(int tilePixels) {
+		long screenTiles = (long) (screenWidth / tilePixels + 2) * (screenHeight / tilePixels + 2);
+		long budget = Math.max(screenTiles * tilePixels * tilePixels * 4, heapBudget / OVERLAY_TILE_CACHE_SHARE);
+		return (int) Math.min(Integer.MAX_VALUE, budget);
+	}
+
+	/**
+	 * @return Size of a map tile in memory, in bytes, tiles being scaled to the screen density
+	 */
+	public long getTileBytes() {
+		long tileSize = Math.round(256 * density);
+		return tileSize * tileSize * 4;
+	}
+
+	/**
+	 * Sizes the osmdroid tile caches. Must be called
+	 * before creating the map view.
+	 * @param cacheDir Directory where the tile files are stored, created if needed
+	 */
+	public void configureTileCaches(File cacheDir) {
+		IConfigurationProvider config = Configuration.getInstance();
+		long nbTiles = Math.max(MIN_TILES, heapBudget / TILE_CACHE_SHARE / getTileBytes());
+		config.setCacheMapTileCount((short) Math.min(Short.MAX_VALUE, nbTiles));
+
+		// Keep the file cache to a quarter of the space it can use, i.e. the free
+		// space and its own size, so that the limit doesn't shrink as it grows
+		long max = Math.min(TILE_FILE_CACHE_MAX_BYTES, getAvailableSpace(cacheDir) / 4);
+		config.setTileFileSystemCacheMaxBytes(max);
+		config.setTileFileSystemCacheTrimBytes(Math.min(TILE_FILE_CACHE_TRIM_BYTES, max * 4 / 5));
+		Log.v(TAG, "Tile caches: " + nbTiles + " tiles in memory, " + max + " bytes of files");
+	}
+
+	/**
+	 * @return Space a file cache can use, in bytes: its size and the usable space left.
+	 * The directory is created if needed, as the usable space of a missing one is 0.
+	 */
+	public static long getAvailableSpace(File cacheDir) {
+		cacheDir.mkdirs();
+		return directorySize(cacheDir) + cacheDir.getUsableSpace();
+	}
+
+	/**
+	 * @return Size of the files in a directory, recursively
+	 */
+	public static long directorySize(File dir) {
+		long size = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.isDirectory() ? directorySize(f) : f.length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return Size of each registered cache, for diagnostics
+	 */
+	public String getUsage() {
+		StringBuilder sb = new StringBuilder();
+		long total = 0;
+		synchronized (caches) {
+			for (Entry e : caches) {
+				long size = e.cache.getSize();
+				total += size;
+				sb.append(e.name).append(": ").append(size / 1024).append(" KiB\n");
+			}
+		}
+		sb.append("Total: ").append(total / 1024).append(" KiB / ")
+			.append(heapBudget / 1024).append(" KiB\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Trims the caches up to a priority
+	 * @param maxPriority Highest priority to trim
+	 */
+	private void trim(int maxPriority) {
+		List<Entry> toTrim = new ArrayList<Entry>();
+		synchronized (caches) {
+			for (Entry e : caches) {
+				if (e.priority <= maxPriority) {
+					toTrim.add(e);
+				}
+			}
+		}
+		for (Entry e : toTrim) {
+			Log.v(TAG, "Trimming " + e.name);
+			e.cache.trim();
+		}
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		Log.v(TAG, "onTrimMemory(" + level + ")");
+		if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+			trim(PRIORITY_ICONS);
+		} else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+			trim(PRIORITY_GEOMETRY);
+		} else {
+			// Running moderate, UI hidden, or background
+			trim(PRIORITY_TILES);
+		}
+	}
+
+	@Override
+	public void onLowMemory() {
+		trim(PRIORITY_ICONS);
+	}
+
+	@Override
+	public void onConfigurationChanged(android.content.res.Configuration newConfig) {
+		// Nothing to do
+	}
+
+}
@@ -44,6 +44,11 @@ public class MercatorProjection {
 	 */
 	private double dimX, dimY;
 
+	/**
+	 * Pixels per unit of projected space, for batch projection
+	 */
+	private double pixelsPerX, pixelsPerY;
+
 	public MercatorProjection(double minLat, double minLon, double maxLat, double maxLon, int w, int h) {
 		width = w;
 		height = h;
@@ -74,6 +79,9 @@ public class MercatorProjection {
 		// Calculate projection dimensions
 		dimX = bottomX - topX;
 		dimY = bottomY - topY;
+		// A single point has no extent, put it on the top left corner
+		pixelsPerX = (dimX > 0) ? width / dimX : 0;
+		pixelsPerY = (dimY > 0) ? height / dimY : 0;
 	}
 
 	/**
@@ -96,6 +104,23 @@ public class MercatorProjection {
 		return out;
 	}
 
+	/**
+	 * Projects a range of coordinates into this projection, without allocating.
+	 * Uses the Mercator Y cached in the buffer.
+	 *
+	 * @param coords Coordinates to project
+	 * @param from Index of the first point to project
+	 * @param to Index after the last point to project
+	 * @param out Projected coordinates, as X,Y pairs: point i is written at
+	 *			out[2*i] and out[2*i+1]. Must be large enough.
+	 */
+	public void projectInto(CoordinateBuffer coords, int from, int to, float[] out) {
+		for (int i = from; i < to; i++) {
+			out[2 * i + X] = (float) ((coords.getLongitude(i) - topX) * pixelsPerX);
+			out[2 * i + Y] = (float) (height - (coords.getMercatorY(i) - topY) * pixelsPerY);
+		}
+	}
+
 	/**
 	 * Convert longitude to X coordinate.
 	 * 
@@ -115,6 +140,17 @@ public class MercatorProjection {
 	 * @return Converted Y coordinate.
 	 */
 	private double convertLatitude(double latitude) {
+		return latitudeToMercatorY(latitude);
+	}
+
+	/**
+	 * Converts latitude to Mercator Y coordinate, in degrees.
+	 * 
+	 * @param latitude
+	 *				Latitude to convert.
+	 * @return Converted Y coordinate.
+	 */
+	public static double latitudeToMercatorY(double latitude) {
 		if (latitude < -MAX_LATITUDE) {
 			latitude = -MAX_LATITUDE;
 		} else if (latitude > MAX_LATITUDE) {
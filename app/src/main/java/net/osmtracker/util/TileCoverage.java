@@ -0,0 +1,130 @@
+package net.osmtracker.util;
+
+import java.util.Arrays;
+
+import org.osmdroid.util.MapTileIndex;
+
+/**
+ * Computes the map tiles covering an area, as
+ * {@link MapTileIndex} values, sorted and without duplicates.
+ */
+public class TileCoverage {
+
+	/**
+	 * Earth circumference at the equator, in meters
+	 */
+	private static final double EARTH_CIRCUMFERENCE = 40075016.686;
+
+	/**
+	 * Tiles collected so far, possibly with duplicates
+	 */
+	private long[] tiles = new long[256];
+	private int size = 0;
+
+	private final int zoom;
+
+	/**
+	 * Number of tiles on each axis at {@link #zoom}
+	 */
+	private final int nbTiles;
+
+	private TileCoverage(int zoom) {
+		this.zoom = zoom;
+		this.nbTiles = 1 << zoom;
+	}
+
+	/**
+	 * Tiles covering a corridor around a path.
+	 * @param latitudes Latitudes of the path points, in degrees
+	 * @param longitudes Longitudes of the path points, in degrees
+	 * @param count Number of points
+	 * @param buffer Width of the corridor on each side of the path, in meters
+	 * @param zoom Zoom level of the tiles
+	 */
+	public static long[] corridor(double[] latitudes, double[] longitudes, int count, double buffer, int zoom) {
+		TileCoverage coverage = new TileCoverage(zoom);
+		// Sample segments every half tile, so that no tile
+		// crossed by the path is skipped
+		double step = 0.5 / coverage.nbTiles;
+		double prevX = 0, prevY = 0;
+		for (int i = 0; i < count; i++) {
+			double x = worldX(longitudes[i]);
+			double y = worldY(latitudes[i]);
+			double b = buffer / (EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(latitudes[i])));
+			if (i == 0) {
+				coverage.addArea(x - b, y - b, x + b, y + b);
+			} else {
+				int nbSteps = (int) Math.ceil(Math.hypot(x - prevX, y - prevY) / step);
+				for (int s = 1; s <= nbSteps; s++) {
+					double sx = prevX + (x - prevX) * s / nbSteps;
+					double sy = prevY + (y - prevY) * s / nbSteps;
+					coverage.addArea(sx - b, sy - b, sx + b, sy + b);
+				}
+			}
+			prevX = x;
+			prevY = y;
+		}
+		return coverage.toArray();
+	}
+
+	/**
+	 * Tiles covering a bounding box.
+	 * @param zoom Zoom level of the tiles
+	 */
+	public static long[] boundingBox(double minLat, double minLon, double maxLat, double maxLon, int zoom) {
+		TileCoverage coverage = new TileCoverage(zoom);
+		coverage.addArea(worldX(minLon), worldY(maxLat), worldX(maxLon), worldY(minLat));
+		return coverage.toArray();
+	}
+
+	/**
+	 * @return Position of a longitude on the map, as a fraction of the world width (0 to 1)
+	 */
+	private static double worldX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * @return Position of a latitude on the map, as a fraction of the world height (0 to 1)
+	 */
+	private static double worldY(double latitude) {
+		return (180 - MercatorProjection.latitudeToMercatorY(latitude)) / 360;
+	}
+
+	/**
+	 * Adds the tiles intersecting an area, given in world fractions.
+	 */
+	private void addArea(double left, double top, double right, double bottom) {
+		int x0 = clamp((int) Math.floor(left * nbTiles));
+		int x1 = clamp((int) Math.floor(right * nbTiles));
+		int y0 = clamp((int) Math.floor(top * nbTiles));
+		int y1 = clamp((int) Math.floor(bottom * nbTiles));
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				if (size == tiles.length) {
+					tiles = Arrays.copyOf(tiles, size * 2);
+				}
+				tiles[size++] = MapTileIndex.getTileIndex(zoom, x, y);
+			}
+		}
+	}
+
+	private int clamp(int tile) {
+		return Math.max(0, Math.min(nbTiles - 1, tile));
+	}
+
+	/**
+	 * @return Collected tiles, sorted and without duplicates
+	 */
+	private long[] toArray() {
+		Arrays.sort(tiles, 0, size);
+		int unique = 0;
+		for (int i = 0; i < size; i++) {
+			if (unique == 0 || tiles[i] != tiles[unique - 1]) {
+				tiles[unique++] = tiles[i];
+			}
+		}
+		return Arrays.copyOf(tiles, unique);
+	}
+
+}
@@ -0,0 +1,267 @@
+package net.osmtracker.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.osmtracker.db.TrackOverviewBuilder;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+/**
+ * Thumbnails of the tracks, drawn from their overview (see {@link TrackOverviewBuilder})
+ * so that the track points are not read.
+ *<P>
+ * Thumbnails are rendered in the background, and cached in memory and as
+ * files. They are keyed by track id and a fingerprint of the overview, so a
+ * thumbnail is drawn again only if its track changed.
+ */
+public class TrackThumbnailCache implements MemoryBudgetManager.Cache {
+
+	private static final String TAG = TrackThumbnailCache.class.getSimpleName();
+
+	/**
+	 * Size of a thumbnail, in dp
+	 */
+	private static final int THUMBNAIL_SIZE_DP = 48;
+
+	/**
+	 * Thumbnail files directory, in the cache directory
+	 */
+	private static final String DIR_NAME = "thumbnails";
+
+	private static final String FILE_EXTENSION = ".png";
+
+	private final ContentResolver contentResolver;
+	private final MemoryBudgetManager memoryBudget;
+	private final LruCache<String, Bitmap> memoryCache;
+	private final File directory;
+	private final int size;
+	private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	/**
+	 * Keys being rendered, and tracks whose overview is being computed.
+	 * Only accessed from the main thread.
+	 */
+	private final Set<String> pending = new HashSet<String>();
+
+	private final HandlerThread thread;
+	private final Handler handler;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	public TrackThumbnailCache(Context context) {
+		contentResolver = context.getContentResolver();
+		float density = context.getResources().getDisplayMetrics().density;
+		size = Math.round(THUMBNAIL_SIZE_DP * density);
+		directory = new File(context.getCacheDir(), DIR_NAME);
+
+		paint.setColor(Color.BLUE);
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeWidth(2 * density);
+		paint.setStrokeJoin(Paint.Join.ROUND);
+		paint.setStrokeCap(Paint.Cap.ROUND);
+
+		memoryBudget = MemoryBudgetManager.getInstance(context);
+		memoryCache = new LruCache<String, Bitmap>(memoryBudget.getIconCacheBudget() / 2) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+		};
+		memoryBudget.register("Track thumbnails", MemoryBudgetManager.PRIORITY_TILES, this);
+
+		thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Displays the thumbnail of a track, rendering it in the background if needed.
+	 * @param view View to display the thumbnail in. Its tag is used to know which
+	 *			thumbnail it's waiting for.
+	 * @param overview Overview of the track, or null if not computed yet: it's then
+	 *			computed, unless the track is being recorded.
+	 * @param active Whether the track is being recorded
+	 */
+	public void load(final ImageView view, final long trackId, final String overview, boolean active) {
+		if (overview == null) {
+			view.setTag(null);
+			view.setImageDrawable(null);
+			final String buildKey = Long.toString(trackId);
+			if (!active && pending.add(buildKey)) {
+				// Track recorded before overviews existed. Once stored, the
+				// track list is notified and binds the track again.
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (TrackOverviewBuilder.update(contentResolver, trackId) != null) {
+							mainHandler.post(new Runnable() {
+								@Override
+								public void run() {
+									pending.remove(buildKey);
+								}
+							});
+						}
+						// else no point: keep it pending, not to read it again
+					}
+				});
+			}
+			return;
+		}
+
+		final String key = trackId + "_" + Integer.toHexString(overview.hashCode());
+		view.setTag(key);
+		Bitmap bitmap = memoryCache.get(key);
+		if (bitmap != null) {
+			view.setImageBitmap(bitmap);
+			return;
+		}
+
+		view.setImageDrawable(null);
+		if (!pending.add(key)) {
+			return;
+		}
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				final Bitmap b = loadOrRender(trackId, key, overview);
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						pending.remove(key);
+						memoryCache.put(key, b);
+						// The view may have been recycled for another track
+						if (key.equals(view.getTag())) {
+							view.setImageBitmap(b);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Stops the rendering thread
+	 */
+	public void close() {
+		memoryBudget.unregister(this);
+		thread.quit();
+	}
+
+	@Override
+	public long getSize() {
+		return memoryCache.size();
+	}
+
+	@Override
+	public void trim() {
+		memoryCache.evictAll();
+	}
+
+	/**
+	 * Reads a thumbnail file, or renders and saves it.
+	 * Runs on the rendering thread.
+	 */
+	private Bitmap loadOrRender(long trackId, String key, String overview) {
+		File file = new File(directory, key + FILE_EXTENSION);
+		if (file.exists()) {
+			Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+
+		Bitmap bitmap = render(overview);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			return bitmap;
+		}
+
+		// Thumbnails of previous versions of the track aren't needed anymore
+		deleteFiles(directory, trackId);
+
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(file);
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to save thumbnail " + file, ioe);
+		} finally {
+			if (fos != null) {
+				try {
+					fos.close();
+				} catch (IOException ioe) {
+					Log.w(TAG, "Unable to close thumbnail " + file, ioe);
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Deletes the thumbnail files of a deleted track
+	 */
+	public static void deleteThumbnails(Context context, long trackId) {
+		deleteFiles(new File(context.getCacheDir(), DIR_NAME), trackId);
+	}
+
+	private static void deleteFiles(File directory, long trackId) {
+		String prefix = trackId + "_";
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.getName().startsWith(prefix)) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws an overview, fitted in the thumbnail
+	 */
+	private Bitmap render(String overview) {
+		CoordinateBuffer coords = new CoordinateBuffer(TrackOverviewBuilder.MAX_POINTS);
+		EncodedPolyline.decode(overview, coords);
+
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		int n = coords.size();
+		if (n == 0) {
+			return bitmap;
+		}
+
+		int margin = Math.round(paint.getStrokeWidth());
+		MercatorProjection projection = new MercatorProjection(coords.getMinLatitude(), coords.getMinLongitude(),
+				coords.getMaxLatitude(), coords.getMaxLongitude(), size - 2 * margin, size - 2 * margin);
+		float[] points = new float[2 * n];
+		projection.projectInto(coords, 0, n, points);
+
+		Canvas canvas = new Canvas(bitmap);
+		canvas.translate(margin, margin);
+		if (n == 1) {
+			canvas.drawPoint(points[0], points[1], paint);
+			return bitmap;
+		}
+		float[] segments = new float[4 * (n - 1)];
+		for (int i = 0; i < n - 1; i++) {
+			System.arraycopy(points, 2 * i, segments, 4 * i, 4);
+		}
+		canvas.drawLines(segments, paint);
+		return bitmap;
+	}
+
+}
@@ -1,25 +1,49 @@
 package net.osmtracker.view;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 
 import net.osmtracker.R;
+import net.osmtracker.db.ChangeNotificationDispatcher;
 import net.osmtracker.db.TrackContentProvider;
-import net.osmtracker.util.ArrayUtils;
+import net.osmtracker.util.CoordinateBuffer;
+import net.osmtracker.util.MemoryBudgetManager;
 import net.osmtracker.util.MercatorProjection;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
+import android.graphics.RectF;
+import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.TextView;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 
-public class DisplayTrackView extends TextView {
+/**
+ * Displays a track without map background.
+ *<P>
+ * Rendering happens on a dedicated thread drawing on the view surface, and
+ * track data is read from the database on a loader thread. The UI thread only
+ * handles gestures. The loader appends new points to pending buffers, which
+ * the render thread drains at the start of each frame, so data can be loaded
+ * while a frame is drawn.
+ */
+public class DisplayTrackView extends SurfaceView implements SurfaceHolder.Callback {
 
 	private static final String TAG = DisplayTrackView.class.getSimpleName();
 
@@ -32,36 +56,90 @@ public class DisplayTrackView extends TextView {
 	 * Width of the scale bar, in pixels.
 	 */
 	private static final int SCALE_WIDTH = 50;
-	
+
 	/**
 	 * Height of left & right small lines to delimit scale (pixels)
 	 */
 	private static final int SCALE_DELIM_HEIGHT = 10;
 
+	/**
+	 * Size of the text, in sp
+	 */
+	private static final float TEXT_SIZE = 14;
+
 	/**
 	 * Formatter for scale information
 	 */
 	private static final DecimalFormat SCALE_FORMAT = new DecimalFormat("0");
 
 	/**
-	 * Coordinates to draw (before projection)
+	 * Max. number of frames per second drawn by the render thread
 	 */
-	private double[][] coords;
+	private static final int MAX_FPS = 30;
 
 	/**
-	 * Array of pixels coordinates to display track
+	 * Projection used to query coordinates
 	 */
-	private int[][] pixels;
-	
+	private static final String[] COORDS_PROJECTION = {
+		TrackContentProvider.Schema.COL_ID,
+		TrackContentProvider.Schema.COL_LONGITUDE,
+		TrackContentProvider.Schema.COL_LATITUDE
+	};
+
 	/**
-	 * Coordinates of waypoints
+	 * Lock guarding data shared between threads: pending points,
+	 * gesture state and the render request flag.
 	 */
-	private double[][] wayPointsCoords;
-	
+	private final Object lock = new Object();
+
+	/**
+	 * Points read by the loader thread, not yet taken by the render thread
+	 */
+	private final CoordinateBuffer pendingTrackPoints = new CoordinateBuffer();
+	private final CoordinateBuffer pendingWayPoints = new CoordinateBuffer(16);
+
 	/**
-	 * Pixels coordinates to display waypoints
+	 * Set when the waypoints were read again in full, so that the render
+	 * thread replaces its own by {@link #pendingWayPoints}
 	 */
-	private int[][] wayPointsPixels;
+	private boolean reloadWayPoints = false;
+
+	/**
+	 * Coordinates to draw (before projection). Owned by the render thread.
+	 */
+	private CoordinateBuffer trackPoints = new CoordinateBuffer();
+
+	/**
+	 * Id of the last track point read from the DB. Owned by the loader thread.
+	 */
+	private long lastTrackPointId = -1;
+
+	/**
+	 * Pixels coordinates to display track, as X,Y pairs
+	 * (see {@link MercatorProjection#projectInto(CoordinateBuffer, int, int, float[])})
+	 */
+	private float[] pixels;
+
+	/**
+	 * Coordinates of waypoints. Owned by the render thread.
+	 */
+	private CoordinateBuffer wayPoints = new CoordinateBuffer(16);
+
+	/**
+	 * Id of the last way point read from the DB. Owned by the loader thread.
+	 */
+	private long lastWayPointId = -1;
+
+	/**
+	 * Pixels coordinates to display waypoints, as X,Y pairs
+	 */
+	private float[] wayPointsPixels;
+
+	/**
+	 * Number of track points and way points already projected
+	 * with the current projection
+	 */
+	private int nbProjectedPoints = 0, nbProjectedWayPoints = 0;
 
 	/**
 	 * The projection used to convert coordinates to pixels.
@@ -72,22 +150,122 @@ public class DisplayTrackView extends TextView {
 	 * Paint used for drawing track.
 	 */
 	private Paint trackPaint = new Paint();
-	
+
+	/**
+	 * Paint used for text and scale.
+	 */
+	private Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	/**
+	 * Background color, from the theme
+	 */
+	private int backgroundColor;
+
+	/**
+	 * Max. number of segments drawn with a single {@link Canvas#drawLines(float[], int, int, Paint)} call
+	 */
+	private static final int LINES_BATCH_SIZE = 512;
+
+	/**
+	 * Segments to draw, as X0,Y0,X1,Y1 quadruplets, re-used between batches
+	 */
+	private final float[] linesBuffer = new float[LINES_BATCH_SIZE * 4];
+
+	/**
+	 * Offscreen layer holding the track drawn so far, so that only new
+	 * segments have to be drawn when a point is added.
+	 */
+	private Bitmap trackLayer;
+	private Canvas trackLayerCanvas;
+
+	/**
+	 * Size of {@link #trackLayer} in bytes, written by the render thread,
+	 * read by the {@link MemoryBudgetManager}
+	 */
+	private volatile long trackLayerSize = 0;
+
+	/**
+	 * Number of track points already drawn on {@link #trackLayer}
+	 */
+	private int nbDrawnPoints = 0;
+
+	/**
+	 * Set when memory is low, to release {@link #trackLayer} on the next frame.
+	 * The track is then drawn directly, until the surface size changes.
+	 */
+	private boolean dropTrackLayer = false;
+
+	/**
+	 * {@link #trackLayer}, as seen by the {@link MemoryBudgetManager}
+	 */
+	private final MemoryBudgetManager.Cache trackLayerCache = new MemoryBudgetManager.Cache() {
+		@Override
+		public long getSize() {
+			return trackLayerSize;
+		}
+
+		@Override
+		public void trim() {
+			synchronized (lock) {
+				dropTrackLayer = true;
+				if (renderThread != null) {
+					renderThread.requestRender(false);
+				}
+			}
+		}
+	};
+
+	/**
+	 * Max. zoom factor, relative to the whole track fitted to the view
+	 */
+	private static final float MAX_ZOOM = 100f;
+
+	/**
+	 * Zoom & pan applied on top of the projected pixels, updated by the UI
+	 * thread. The projection itself is never recomputed while zooming or panning.
+	 */
+	private final Matrix viewMatrix = new Matrix();
+
+	/**
+	 * Current zoom factor of {@link #viewMatrix}
+	 */
+	private float zoom = 1f;
+
+	/**
+	 * Copy of {@link #viewMatrix} and {@link #zoom} for the frame being drawn
+	 */
+	private final Matrix frameMatrix = new Matrix();
+	private final Matrix inverseMatrix = new Matrix();
+	private float frameZoom = 1f;
+
+	/**
+	 * Visible area, in projected pixels, when zoomed
+	 */
+	private final RectF viewport = new RectF();
+
+	/**
+	 * Point re-used when mapping markers position through {@link #frameMatrix}
+	 */
+	private final float[] mappedPoint = new float[2];
+
+	private ScaleGestureDetector scaleGestureDetector;
+	private GestureDetector gestureDetector;
+
 	/**
 	 * Compass bitmap
 	 */
 	private Bitmap compass;
-	
+
 	/**
 	 * Position marker bitmap
 	 */
 	private Bitmap marker;
-	
+
 	/**
 	 * Way point marker Bitmap
 	 */
 	private Bitmap wayPointMarker;
-	
+
 	/**
 	 * Letter to use for meter unit (taken from resources)
 	 */
@@ -97,12 +275,28 @@ public class DisplayTrackView extends TextView {
 	 * Letter to use for indicating North (taken from resources)
 	 */
 	private String northLabel;
-	
+
 	/**
 	 * Current track id
 	 */
 	private long currentTrackId;
-	
+
+	/**
+	 * Thread reading data from the DB, and its handler
+	 */
+	private HandlerThread loaderThread;
+	private Handler loaderHandler;
+
+	/**
+	 * Thread drawing on the surface, while the surface exists. Guarded by {@link #lock}.
+	 */
+	private RenderThread renderThread;
+
+	/**
+	 * Size of the surface. Written by the UI thread, read by the render thread.
+	 */
+	private volatile int surfaceWidth, surfaceHeight;
+
 	/**
 	 * ContentObserver to be notified about any new trackpoint and
 	 * redraw screen
@@ -112,106 +306,413 @@ public class DisplayTrackView extends TextView {
 		public TrackPointContentObserver(Handler handler) {
 			super(handler);
 		}
-		
+
 		@Override
 		public void onChange(boolean selfChange) {
-			// width & height could be = 0 if the view had
-			// not been attached to window & measured when onChange()
-			// is fired.
-			if (getWidth() > 0 && getHeight() > 0) {
-				// Populate new data, and recompute projection
-				populateCoords();
-				projectData(getWidth(), getHeight());
-				// Force view redraw
-				invalidate();
+			// Read new data only, the render thread will project it
+			if (populateTrackPoints()) {
+				requestRender();
 			}
 		}
-		
+
 	}
-	
+
 	/**
 	 * Instance of TrackpointContentObserver
 	 */
 	private TrackPointContentObserver trackpointContentObserver;
 
+	/**
+	 * ContentObserver notified when waypoints are added, changed or deleted
+	 */
+	private class WayPointContentObserver extends ContentObserver {
+
+		public WayPointContentObserver(Handler handler) {
+			super(handler);
+		}
+
+		@Override
+		public void onChange(boolean selfChange) {
+			onChange(selfChange, null);
+		}
+
+		@Override
+		public void onChange(boolean selfChange, Uri uri) {
+			// Insertion: read only the new waypoints. Otherwise waypoints
+			// may have been deleted or moved, read them all, they are few.
+			if (populateWayPoints(ChangeNotificationDispatcher.getFirstId(uri) < 0)) {
+				requestRender();
+			}
+		}
+
+	}
+
+	private WayPointContentObserver wayPointContentObserver;
+
+	/**
+	 * Draws frames when requested, no more than {@link #MAX_FPS} per second.
+	 */
+	private class RenderThread extends Thread {
+
+		private boolean running = true;
+		private boolean renderRequested = true;
+		private boolean sizeChanged = true;
+
+		public RenderThread() {
+			super(TAG + " render");
+		}
+
+		@Override
+		public void run() {
+			long minFrameInterval = 1000 / MAX_FPS;
+			long lastFrame = 0;
+			while (true) {
+				synchronized (lock) {
+					while (running && !renderRequested) {
+						try {
+							lock.wait();
+						} catch (InterruptedException ie) {
+							return;
+						}
+					}
+					if (!running) {
+						return;
+					}
+				}
+
+				// Cap the frame rate, requests arriving meanwhile are merged
+				long wait = lastFrame + minFrameInterval - SystemClock.uptimeMillis();
+				if (wait > 0) {
+					SystemClock.sleep(wait);
+				}
+				lastFrame = SystemClock.uptimeMillis();
+
+				boolean resized, drop;
+				synchronized (lock) {
+					renderRequested = false;
+					resized = sizeChanged;
+					sizeChanged = false;
+					drop = dropTrackLayer;
+					dropTrackLayer = false;
+					takePendingPoints();
+					frameMatrix.set(viewMatrix);
+					frameZoom = zoom;
+				}
+				if (resized) {
+					onSurfaceResized(surfaceWidth, surfaceHeight);
+				}
+				if (drop && trackLayer != null) {
+					trackLayerSize = 0;
+					trackLayer.recycle();
+					trackLayer = null;
+					trackLayerCanvas = null;
+				}
+				projectData(surfaceWidth, surfaceHeight);
+
+				Canvas canvas = getHolder().lockCanvas();
+				if (canvas != null) {
+					try {
+						drawFrame(canvas);
+					} finally {
+						getHolder().unlockCanvasAndPost(canvas);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Requests a new frame. Must be called with {@link DisplayTrackView#lock} held.
+		 */
+		void requestRender(boolean resized) {
+			renderRequested = true;
+			sizeChanged |= resized;
+			lock.notifyAll();
+		}
+
+		/**
+		 * Stops the thread after the current frame.
+		 */
+		void quit() {
+			synchronized (lock) {
+				running = false;
+				lock.notifyAll();
+			}
+		}
+	}
+
 	public DisplayTrackView(Context context) {
 		super(context);
 	}
-	
+
 	public DisplayTrackView(Context context, long trackId) {
 		super(context);
 
 		currentTrackId = trackId;
-		
+
+		// Take colors from the theme, as a TextView would
+		TypedArray a = context.getTheme().obtainStyledAttributes(
+				new int[] {android.R.attr.colorBackground, android.R.attr.textColorPrimary});
+		backgroundColor = a.getColor(0, Color.BLACK);
+		int textColor = a.getColor(1, Color.WHITE);
+		a.recycle();
+
 		// Set text align to center
-		getPaint().setTextAlign(Align.CENTER);
-		
+		textPaint.setTextAlign(Align.CENTER);
+		textPaint.setColor(textColor);
+		textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE,
+				getResources().getDisplayMetrics()));
+
 		// Setup track drawing paint
-		trackPaint.setColor(getCurrentTextColor());
+		trackPaint.setColor(textColor);
 		trackPaint.setStyle(Paint.Style.FILL_AND_STROKE);
-		
+
 		// Retrieve some resources that will be used in drawing
 		meterLabel = getResources().getString(R.string.various_unit_meters);
 		northLabel = getResources().getString(R.string.displaytrack_north);
 		marker = BitmapFactory.decodeResource(getResources(), R.drawable.marker);
 		compass = BitmapFactory.decodeResource(getResources(), android.R.drawable.ic_menu_compass);
 		wayPointMarker = BitmapFactory.decodeResource(getResources(), R.drawable.star);
-		
-		trackpointContentObserver = new TrackPointContentObserver(new Handler());
+
+		// Pinch to zoom, drag to pan, double tap to show the whole track
+		scaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+			@Override
+			public boolean onScale(ScaleGestureDetector detector) {
+				synchronized (lock) {
+					float factor = Math.max(1f / zoom, Math.min(MAX_ZOOM / zoom, detector.getScaleFactor()));
+					zoom *= factor;
+					if (zoom < 1.01f) {
+						// Back to the whole track, also cancels panning
+						resetZoom();
+					} else {
+						viewMatrix.postScale(factor, factor, detector.getFocusX(), detector.getFocusY());
+					}
+				}
+				requestRender();
+				return true;
+			}
+		});
+		gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+			@Override
+			public boolean onDown(MotionEvent e) {
+				return true;
+			}
+
+			@Override
+			public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+				synchronized (lock) {
+					if (zoom > 1f) {
+						viewMatrix.postTranslate(-distanceX, -distanceY);
+					}
+				}
+				requestRender();
+				return true;
+			}
+
+			@Override
+			public boolean onDoubleTap(MotionEvent e) {
+				synchronized (lock) {
+					resetZoom();
+				}
+				requestRender();
+				return true;
+			}
+		});
+
+		getHolder().addCallback(this);
+		MemoryBudgetManager.getInstance(context).register("Track layer",
+				MemoryBudgetManager.PRIORITY_GEOMETRY, trackLayerCache);
+
+		// Read data on the loader thread, starting with what's already in the DB
+		loaderThread = new HandlerThread(TAG + " loader");
+		loaderThread.start();
+		loaderHandler = new Handler(loaderThread.getLooper());
+		trackpointContentObserver = new TrackPointContentObserver(loaderHandler);
 		context.getContentResolver().registerContentObserver(
 				TrackContentProvider.trackPointsUri(currentTrackId),
 				true, trackpointContentObserver);
+		wayPointContentObserver = new WayPointContentObserver(loaderHandler);
+		context.getContentResolver().registerContentObserver(
+				TrackContentProvider.waypointsUri(currentTrackId),
+				true, wayPointContentObserver);
+		// Waypoints deleted by uuid are notified apart from their track
+		context.getContentResolver().registerContentObserver(
+				TrackContentProvider.CONTENT_URI_WAYPOINT_UUID,
+				true, wayPointContentObserver);
+		loaderHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				populateTrackPoints();
+				populateWayPoints(false);
+				requestRender();
+			}
+		});
 	}
 
 	@Override
-	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-		Log.v(TAG, "onSizeChanged: " + w + "," + h + ". Old: " + oldw + "," + oldh);
-		
-		// Populate data from content provider
-		populateCoords();
-		// Project coordinates into 2D screen
-		projectData(w, h);
-	
-		super.onSizeChanged(w, h, oldw, oldh);
+	public void surfaceCreated(SurfaceHolder holder) {
+		synchronized (lock) {
+			renderThread = new RenderThread();
+			renderThread.start();
+		}
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		Log.v(TAG, "surfaceChanged: " + width + "," + height);
+		surfaceWidth = width;
+		surfaceHeight = height;
+		synchronized (lock) {
+			resetZoom();
+			if (renderThread != null) {
+				renderThread.requestRender(true);
+			}
+		}
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		// The surface must not be used anymore once we return
+		RenderThread thread;
+		synchronized (lock) {
+			thread = renderThread;
+			renderThread = null;
+		}
+		if (thread != null) {
+			// Join without the lock, the render thread needs it to finish its frame
+			thread.quit();
+			boolean joined = false;
+			while (!joined) {
+				try {
+					thread.join();
+					joined = true;
+				} catch (InterruptedException ie) {
+					// Try again
+				}
+			}
+		}
 	}
 
 	@Override
 	protected void onDetachedFromWindow() {
 		// Unregister content observer
 		getContext().getContentResolver().unregisterContentObserver(trackpointContentObserver);
+		getContext().getContentResolver().unregisterContentObserver(wayPointContentObserver);
+		MemoryBudgetManager.getInstance(getContext()).unregister(trackLayerCache);
+		if (loaderThread != null) {
+			loaderThread.quit();
+		}
 		super.onDetachedFromWindow();
 	}
-	
+
 	@Override
-	protected void onDraw(Canvas canvas) {
-		super.onDraw(canvas);
+	public boolean onTouchEvent(MotionEvent event) {
+		scaleGestureDetector.onTouchEvent(event);
+		gestureDetector.onTouchEvent(event);
+		return true;
+	}
+
+	/**
+	 * Asks the render thread for a new frame, if it's running.
+	 */
+	private void requestRender() {
+		synchronized (lock) {
+			if (renderThread != null) {
+				renderThread.requestRender(false);
+			}
+		}
+	}
+
+	/**
+	 * Goes back to the whole track fitted to the view.
+	 * Must be called with {@link #lock} held.
+	 */
+	private void resetZoom() {
+		viewMatrix.reset();
+		zoom = 1f;
+	}
+
+	/**
+	 * Moves the points read by the loader into the buffers used for drawing.
+	 * Called by the render thread with {@link #lock} held.
+	 */
+	private void takePendingPoints() {
+		for (int i = 0; i < pendingTrackPoints.size(); i++) {
+			if (trackPoints.add(pendingTrackPoints.getLongitude(i), pendingTrackPoints.getLatitude(i))) {
+				// Track goes out of the current bounds, projection must be recomputed
+				projection = null;
+			}
+		}
+		pendingTrackPoints.clear();
+		if (reloadWayPoints) {
+			wayPoints.clear();
+			nbProjectedWayPoints = 0;
+			reloadWayPoints = false;
+		}
+		for (int i = 0; i < pendingWayPoints.size(); i++) {
+			wayPoints.add(pendingWayPoints.getLongitude(i), pendingWayPoints.getLatitude(i));
+		}
+		pendingWayPoints.clear();
+	}
+
+	/**
+	 * Re-creates the track layer and the projection for a new surface size.
+	 * Called by the render thread.
+	 */
+	private void onSurfaceResized(int w, int h) {
+		projection = null;
+		trackLayerSize = 0;
+		if (trackLayer != null) {
+			trackLayer.recycle();
+			trackLayer = null;
+		}
+		if (w > 0 && h > 0) {
+			trackLayer = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+			trackLayerCanvas = new Canvas(trackLayer);
+			trackLayerSize = (long) trackLayer.getRowBytes() * trackLayer.getHeight();
+		}
+		nbDrawnPoints = 0;
+	}
+
+	/**
+	 * Draws a whole frame. Called by the render thread.
+	 *
+	 * @param canvas
+	 *				Canvas of the surface
+	 */
+	private void drawFrame(Canvas canvas) {
+		canvas.drawColor(backgroundColor);
 
 		// If we have data to paint
-		if (pixels != null && pixels.length > 0) {
-			int length = pixels.length;
-			for (int i = 1; i < length; i++) {
-				// Draw a line between each point
-				canvas.drawLine(
-						PADDING + pixels[i - 1][MercatorProjection.X],
-						PADDING	+ pixels[i - 1][MercatorProjection.Y],
-						PADDING + pixels[i][MercatorProjection.X],
-						PADDING	+ pixels[i][MercatorProjection.Y], trackPaint);
+		if (pixels != null && nbProjectedPoints > 0) {
+			int length = nbProjectedPoints;
+			if (frameZoom > 1f) {
+				// The cached layer is at the fitted scale, draw only what's visible
+				drawZoomedSegments(canvas, length);
+			} else if (trackLayer != null) {
+				// Draw the new segments on the layer, then the whole layer
+				drawSegments(trackLayerCanvas, Math.max(nbDrawnPoints - 1, 0), length);
+				nbDrawnPoints = length;
+				canvas.drawBitmap(trackLayer, 0, 0, null);
+			} else {
+				drawSegments(canvas, 0, length);
 			}
-			
+
 			// Draw a marker for each waypoint
-			if (wayPointsPixels != null && wayPointsPixels.length > 0) {
-				int wpLength = wayPointsPixels.length;
+			if (wayPointsPixels != null && nbProjectedWayPoints > 0) {
+				int wpLength = nbProjectedWayPoints;
 				for (int i = 0; i < wpLength; i++) {
-					canvas.drawBitmap(wayPointMarker,
-							PADDING + wayPointsPixels[i][MercatorProjection.X],
-							PADDING + wayPointsPixels[i][MercatorProjection.Y],
-							this.getPaint());
+					mapPoint(PADDING + wayPointsPixels[2 * i + MercatorProjection.X],
+							PADDING + wayPointsPixels[2 * i + MercatorProjection.Y]);
+					canvas.drawBitmap(wayPointMarker, mappedPoint[MercatorProjection.X],
+							mappedPoint[MercatorProjection.Y], textPaint);
 				}
 			}
 
 			// Draw current position marker
-			canvas.drawBitmap(marker, pixels[length - 1][MercatorProjection.X],
-					pixels[length - 1][MercatorProjection.Y], this.getPaint());
+			mapPoint(pixels[2 * (length - 1) + MercatorProjection.X],
+					pixels[2 * (length - 1) + MercatorProjection.Y]);
+			canvas.drawBitmap(marker, mappedPoint[MercatorProjection.X],
+					mappedPoint[MercatorProjection.Y], textPaint);
 
 			// Draw scale information
 			drawScale(canvas);
@@ -221,109 +722,237 @@ public class DisplayTrackView extends TextView {
 
 	}
 
+	/**
+	 * Draws the track between two points, batching segments
+	 * into {@link Canvas#drawLines(float[], int, int, Paint)} calls.
+	 *
+	 * @param canvas
+	 *				Canvas used to draw
+	 * @param from
+	 *				Index of the first point
+	 * @param to
+	 *				Index after the last point
+	 */
+	private void drawSegments(Canvas canvas, int from, int to) {
+		int count = 0;
+		for (int i = from + 1; i < to; i++) {
+			// One line between each point
+			linesBuffer[count++] = PADDING + pixels[2 * (i - 1) + MercatorProjection.X];
+			linesBuffer[count++] = PADDING + pixels[2 * (i - 1) + MercatorProjection.Y];
+			linesBuffer[count++] = PADDING + pixels[2 * i + MercatorProjection.X];
+			linesBuffer[count++] = PADDING + pixels[2 * i + MercatorProjection.Y];
+			if (count == linesBuffer.length) {
+				canvas.drawLines(linesBuffer, 0, count, trackPaint);
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			canvas.drawLines(linesBuffer, 0, count, trackPaint);
+		}
+	}
+
+	/**
+	 * Draws the track through {@link #frameMatrix}. Segments outside of the
+	 * visible area are skipped, and so are points closer than one screen
+	 * pixel to the previous drawn one.
+	 *
+	 * @param canvas
+	 *				Canvas used to draw
+	 * @param length
+	 *				Number of points to draw
+	 */
+	private void drawZoomedSegments(Canvas canvas, int length) {
+		frameMatrix.invert(inverseMatrix);
+		viewport.set(0, 0, surfaceWidth, surfaceHeight);
+		inverseMatrix.mapRect(viewport);
+		viewport.offset(-PADDING, -PADDING);
+
+		// One screen pixel, in projected pixels
+		float minDistance = 1f / frameZoom;
+
+		canvas.save();
+		canvas.concat(frameMatrix);
+		int count = 0;
+		float lastX = pixels[MercatorProjection.X];
+		float lastY = pixels[MercatorProjection.Y];
+		for (int i = 1; i < length; i++) {
+			float x = pixels[2 * i + MercatorProjection.X];
+			float y = pixels[2 * i + MercatorProjection.Y];
+			if (i < length - 1 && Math.abs(x - lastX) < minDistance && Math.abs(y - lastY) < minDistance) {
+				// Not visible at this scale
+				continue;
+			}
+			if (Math.max(x, lastX) >= viewport.left && Math.min(x, lastX) <= viewport.right
+					&& Math.max(y, lastY) >= viewport.top && Math.min(y, lastY) <= viewport.bottom) {
+				linesBuffer[count++] = PADDING + lastX;
+				linesBuffer[count++] = PADDING + lastY;
+				linesBuffer[count++] = PADDING + x;
+				linesBuffer[count++] = PADDING + y;
+				if (count == linesBuffer.length) {
+					canvas.drawLines(linesBuffer, 0, count, trackPaint);
+					count = 0;
+				}
+			}
+			lastX = x;
+			lastY = y;
+		}
+		if (count > 0) {
+			canvas.drawLines(linesBuffer, 0, count, trackPaint);
+		}
+		canvas.restore();
+	}
+
+	/**
+	 * Maps a point through {@link #frameMatrix}, into {@link #mappedPoint}.
+	 */
+	private void mapPoint(float x, float y) {
+		mappedPoint[MercatorProjection.X] = x;
+		mappedPoint[MercatorProjection.Y] = y;
+		frameMatrix.mapPoints(mappedPoint);
+	}
+
 	/**
 	 * Draw scale information.
-	 * 
+	 *
 	 * @param canvas
 	 *				Canvas used to draw
 	 */
 	private void drawScale(Canvas canvas) {
-		double scale = projection.getScale();
-		Log.v(TAG, "Scale is: " + scale);
+		double scale = projection.getScale() / frameZoom;
+		int width = surfaceWidth;
 
 		// Draw horizontal line
-		canvas.drawLine(getWidth() - PADDING - SCALE_WIDTH, PADDING+SCALE_DELIM_HEIGHT/2, getWidth() - PADDING, PADDING+SCALE_DELIM_HEIGHT/2, this.getPaint());
-		
+		canvas.drawLine(width - PADDING - SCALE_WIDTH, PADDING+SCALE_DELIM_HEIGHT/2, width - PADDING, PADDING+SCALE_DELIM_HEIGHT/2, textPaint);
+
 		// Draw 2 small vertical lines for the bounds
-		canvas.drawLine(getWidth() - PADDING - SCALE_WIDTH, PADDING, getWidth() - PADDING - SCALE_WIDTH,
-				PADDING + SCALE_DELIM_HEIGHT, this.getPaint());
-		canvas.drawLine(getWidth() - PADDING, PADDING, getWidth() - PADDING, PADDING + SCALE_DELIM_HEIGHT, this.getPaint());
-		
+		canvas.drawLine(width - PADDING - SCALE_WIDTH, PADDING, width - PADDING - SCALE_WIDTH,
+				PADDING + SCALE_DELIM_HEIGHT, textPaint);
+		canvas.drawLine(width - PADDING, PADDING, width - PADDING, PADDING + SCALE_DELIM_HEIGHT, textPaint);
+
 		// Draw scale
-		canvas.drawText(SCALE_FORMAT.format(100*1000*scale*SCALE_WIDTH) + meterLabel, getWidth() - PADDING - SCALE_WIDTH / 2,
-				PADDING + SCALE_DELIM_HEIGHT + getPaint().getTextSize(), this.getPaint());
+		canvas.drawText(SCALE_FORMAT.format(100*1000*scale*SCALE_WIDTH) + meterLabel, width - PADDING - SCALE_WIDTH / 2,
+				PADDING + SCALE_DELIM_HEIGHT + textPaint.getTextSize(), textPaint);
 	}
 
 	/**
 	 * Draw various static gfx (Compass ...)
-	 * 
+	 *
 	 * @param canvas
 	 *				Canvas used to draw
 	 */
 	private void drawStatic(Canvas canvas) {
-		canvas.drawBitmap(compass, PADDING, getHeight() - PADDING - compass.getHeight(), null);
-		canvas.drawText(northLabel, PADDING + compass.getWidth() / 2, getHeight() - PADDING - compass.getHeight() - 5,
-				this.getPaint());
+		int height = surfaceHeight;
+		canvas.drawBitmap(compass, PADDING, height - PADDING - compass.getHeight(), null);
+		canvas.drawText(northLabel, PADDING + compass.getWidth() / 2, height - PADDING - compass.getHeight() - 5,
+				textPaint);
 	}
-	
+
 	/**
-	 * Populate coordinates from a cursor to current track Database
+	 * Reads the track points we haven't seen yet from the current
+	 * track Database, into the pending buffer.
+	 * Called on the loader thread.
+	 * @return true if new points were read
 	 */
-	public void populateCoords() {		
-		Cursor c = getContext().getContentResolver().query(
-				TrackContentProvider.trackPointsUri(currentTrackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
-		coords = new double[c.getCount()][2];
-		int i=0;
-		
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(), i++) {
-			coords[i][MercatorProjection.LONGITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE));
-			coords[i][MercatorProjection.LATITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE));
+	private boolean populateTrackPoints() {
+		int nbNewPoints = 0;
+
+		Cursor c = queryNewPoints(TrackContentProvider.trackPointsUri(currentTrackId), lastTrackPointId);
+		// Run the query before locking
+		c.getCount();
+		synchronized (lock) {
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				pendingTrackPoints.add(c.getDouble(1), c.getDouble(2));
+				lastTrackPointId = c.getLong(0);
+				nbNewPoints++;
+			}
 		}
 		c.close();
-		
-		Log.v(TAG, "Extracted " + coords.length + " track points from DB.");
-		
-		c = getContext().getContentResolver().query(
-				TrackContentProvider.waypointsUri(currentTrackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
-		wayPointsCoords = new double[c.getCount()][2];
-		
-		for(c.moveToFirst(), i=0; !c.isAfterLast(); c.moveToNext(), i++) {
-			wayPointsCoords[i][MercatorProjection.LONGITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LONGITUDE));
-			wayPointsCoords[i][MercatorProjection.LATITUDE] = c.getDouble(c.getColumnIndex(TrackContentProvider.Schema.COL_LATITUDE));
+
+		Log.v(TAG, "Extracted " + nbNewPoints + " track points from DB.");
+		return nbNewPoints > 0;
+	}
+
+	/**
+	 * Reads the way points we haven't seen yet, or all of them, into the
+	 * pending buffer. Called on the loader thread.
+	 * @param reload Whether to read all the way points, replacing the ones read before
+	 * @return true if way points were read, or reloaded
+	 */
+	private boolean populateWayPoints(boolean reload) {
+		int nbNewWayPoints = 0;
+
+		Cursor c = queryNewPoints(TrackContentProvider.waypointsUri(currentTrackId), reload ? -1 : lastWayPointId);
+		c.getCount();
+		synchronized (lock) {
+			if (reload) {
+				pendingWayPoints.clear();
+				reloadWayPoints = true;
+				lastWayPointId = -1;
+			}
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				pendingWayPoints.add(c.getDouble(1), c.getDouble(2));
+				lastWayPointId = c.getLong(0);
+				nbNewWayPoints++;
+			}
 		}
 		c.close();
-		
-		Log.v(TAG, "Extracted " + wayPointsCoords.length + " way points from DB.");
+
+		Log.v(TAG, "Extracted " + nbNewWayPoints + " way points from DB.");
+		return reload || nbNewWayPoints > 0;
+	}
+
+	/**
+	 * Queries coordinates of points with an id greater than the given one,
+	 * in id order. Points are inserted as they are recorded, so that's the
+	 * recording order, and reading by increasing id never misses a point.
+	 * @param uri Uri of the points
+	 * @param lastId Id of the last point already read, or -1
+	 * @return Cursor over {@link #COORDS_PROJECTION}
+	 */
+	private Cursor queryNewPoints(Uri uri, long lastId) {
+		return getContext().getContentResolver().query(uri, COORDS_PROJECTION,
+				TrackContentProvider.Schema.SELECTION_AFTER_ID, new String[] {Long.toString(lastId)},
+				TrackContentProvider.Schema.COL_ID + " asc");
 	}
-	
+
 	/**
-	 * Project current coordinates into a 2D screen
+	 * Project current coordinates into a 2D screen. If the projection is still
+	 * valid (same bounds and size), only the points not projected yet are.
+	 * Called by the render thread.
 	 * @param width Width of the display screen
 	 * @param height Height of the display screen
 	 */
-	public void projectData(int width, int height) {
+	private void projectData(int width, int height) {
 		// If we got coordinates, start projecting.
-		if (coords != null && coords.length > 0) {
-			projection = new MercatorProjection(
-					ArrayUtils.findMin(coords, MercatorProjection.LATITUDE),
-					ArrayUtils.findMin(coords, MercatorProjection.LONGITUDE),
-					ArrayUtils.findMax(coords, MercatorProjection.LATITUDE),
-					ArrayUtils.findMax(coords, MercatorProjection.LONGITUDE),
-					width - PADDING * 2, height - PADDING * 2);
-
-			// Project each coordinate into pixels.
-			pixels = new int[coords.length][2];
-			
-			int length = pixels.length;
-			for (int i = 0; i < length; i++) {
-				pixels[i] = projection.project(coords[i][MercatorProjection.LONGITUDE],
-						coords[i][MercatorProjection.LATITUDE]);
+		if (trackPoints.size() > 0 && width > 0 && height > 0) {
+			if (projection == null) {
+				projection = new MercatorProjection(trackPoints.getMinLatitude(), trackPoints.getMinLongitude(),
+						trackPoints.getMaxLatitude(), trackPoints.getMaxLongitude(),
+						width - PADDING * 2, height - PADDING * 2);
+				nbProjectedPoints = 0;
+				nbProjectedWayPoints = 0;
+
+				// Everything moved, the track layer must be redrawn
+				if (trackLayer != null) {
+					trackLayer.eraseColor(Color.TRANSPARENT);
+				}
+				nbDrawnPoints = 0;
 			}
-		
+
+			// Project each new coordinate into pixels.
+			if (pixels == null || pixels.length < trackPoints.size() * 2) {
+				pixels = (pixels == null) ? new float[trackPoints.capacity() * 2] : Arrays.copyOf(pixels, trackPoints.capacity() * 2);
+			}
+			projection.projectInto(trackPoints, nbProjectedPoints, trackPoints.size(), pixels);
+			nbProjectedPoints = trackPoints.size();
+
 			// Same thing for way points, using same projection
-			if (wayPointsCoords != null && wayPointsCoords.length > 0) {
-	
-				// Project each coordinate into pixels.
-				wayPointsPixels = new int[wayPointsCoords.length][2];
-				
-				length = wayPointsPixels.length;
-				for (int i = 0; i < length; i++) {
-					wayPointsPixels[i] = projection.project(wayPointsCoords[i][MercatorProjection.LONGITUDE],
-							wayPointsCoords[i][MercatorProjection.LATITUDE]);
-				}
+			if (wayPointsPixels == null || wayPointsPixels.length < wayPoints.size() * 2) {
+				wayPointsPixels = (wayPointsPixels == null) ? new float[wayPoints.capacity() * 2]
+						: Arrays.copyOf(wayPointsPixels, wayPoints.capacity() * 2);
 			}
+			projection.projectInto(wayPoints, nbProjectedWayPoints, wayPoints.size(), wayPointsPixels);
+			nbProjectedWayPoints = wayPoints.size();
 		}
 	}
 
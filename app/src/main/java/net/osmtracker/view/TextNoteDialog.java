@@ -2,18 +2,16 @@ package net.osmtracker.view;
 
 import java.util.UUID;
 
-import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
 import android.os.Bundle;
 import android.view.WindowManager.LayoutParams;
 import android.widget.EditText;
 
-import net.osmtracker.db.TrackContentProvider;
+import net.osmtracker.service.gps.WayPointCommand;
 
 public class TextNoteDialog extends AlertDialog {
 	
@@ -67,11 +65,8 @@ public class TextNoteDialog extends AlertDialog {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
 				// Track waypoint with user input text
-				Intent intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
-				intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, TextNoteDialog.this.wayPointTrackId);
-				intent.putExtra(OSMTracker.INTENT_KEY_NAME, input.getText().toString());
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, TextNoteDialog.this.wayPointUuid);
-				TextNoteDialog.this.context.sendBroadcast(intent);
+				WayPointCommand.update(TextNoteDialog.this.wayPointTrackId, TextNoteDialog.this.wayPointUuid,
+						input.getText().toString(), null).send(TextNoteDialog.this.context, null);
 			}
 		});
 		
@@ -87,9 +82,7 @@ public class TextNoteDialog extends AlertDialog {
 			@Override
 			public void onCancel(DialogInterface dialog) {
 				// delete the waypoint because user canceled this dialog
-				Intent intent = new Intent(OSMTracker.INTENT_DELETE_WP);
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, TextNoteDialog.this.wayPointUuid);
-				TextNoteDialog.this.context.sendBroadcast(intent);
+				WayPointCommand.delete(TextNoteDialog.this.wayPointUuid).send(TextNoteDialog.this.context, null);
 			}
 		});
 		
@@ -104,11 +97,8 @@ public class TextNoteDialog extends AlertDialog {
 			// there is no UUID set for the waypoint we're working on
 			// so we need to generate a UUID and track this point
 			wayPointUuid = UUID.randomUUID().toString();
-			Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-			intent.putExtra(TrackContentProvider.Schema.COL_TRACK_ID, wayPointTrackId);
-			intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-			intent.putExtra(OSMTracker.INTENT_KEY_NAME, context.getResources().getString(R.string.gpsstatus_record_textnote));
-			context.sendBroadcast(intent);
+			WayPointCommand.track(wayPointTrackId, wayPointUuid,
+					context.getResources().getString(R.string.gpsstatus_record_textnote), null).send(context, null);
 		}
 
 		getWindow().setSoftInputMode(LayoutParams.SOFT_INPUT_STATE_ALWAYS_VISIBLE);
@@ -7,12 +7,11 @@ import java.util.UUID;
 import net.osmtracker.OSMTracker;
 import net.osmtracker.R;
 import net.osmtracker.db.DataHelper;
-import net.osmtracker.db.TrackContentProvider.Schema;
+import net.osmtracker.service.gps.WayPointCommand;
 
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
@@ -147,11 +146,8 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 			// there is no UUID set for the waypoint we're working on
 			// so we need to generate a UUID and track this point
 			wayPointUuid = UUID.randomUUID().toString();
-			Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-			intent.putExtra(Schema.COL_TRACK_ID, wayPointTrackId);
-			intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-			intent.putExtra(OSMTracker.INTENT_KEY_NAME, context.getResources().getString(R.string.wpt_voicerec));
-			context.sendBroadcast(intent);
+			WayPointCommand.track(wayPointTrackId, wayPointUuid,
+					context.getResources().getString(R.string.wpt_voicerec), null).send(context, null);
 		}
 		
 		if (!isRecording) {
@@ -211,11 +207,7 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 	
 				// Still update waypoint, could be useful even without
 				// the voice file.
-				Intent intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
-				intent.putExtra(Schema.COL_TRACK_ID, wayPointTrackId);
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-				intent.putExtra(OSMTracker.INTENT_KEY_LINK, audioFile.getName());
-				context.sendBroadcast(intent);
+				WayPointCommand.update(wayPointTrackId, wayPointUuid, null, audioFile.getName()).send(context, null);
 			} else {
 				Log.w(TAG,"onStart() no suitable audioFile could be created");
 				// The audio file could not be created on the file system
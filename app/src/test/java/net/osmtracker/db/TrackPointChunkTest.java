@@ -0,0 +1,154 @@
+package net.osmtracker.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Encodes chunks of track points and decodes them back.
+ */
+public class TrackPointChunkTest {
+
+	private static final int NB_OPTIONAL = 5;
+	private static final int ALL_OPTIONAL = (1 << NB_OPTIONAL) - 1;
+
+	@Test
+	public void fullChunkRoundTrip() {
+		// A walk in every direction, with gaps in ids and values missing at random
+		Random random = new Random(42);
+		TrackPointChunk chunk = new TrackPointChunk(TrackSealer.CHUNK_POINTS);
+		long id = 1, timestamp = 1500000000000L;
+		int lat = 488583701, lon = 22944813;
+		int[] values = new int[NB_OPTIONAL];
+		for (int p = 0; p < TrackSealer.CHUNK_POINTS; p++) {
+			id += 1 + random.nextInt(3);
+			timestamp += 1000 + random.nextInt(1000) - 500;
+			lat += random.nextInt(2001) - 1000;
+			lon += random.nextInt(2001) - 1000;
+			for (int i = 0; i < NB_OPTIONAL; i++) {
+				values[i] = random.nextInt(7201) - 3600;
+			}
+			chunk.add(id, timestamp, lat, lon, values, random.nextInt(ALL_OPTIONAL + 1));
+		}
+
+		byte[] data = chunk.encode();
+		assertRoundTrip(chunk);
+		// Small deltas take 1 or 2 bytes each
+		assertTrue("Encoded in " + data.length + " bytes", data.length < TrackSealer.CHUNK_POINTS * 16);
+	}
+
+	@Test
+	public void negativeDeltas() {
+		TrackPointChunk chunk = new TrackPointChunk(4);
+		int[] values = {500, -100, 30, 3599, 3};
+		chunk.add(10, 2000, 100, -100, values, ALL_OPTIONAL);
+		values = new int[] {0, -200, 10, 0, 0};
+		chunk.add(11, 1000, -100, -200, values, ALL_OPTIONAL);
+		// Back to the first point, then to the extremes of the coordinates
+		values = new int[] {500, -100, 30, 3599, 3};
+		chunk.add(12, 2000, 100, -100, values, ALL_OPTIONAL);
+		chunk.add(13, 0, -900000000, -1800000000, values, 0);
+
+		assertRoundTrip(chunk);
+		assertEquals(-900000000, chunk.minLatitude);
+		assertEquals(100, chunk.maxLatitude);
+		assertEquals(-1800000000, chunk.minLongitude);
+		assertEquals(-100, chunk.maxLongitude);
+	}
+
+	@Test
+	public void antimeridianCrossing() {
+		// The longitude delta overflows an int, and must wrap back when decoded
+		TrackPointChunk chunk = new TrackPointChunk(3);
+		int[] values = new int[NB_OPTIONAL];
+		chunk.add(1, 0, 0, 1799999999, values, 0);
+		chunk.add(2, 1000, 0, -1799999999, values, 0);
+		chunk.add(3, 2000, 0, 1799999999, values, 0);
+
+		assertRoundTrip(chunk);
+	}
+
+	@Test
+	public void missingOptionalValues() {
+		TrackPointChunk chunk = new TrackPointChunk(5);
+		int speed = 1 << TrackPointChunk.SPEED;
+		int compass = 1 << TrackPointChunk.COMPASS;
+		chunk.add(1, 0, 0, 0, new int[] {120, 0, 0, 0, 0}, speed);
+		chunk.add(2, 1000, 0, 0, new int[NB_OPTIONAL], 0);
+		// Deltas are from the last point that has the value
+		chunk.add(3, 2000, 0, 0, new int[] {90, 0, 0, 1800, 0}, speed | compass);
+		chunk.add(4, 3000, 0, 0, new int[] {0, 0, 0, 1750, 0}, compass);
+		chunk.add(5, 4000, 0, 0, new int[NB_OPTIONAL], 0);
+
+		TrackPointChunk decoded = assertRoundTrip(chunk);
+		assertTrue(decoded.has(0, TrackPointChunk.SPEED));
+		assertFalse(decoded.has(0, TrackPointChunk.COMPASS));
+		assertFalse(decoded.has(1, TrackPointChunk.SPEED));
+		assertEquals(90, decoded.get(2, TrackPointChunk.SPEED));
+		assertEquals(1750, decoded.get(3, TrackPointChunk.COMPASS));
+		assertFalse(decoded.has(4, TrackPointChunk.ELEVATION));
+	}
+
+	@Test
+	public void zigzagVarints() {
+		// A point is its 4 deltas and its flags, without optional values
+		assertEquals(5, encodedSize(0, 0));
+		// Zigzag: -64..63 fit in 1 byte, either sign
+		assertEquals(5, encodedSize(63, 0));
+		assertEquals(5, encodedSize(-64, 0));
+		assertEquals(6, encodedSize(64, 0));
+		assertEquals(6, encodedSize(-65, 0));
+		assertEquals(6, encodedSize(8191, 0));
+		assertEquals(7, encodedSize(-8193, 0));
+		// A 64 bit delta takes 10 bytes
+		assertEquals(14, encodedSize(0, Long.MIN_VALUE));
+		assertEquals(14, encodedSize(0, Long.MAX_VALUE));
+
+		TrackPointChunk chunk = new TrackPointChunk(2);
+		chunk.add(1, Long.MAX_VALUE, 0, 0, new int[NB_OPTIONAL], 0);
+		chunk.add(2, Long.MIN_VALUE, 0, 0, new int[NB_OPTIONAL], 0);
+		assertRoundTrip(chunk);
+	}
+
+	/**
+	 * @return Size of a chunk of one point, encoded
+	 */
+	private static int encodedSize(int latitude, long timestamp) {
+		TrackPointChunk chunk = new TrackPointChunk(1);
+		chunk.add(0, timestamp, latitude, 0, new int[NB_OPTIONAL], 0);
+		assertRoundTrip(chunk);
+		return chunk.encode().length;
+	}
+
+	/**
+	 * Asserts that a chunk is the same once encoded and decoded
+	 * @return The decoded chunk
+	 */
+	private static TrackPointChunk assertRoundTrip(TrackPointChunk chunk) {
+		TrackPointChunk decoded = TrackPointChunk.decode(chunk.encode(), chunk.size);
+		assertEquals(chunk.size, decoded.size);
+		assertArrayEquals(chunk.ids, decoded.ids);
+		assertArrayEquals(chunk.timestamps, decoded.timestamps);
+		assertArrayEquals(chunk.latitudes, decoded.latitudes);
+		assertArrayEquals(chunk.longitudes, decoded.longitudes);
+		assertArrayEquals(chunk.flags, decoded.flags);
+		for (int p = 0; p < chunk.size; p++) {
+			for (int i = 0; i < NB_OPTIONAL; i++) {
+				if (chunk.has(p, i)) {
+					assertEquals("Point " + p + ", value " + i, chunk.get(p, i), decoded.get(p, i));
+				}
+			}
+		}
+		assertEquals(chunk.minLatitude, decoded.minLatitude);
+		assertEquals(chunk.minLongitude, decoded.minLongitude);
+		assertEquals(chunk.maxLatitude, decoded.maxLatitude);
+		assertEquals(chunk.maxLongitude, decoded.maxLongitude);
+		return decoded;
+	}
+
+}
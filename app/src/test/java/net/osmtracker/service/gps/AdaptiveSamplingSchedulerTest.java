@@ -0,0 +1,133 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.osmtracker.util.GeoUtils;
+
+import org.junit.Test;
+
+/**
+ * Replays synthetic tracks, recorded every second, through an
+ * {@link AdaptiveSamplingScheduler} to check how many points it saves and
+ * how far the dropped points are from the resulting path.
+ */
+public class AdaptiveSamplingSchedulerTest {
+
+	private static final long MIN_INTERVAL = 1000;
+	private static final long MAX_INTERVAL = 30000;
+
+	/**
+	 * Meters per degree of latitude
+	 */
+	private static final double METERS_PER_DEGREE = GeoUtils.EARTH_RADIUS * Math.PI / 180;
+
+	/**
+	 * Outcome of a replay.
+	 */
+	private static class Result {
+		/** Number of points in the original track */
+		int total;
+		/** Number of points the scheduler kept */
+		int kept;
+		/** Max. and mean distance (meters) of dropped points to the kept path */
+		double maxError, meanError;
+
+		float getSavedRatio() {
+			return (total > 0) ? 1f - (float) kept / total : 0;
+		}
+	}
+
+	@Test
+	public void straightLineKeepsOnePointPerTargetSpacing() {
+		// 10 m/s eastwards on the equator, for 5 minutes
+		int n = 300;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lons[i] = i * 10 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons, 10f);
+
+		assertEquals(n / 5, result.kept, 2);
+		assertTrue(result.maxError < 0.1);
+	}
+
+	@Test
+	public void stationaryKeepsOnePointPerMaxInterval() {
+		int n = 600;
+		Result result = replay(new double[n], new double[n], 0f);
+
+		// The first fix, then one per max. interval once it's been reached
+		assertTrue(result.kept <= n * 1000 / MAX_INTERVAL + 5);
+		assertTrue(result.getSavedRatio() > 0.9f);
+	}
+
+	@Test
+	public void cornersAreKept() {
+		// 5 m/s around a 200 m square
+		int side = 40;
+		int n = 4 * side + 1;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			int leg = Math.min(i / side, 3);
+			int step = i - leg * side;
+			double x = 0, y = 0;
+			switch (leg) {
+			case 0: x = step; break;
+			case 1: x = side; y = step; break;
+			case 2: x = side - step; y = side; break;
+			case 3: y = side - step; break;
+			}
+			lats[i] = y * 5 / METERS_PER_DEGREE;
+			lons[i] = x * 5 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons, 5f);
+
+		assertTrue(result.getSavedRatio() > 0.5f);
+		// The turn is seen on the fix after the corner, so the path is off by
+		// up to one fix spacing (5 m). Cutting a corner would be up to 25 m off.
+		assertTrue("max error " + result.maxError, result.maxError < 6);
+	}
+
+	/**
+	 * Replays fixes one second apart. Bearings are derived from consecutive points.
+	 * @param speed Speed of all the fixes, in m/s
+	 */
+	private static Result replay(double[] lats, double[] lons, float speed) {
+		AdaptiveSamplingScheduler scheduler = new AdaptiveSamplingScheduler(MIN_INTERVAL, MAX_INTERVAL);
+		Result result = new Result();
+		int n = lats.length;
+		result.total = n;
+
+		boolean[] kept = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			float bearing = (i > 0) ? GeoUtils.bearing(lats[i - 1], lons[i - 1], lats[i], lons[i]) : -1;
+			kept[i] = scheduler.onFix(i * 1000L, lats[i], lons[i], speed, bearing);
+		}
+		// The last fix would be the current position, always keep it
+		kept[n - 1] = true;
+
+		// Measure dropped points against the segment between the surrounding kept ones
+		double errorSum = 0;
+		int dropped = 0;
+		int prevKept = 0;
+		for (int i = 1; i < n; i++) {
+			if (kept[i]) {
+				for (int j = prevKept + 1; j < i; j++) {
+					double error = GeoUtils.distanceToSegment(lats[j], lons[j],
+							lats[prevKept], lons[prevKept], lats[i], lons[i]);
+					errorSum += error;
+					dropped++;
+					result.maxError = Math.max(result.maxError, error);
+				}
+				prevKept = i;
+			}
+		}
+		result.kept = n - dropped;
+		result.meanError = (dropped > 0) ? errorSum / dropped : 0;
+		return result;
+	}
+
+}
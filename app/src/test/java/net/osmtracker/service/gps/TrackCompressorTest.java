@@ -0,0 +1,171 @@
+package net.osmtracker.service.gps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.osmtracker.util.GeoUtils;
+
+import org.junit.Test;
+
+/**
+ * Replays synthetic tracks, recorded every second, through a
+ * {@link TrackCompressor} to check which points it keeps and how far
+ * the dropped points are from the compressed path.
+ */
+public class TrackCompressorTest {
+
+	private static final double TOLERANCE = 5;
+	private static final long INTERVAL = 1000;
+
+	/**
+	 * Meters per degree of latitude
+	 */
+	private static final double METERS_PER_DEGREE = GeoUtils.EARTH_RADIUS * Math.PI / 180;
+
+	/**
+	 * Outcome of a replay.
+	 */
+	private static class Result {
+		/** Indices of the kept points, in order */
+		List<Integer> kept = new ArrayList<Integer>();
+		/** Max. distance (meters) of dropped points to the kept path */
+		double maxError;
+	}
+
+	@Test
+	public void straightLineKeepsItsEnds() {
+		// 10 m/s eastwards on the equator, shorter than the max. hold time
+		int n = (int) (TrackCompressor.MAX_HOLD_TIME / INTERVAL) - 1;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lons[i] = i * 10 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons);
+
+		assertEquals(2, result.kept.size());
+		assertEquals(0, (int) result.kept.get(0));
+		assertEquals(n - 1, (int) result.kept.get(1));
+		assertTrue(result.maxError < 0.1);
+	}
+
+	@Test
+	public void straightLineIsNotHeldLongerThanMaxHoldTime() {
+		// 10 minutes of straight road
+		int n = 600;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lons[i] = i * 10 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons);
+
+		// A kept point is stored at most one fix after the max. hold time
+		long maxGap = TrackCompressor.MAX_HOLD_TIME / INTERVAL + 1;
+		for (int k = 1; k < result.kept.size(); k++) {
+			assertTrue(result.kept.get(k) - result.kept.get(k - 1) <= maxGap);
+		}
+		assertTrue(result.kept.size() < n / 5);
+	}
+
+	@Test
+	public void cornersAreKept() {
+		// 5 m/s around a 200 m square
+		int side = 40;
+		int n = 4 * side + 1;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			int leg = Math.min(i / side, 3);
+			int step = i - leg * side;
+			double x = 0, y = 0;
+			switch (leg) {
+			case 0: x = step; break;
+			case 1: x = side; y = step; break;
+			case 2: x = side - step; y = side; break;
+			case 3: y = side - step; break;
+			}
+			lats[i] = y * 5 / METERS_PER_DEGREE;
+			lons[i] = x * 5 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons);
+
+		for (int corner = side; corner < n; corner += side) {
+			assertTrue("corner " + corner + " in " + result.kept, result.kept.contains(corner));
+		}
+		assertTrue(result.maxError <= TOLERANCE);
+	}
+
+	@Test
+	public void jitterWithinToleranceIsDropped() {
+		// Straight line at 5 m/s, with up to 2 m of lateral noise
+		Random random = new Random(42);
+		int n = 120;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = (random.nextDouble() * 4 - 2) / METERS_PER_DEGREE;
+			lons[i] = i * 5 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons);
+
+		// Only the max. hold time closes the window
+		assertTrue("kept " + result.kept, result.kept.size() <= n * INTERVAL / TrackCompressor.MAX_HOLD_TIME + 2);
+		assertTrue(result.maxError <= TOLERANCE);
+	}
+
+	@Test
+	public void jitterAboveToleranceStaysWithinTolerance() {
+		// Up to 20 m of noise: many points kept, but the path stays within tolerance
+		Random random = new Random(42);
+		int n = 120;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = (random.nextDouble() * 40 - 20) / METERS_PER_DEGREE;
+			lons[i] = i * 5 / METERS_PER_DEGREE;
+		}
+		Result result = replay(lats, lons);
+
+		assertTrue(result.kept.size() > n * INTERVAL / TrackCompressor.MAX_HOLD_TIME + 2);
+		assertTrue("max error " + result.maxError, result.maxError <= TOLERANCE);
+	}
+
+	/**
+	 * Replays fixes one {@link #INTERVAL} apart, then flushes the compressor.
+	 */
+	private static Result replay(double[] lats, double[] lons) {
+		final Result result = new Result();
+		TrackCompressor<Integer> compressor = new TrackCompressor<Integer>(TOLERANCE,
+				new TrackCompressor.Listener<Integer>() {
+					@Override
+					public void onPoint(Integer point) {
+						result.kept.add(point);
+					}
+				});
+		int n = lats.length;
+		for (int i = 0; i < n; i++) {
+			compressor.add(i, lats[i], lons[i], i * INTERVAL);
+		}
+		compressor.flush();
+		assertEquals("last point kept", n - 1, (int) result.kept.get(result.kept.size() - 1));
+
+		// Measure dropped points against the segment between the surrounding kept ones
+		for (int k = 1; k < result.kept.size(); k++) {
+			int from = result.kept.get(k - 1);
+			int to = result.kept.get(k);
+			assertTrue("points kept in order", to > from);
+			for (int j = from + 1; j < to; j++) {
+				double error = GeoUtils.distanceToSegment(lats[j], lons[j],
+						lats[from], lons[from], lats[to], lons[to]);
+				result.maxError = Math.max(result.maxError, error);
+			}
+		}
+		return result;
+	}
+
+}